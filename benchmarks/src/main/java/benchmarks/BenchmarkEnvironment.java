@@ -0,0 +1,118 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+
+import util.ConfigManager;
+
+/**
+ * Temporary directory and config file for running the application classes in
+ * a benchmark. The config points the saved search directory into the
+ * temporary directory and the SMTP server at a closed local port, so nothing
+ * leaves the machine.
+ * <p>
+ * The application's singletons read the config once per JVM, so the
+ * environment must be created before any of them are used, and each
+ * benchmark must run in its own fork.
+ */
+public final class BenchmarkEnvironment {
+
+  /** Temporary directory **/
+  private final Path directory_;
+
+  /** Saved search directory, inside the temporary directory **/
+  private final Path savedSearchDirectory_;
+
+  /**
+   * Constructor for a benchmark environment.
+   *
+   * @param directory temporary directory
+   * @param savedSearchDirectory saved search directory
+   */
+  private BenchmarkEnvironment(Path directory, Path savedSearchDirectory) {
+    directory_ = directory;
+    savedSearchDirectory_ = savedSearchDirectory;
+  }
+
+  /**
+   * Create an environment with the default config.
+   *
+   * @return environment
+   */
+  public static BenchmarkEnvironment create() {
+    return create(new LinkedHashMap<String, Object>());
+  }
+
+  /**
+   * Create an environment, and point the config manager at its config file.
+   *
+   * @param overrides config properties which replace or add to the defaults
+   * @return environment
+   */
+  public static BenchmarkEnvironment create(Map<String, Object> overrides) {
+    try {
+      Path directory = Files.createTempDirectory("craigslist-bench");
+      Path savedSearchDirectory = Files.createDirectory(directory.resolve("saved"));
+
+      // Write the config, with the required properties first
+      Map<String, Object> config = new LinkedHashMap<String, Object>();
+      config.put("email_username", "bench@example.com");
+      config.put("email_password", "unused");
+      config.put("email_name", "Benchmark");
+      config.put("saved_search_directory", savedSearchDirectory.toString());
+      config.put("max_searches_per_minute", 60);
+      config.put("base_url", "http://localhost:8080");
+      config.put("smtp_host", "127.0.0.1");
+      config.put("smtp_port", 9);
+      config.put("smtp_auth", false);
+      config.put("smtp_starttls", false);
+      config.putAll(overrides);
+      Path configFile = directory.resolve("config.json");
+      Files.write(configFile, new Gson().toJson(config).getBytes(StandardCharsets.UTF_8));
+      System.setProperty(ConfigManager.CONFIG_FILE_PROPERTY, configFile.toString());
+
+      return new BenchmarkEnvironment(directory, savedSearchDirectory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Get the temporary directory, for files used by the benchmark itself.
+   *
+   * @return directory
+   */
+  public Path getDirectory() {
+    return directory_;
+  }
+
+  /**
+   * Get the saved search directory.
+   *
+   * @return directory
+   */
+  public Path getSavedSearchDirectory() {
+    return savedSearchDirectory_;
+  }
+
+  /**
+   * Delete the temporary directory and everything in it.
+   */
+  public void delete() {
+    try (Stream<Path> paths = Files.walk(directory_)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+}
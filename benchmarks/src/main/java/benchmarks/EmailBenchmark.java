@@ -0,0 +1,138 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import craigslist.Result;
+import craigslist.Search;
+import email.Email;
+import email.OutboxMessage;
+
+/**
+ * Benchmark for building emails: the outbox messages for a results email and
+ * an enrollment email, and rendering and encoding the MIME message which is
+ * written to the SMTP server. Nothing is queued or sent. Run with -prof gc to
+ * see the allocation per email.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class EmailBenchmark {
+
+  /** Number of results in the email **/
+  @Param({ "1", "10", "100", "500" })
+  public int results;
+
+  /** Benchmark environment **/
+  private BenchmarkEnvironment environment_;
+
+  /** Search the email is for **/
+  private Search search_;
+
+  /** Results in the email **/
+  private List<Result> results_;
+
+  /** Outbox message of a results email **/
+  private OutboxMessage message_;
+
+  /** Stream counting the bytes of the encoded message **/
+  private final CountingOutputStream output_ = new CountingOutputStream();
+
+  /**
+   * Create the environment, the search and the results.
+   */
+  @Setup
+  public void setUp() {
+    environment_ = BenchmarkEnvironment.create();
+    search_ = SearchPersistenceBenchmark.createSearch();
+    results_ = Fixtures.results(results, System.currentTimeMillis());
+    message_ = Email.createResultsMessage(search_, results_);
+  }
+
+  /**
+   * Delete the environment.
+   */
+  @TearDown
+  public void tearDown() {
+    environment_.delete();
+  }
+
+  /**
+   * Build the outbox message of a results email.
+   *
+   * @return outbox message
+   */
+  @Benchmark
+  public OutboxMessage resultsMessage() {
+    return Email.createResultsMessage(search_, results_);
+  }
+
+  /**
+   * Build the outbox message of an enrollment email.
+   *
+   * @return outbox message
+   */
+  @Benchmark
+  public OutboxMessage enrollmentMessage() {
+    return Email.createEnrollmentMessage(search_, results_);
+  }
+
+  /**
+   * Render the MIME message for a results email and encode it as it would be
+   * written to the SMTP server, without keeping the encoded bytes.
+   *
+   * @return encoded message size in bytes
+   * @throws Exception if the message cannot be built
+   */
+  @Benchmark
+  public long mimeMessage() throws Exception {
+    MimeMessage message = Email.createMimeMessage(message_);
+    output_.count_ = 0;
+    message.writeTo(output_);
+    return output_.count_;
+  }
+
+  /**
+   * Output stream which only counts the bytes written to it.
+   */
+  private static final class CountingOutputStream extends OutputStream {
+
+    /** Number of bytes written **/
+    private long count_;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(int b) {
+      count_++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(byte[] b, int off, int len) {
+      count_ += len;
+    }
+
+  }
+
+}
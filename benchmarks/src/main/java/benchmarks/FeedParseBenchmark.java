@@ -0,0 +1,101 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import craigslist.FeedParser;
+import craigslist.HtmlResultParser;
+import craigslist.RSSResultFetcher;
+import craigslist.Result;
+
+/**
+ * Benchmark for parsing feeds held in memory, with each of the parsers a
+ * result fetcher can use. Parsing the whole feed is what a coalesced fetch
+ * with seen post tracking does; parsing up to a since date is what a single
+ * search without it does, where the streaming parsers stop early.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class FeedParseBenchmark {
+
+  /** Time of the newest post, fixed so that runs parse the same bytes **/
+  private static final long NEWEST_MILLIS = 1520000000000L;
+
+  /** Number of posts newer than the since date **/
+  private static final int NEW_POSTS = 5;
+
+  /** Number of posts in the feed; Craigslist's RSS feeds have 25 and its pages 120 **/
+  @Param({ "25", "120", "1000" })
+  public int items;
+
+  /** Parser: "streaming" or "dom" for RSS, or "html" for a results page **/
+  @Param({ "streaming", "dom", "html" })
+  public String parser;
+
+  /** Feed bytes **/
+  private byte[] feed_;
+
+  /** Parser for the feed **/
+  private FeedParser feedParser_;
+
+  /** Since date which leaves a few new posts **/
+  private Date sinceDate_;
+
+  /**
+   * Create the feed and the parser.
+   */
+  @Setup
+  public void setUp() {
+    if (parser.equals("html")) {
+      feed_ = Fixtures.htmlPage(items, NEWEST_MILLIS);
+      feedParser_ = new HtmlResultParser(ZoneOffset.UTC, URI.create(Fixtures.SITE + "/search/apa"));
+    } else {
+      feed_ = Fixtures.rssFeed(items, NEWEST_MILLIS);
+      feedParser_ = RSSResultFetcher.createParser(parser);
+    }
+    sinceDate_ = new Date(Fixtures.getPostMillis(NEW_POSTS, NEWEST_MILLIS));
+  }
+
+  /**
+   * Parse every result in the feed.
+   *
+   * @return results
+   * @throws Exception if the feed cannot be parsed
+   */
+  @Benchmark
+  public List<Result> parseAll() throws Exception {
+    return feedParser_.parse(new ByteArrayInputStream(feed_), null, 0);
+  }
+
+  /**
+   * Parse the results newer than a since date near the top of the feed.
+   *
+   * @return results
+   * @throws Exception if the feed cannot be parsed
+   */
+  @Benchmark
+  public List<Result> parseSinceDate() throws Exception {
+    return feedParser_.parse(new ByteArrayInputStream(feed_), sinceDate_, 0);
+  }
+
+}
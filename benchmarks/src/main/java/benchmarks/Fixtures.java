@@ -0,0 +1,290 @@
+package benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import craigslist.Result;
+
+/**
+ * Generated feeds and results which look like Craigslist's, for running the
+ * parsers and email code without the network. Unless the posts are given,
+ * they are numbered from 0, newest first, one minute apart. The same arguments
+ * always produce the same bytes.
+ */
+public final class Fixtures {
+
+  /** Site the links point to **/
+  public static final String SITE = "https://sfbay.craigslist.org";
+
+  /** Post ID of post 0 **/
+  private static final long FIRST_POST_ID = 7000000000L;
+
+  /** Time between posts in milliseconds **/
+  public static final long POST_SPACING_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /** Formatter for the RSS dates **/
+  private static final DateTimeFormatter RSS_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX").withZone(ZoneOffset.UTC);
+
+  /** Formatter for the local times on results pages, which are in UTC here **/
+  private static final DateTimeFormatter HTML_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneOffset.UTC);
+
+  /** Words the titles are made from **/
+  private static final String[] WORDS = { "sunny", "2br", "apartment", "near", "park", "w/", "parking", "&", "laundry", "quiet", "remodeled", "studio", "view", "hardwood", "floors" };
+
+  /**
+   * Private constructor, since the class only has static methods.
+   */
+  private Fixtures() {
+  }
+
+  /**
+   * Create an RSS feed in the RDF format Craigslist uses.
+   *
+   * @param items number of items
+   * @param newestMillis time of the newest post in milliseconds
+   * @return feed bytes in UTF-8
+   */
+  public static byte[] rssFeed(int items, long newestMillis) {
+    return rssFeed(SITE, getPostIds(items), getPostTimes(items, newestMillis));
+  }
+
+  /**
+   * Create an RSS feed in the RDF format Craigslist uses, for given posts.
+   *
+   * @param site site the links point to
+   * @param postIds post IDs, newest first
+   * @param postMillis post times in milliseconds, newest first
+   * @return feed bytes in UTF-8
+   */
+  public static byte[] rssFeed(String site, long[] postIds, long[] postMillis) {
+    StringBuilder feed = new StringBuilder(512 + postIds.length * 900);
+    feed.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+    feed.append("<rdf:RDF xmlns=\"http://purl.org/rss/1.0/\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:syn=\"http://purl.org/rss/1.0/modules/syndication/\" xmlns:enc=\"http://purl.oclc.org/net/rss_2.0/enc#\">\n");
+    feed.append(" <channel rdf:about=\"").append(site).append("/search/apa?format=rss\">\n");
+    feed.append("  <title>craigslist sf bay area | apts/housing for rent search</title>\n");
+    feed.append("  <link>").append(site).append("/search/apa</link>\n");
+    feed.append("  <items>\n   <rdf:Seq>\n");
+    for (long postId : postIds) {
+      feed.append("    <rdf:li rdf:resource=\"").append(getLink(site, postId)).append("\" />\n");
+    }
+    feed.append("   </rdf:Seq>\n  </items>\n </channel>\n");
+
+    // Write the items, newest first
+    for (int i = 0; i < postIds.length; i++) {
+      long postId = postIds[i];
+      String link = getLink(site, postId);
+      String date = RSS_DATE.format(Instant.ofEpochMilli(postMillis[i]));
+      feed.append(" <item rdf:about=\"").append(link).append("\">\n");
+      feed.append("  <title><![CDATA[").append(getTitle(postId)).append(" &#x0024;").append(getPrice(postId)).append(" 2bd 950ft<sup>2</sup>]]></title>\n");
+      feed.append("  <link>").append(link).append("</link>\n");
+      feed.append("  <description><![CDATA[Bright unit with updated kitchen and bath. Close to transit, shops and restaurants. Available now, contact for a showing. Post ").append(getIndex(postId)).append(".]]></description>\n");
+      feed.append("  <dc:date>").append(date).append("</dc:date>\n");
+      feed.append("  <dc:language>en-us</dc:language>\n");
+      feed.append("  <dc:rights>copyright 2018 craiglist</dc:rights>\n");
+      feed.append("  <dc:source>").append(link).append("</dc:source>\n");
+      feed.append("  <dc:title><![CDATA[").append(getTitle(postId)).append("]]></dc:title>\n");
+      feed.append("  <dc:type>text</dc:type>\n");
+      feed.append("  <enc:enclosure resource=\"https://images.craigslist.org/00000_abcdefghij_300x300.jpg\" type=\"image/jpeg\"/>\n");
+      feed.append("  <dcterms:issued xmlns:dcterms=\"http://purl.org/dc/terms/\">").append(date).append("</dcterms:issued>\n");
+      feed.append(" </item>\n");
+    }
+    feed.append("</rdf:RDF>\n");
+    return feed.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Create a search results page in the format Craigslist uses, with a script,
+   * a style sheet and navigation around the results as on the real page. The
+   * times on the page are in UTC.
+   *
+   * @param items number of results
+   * @param newestMillis time of the newest post in milliseconds
+   * @return page bytes in UTF-8
+   */
+  public static byte[] htmlPage(int items, long newestMillis) {
+    return htmlPage(SITE, getPostIds(items), getPostTimes(items, newestMillis));
+  }
+
+  /**
+   * Create a search results page in the format Craigslist uses, for given
+   * posts.
+   *
+   * @param site site the links point to
+   * @param postIds post IDs, newest first
+   * @param postMillis post times in milliseconds, newest first
+   * @return page bytes in UTF-8
+   */
+  public static byte[] htmlPage(String site, long[] postIds, long[] postMillis) {
+    StringBuilder page = new StringBuilder(4096 + postIds.length * 1100);
+    page.append("<!DOCTYPE html>\n<html class=\"no-js\"><head>\n");
+    page.append("<title>SF bay area apts/housing for rent - craigslist</title>\n");
+    page.append("<meta name=\"viewport\" content=\"width=device-width,initial-scale=1\">\n");
+    page.append("<style>.result-row{margin:0 0 8px}.result-price{color:#080}</style>\n");
+    page.append("<script type=\"text/javascript\">var pagetype = 'search'; if (a < b && c > d) { init(); }</script>\n");
+    page.append("</head><body class=\"search\">\n");
+    page.append("<!-- header -->\n<header class=\"global-header\"><a class=\"header-logo\" href=\"/\">CL</a></header>\n");
+    page.append("<section class=\"content\"><form id=\"searchform\" action=\"/search/apa\" method=\"get\">\n");
+    page.append("<input type=\"text\" name=\"query\" value=\"\" placeholder=\"search apts/housing for rent\"></form>\n");
+    page.append("<div class=\"rows\"><ul class=\"rows\">\n");
+
+    // Write the results, newest first
+    for (int i = 0; i < postIds.length; i++) {
+      long postId = postIds[i];
+      String path = getPath(postId);
+      page.append("<li class=\"result-row\" data-pid=\"").append(postId).append("\">\n");
+      page.append("  <a href=\"").append(site).append(path).append("\" class=\"result-image gallery\" data-ids=\"1:00a0a_abcdefghij,1:00b0b_klmnopqrst\">\n");
+      page.append("    <span class=\"result-price\">&#x0024;").append(getPrice(postId)).append("</span>\n  </a>\n");
+      page.append("  <p class=\"result-info\">\n");
+      page.append("    <span class=\"icon icon-star\" role=\"button\"><span class=\"screen-reader-text\">favorite this post</span></span>\n");
+      page.append("    <time class=\"result-date\" datetime=\"").append(HTML_DATE.format(Instant.ofEpochMilli(postMillis[i]))).append("\" title=\"post time\">Mar  1</time>\n");
+      page.append("    <a href=\"").append(path).append("\" data-id=\"").append(postId).append("\" class=\"result-title hdrlnk\">").append(getTitle(postId).replace("&", "&amp;")).append("</a>\n");
+      page.append("    <span class=\"result-meta\">\n");
+      page.append("      <span class=\"result-price\">&#x0024;").append(getPrice(postId)).append("</span>\n");
+      page.append("      <span class=\"housing\">\n        2br -\n        950ft<sup>2</sup> -\n      </span>\n");
+      page.append("      <span class=\"result-hood\"> (mission district)</span>\n");
+      page.append("      <span class=\"result-tags\">\n        <span class=\"pictag\">pic</span>\n        <span class=\"maptag\" data-pid=\"").append(postId).append("\">map</span>\n      </span>\n");
+      page.append("    </span>\n  </p>\n</li>\n");
+    }
+
+    // Results from nearby areas follow, and must not be read
+    page.append("<h4 class=\"ban nearby\"><span class=\"bantext\">Few local results found. Here are some from nearby areas.</span></h4>\n");
+    page.append("<li class=\"result-row\" data-pid=\"6000000000\"><p class=\"result-info\"><time class=\"result-date\" datetime=\"2018-01-01 00:00\">Jan  1</time>");
+    page.append("<a href=\"/eby/apa/d/nearby/6000000000.html\" class=\"result-title hdrlnk\">nearby</a></p></li>\n");
+    page.append("</ul></div></section>\n<footer><ul class=\"clfooter\"><li>&copy; 2018 <span class=\"desktop\">craigslist</span></li></ul></footer>\n");
+    page.append("</body></html>\n");
+    return page.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Create results as a fetcher would return them.
+   *
+   * @param count number of results
+   * @param newestMillis time of the newest post in milliseconds
+   * @return results, newest first
+   */
+  public static List<Result> results(int count, long newestMillis) {
+    List<Result> results = new ArrayList<Result>(count);
+    for (int i = 0; i < count; i++) {
+      long postId = FIRST_POST_ID - i;
+      results.add(new Result(getTitle(postId), getLink(SITE, postId), "mission district", getPostMillis(i, newestMillis), postId, "$" + getPrice(postId)));
+    }
+    return results;
+  }
+
+  /**
+   * Get the time of a numbered post.
+   *
+   * @param index post number, 0 for the newest
+   * @param newestMillis time of the newest post in milliseconds
+   * @return post time in milliseconds
+   */
+  public static long getPostMillis(int index, long newestMillis) {
+    return newestMillis - index * POST_SPACING_MILLIS;
+  }
+
+  /**
+   * Get the absolute link of a post, which ends with its post ID.
+   *
+   * @param site site the link points to
+   * @param postId post ID
+   * @return link
+   */
+  public static String getLink(String site, long postId) {
+    return site + getPath(postId);
+  }
+
+  /**
+   * Get the IDs of numbered posts.
+   *
+   * @param items number of posts
+   * @return post IDs, newest first
+   */
+  private static long[] getPostIds(int items) {
+    long[] postIds = new long[items];
+    for (int i = 0; i < items; i++) {
+      postIds[i] = FIRST_POST_ID - i;
+    }
+    return postIds;
+  }
+
+  /**
+   * Get the times of numbered posts.
+   *
+   * @param items number of posts
+   * @param newestMillis time of the newest post in milliseconds
+   * @return post times in milliseconds, newest first
+   */
+  private static long[] getPostTimes(int items, long newestMillis) {
+    long[] postMillis = new long[items];
+    for (int i = 0; i < items; i++) {
+      postMillis[i] = getPostMillis(i, newestMillis);
+    }
+    return postMillis;
+  }
+
+  /**
+   * Get a small number for a post which the title and price are made from.
+   * For numbered posts it is the post number.
+   *
+   * @param postId post ID
+   * @return index
+   */
+  private static int getIndex(long postId) {
+    return (int) Math.floorMod(FIRST_POST_ID - postId, 1000000L);
+  }
+
+  /**
+   * Get the path of a post.
+   *
+   * @param postId post ID
+   * @return path
+   */
+  private static String getPath(long postId) {
+    return "/sfc/apa/d/" + getSlug(postId) + "/" + postId + ".html";
+  }
+
+  /**
+   * Get the title of a post, which varies in words and length.
+   *
+   * @param postId post ID
+   * @return title
+   */
+  private static String getTitle(long postId) {
+    int index = getIndex(postId);
+    StringBuilder title = new StringBuilder();
+    int words = 4 + index % 6;
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        title.append(' ');
+      }
+      title.append(WORDS[(index * 7 + i * 3) % WORDS.length]);
+    }
+    return title.toString();
+  }
+
+  /**
+   * Get the URL slug of a post, made from its title.
+   *
+   * @param postId post ID
+   * @return slug
+   */
+  private static String getSlug(long postId) {
+    return getTitle(postId).replaceAll("[^a-z0-9]+", "-");
+  }
+
+  /**
+   * Get the price of a post.
+   *
+   * @param postId post ID
+   * @return price in dollars
+   */
+  private static int getPrice(long postId) {
+    return 1500 + (getIndex(postId) * 37) % 3000;
+  }
+
+}
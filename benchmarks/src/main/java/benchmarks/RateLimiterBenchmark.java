@@ -0,0 +1,138 @@
+package benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import craigslist.RateLimiter;
+
+/**
+ * Benchmark for acquiring rate limit permits. Taking a permit which is
+ * available measures the cost the rate limiter adds to every search; waiting
+ * for permits from a fast refill measures how many permits the refill thread
+ * can hand out. Run with -t to add threads competing for permits.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class RateLimiterBenchmark {
+
+  /**
+   * A rate limiter with more saved permits than a run can take.
+   */
+  @State(Scope.Benchmark)
+  public static class FullBucket {
+
+    /** Benchmark environment **/
+    private BenchmarkEnvironment environment_;
+
+    /** Rate limiter **/
+    private RateLimiter rateLimiter_;
+
+    /**
+     * Create the environment and the rate limiter.
+     */
+    @Setup
+    public void setUp() {
+      Map<String, Object> config = new LinkedHashMap<String, Object>();
+      config.put("max_searches_per_minute", 1);
+      config.put("rate_limit_burst", Integer.MAX_VALUE);
+      environment_ = BenchmarkEnvironment.create(config);
+      rateLimiter_ = RateLimiter.getInstance();
+    }
+
+    /**
+     * Stop the rate limiter and delete the environment.
+     */
+    @TearDown
+    public void tearDown() {
+      rateLimiter_.shutdown();
+      environment_.delete();
+    }
+
+  }
+
+  /**
+   * A rate limiter which refills once a microsecond and saves no permits.
+   */
+  @State(Scope.Benchmark)
+  public static class FastRefill {
+
+    /** Benchmark environment **/
+    private BenchmarkEnvironment environment_;
+
+    /** Rate limiter **/
+    private RateLimiter rateLimiter_;
+
+    /**
+     * Create the environment and the rate limiter.
+     */
+    @Setup
+    public void setUp() {
+      Map<String, Object> config = new LinkedHashMap<String, Object>();
+      config.put("max_searches_per_minute", 60000000);
+      config.put("rate_limit_burst", 1);
+      environment_ = BenchmarkEnvironment.create(config);
+      rateLimiter_ = RateLimiter.getInstance();
+    }
+
+    /**
+     * Stop the rate limiter and delete the environment.
+     */
+    @TearDown
+    public void tearDown() {
+      rateLimiter_.shutdown();
+      environment_.delete();
+    }
+
+  }
+
+  /**
+   * Take a permit which is available.
+   *
+   * @param state full bucket
+   * @return true if a permit was taken
+   */
+  @Benchmark
+  public boolean tryAcquire(FullBucket state) {
+    return state.rateLimiter_.tryAcquire();
+  }
+
+  /**
+   * Take a permit which is available through the asynchronous path used by the
+   * dispatch queue.
+   *
+   * @param state full bucket
+   * @return completed future
+   */
+  @Benchmark
+  public Object acquireAsync(FullBucket state) {
+    return state.rateLimiter_.acquireAsync().join();
+  }
+
+  /**
+   * Wait for a permit from the refill thread.
+   *
+   * @param state fast refill
+   * @return completed future
+   */
+  @Benchmark
+  public Object acquireFromRefill(FastRefill state) {
+    return state.rateLimiter_.acquireAsync().join();
+  }
+
+}
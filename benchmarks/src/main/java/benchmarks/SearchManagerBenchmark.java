@@ -0,0 +1,172 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import craigslist.Search;
+import craigslist.SearchFrequency;
+import craigslist.SearchManager;
+import store.SearchStore;
+
+/**
+ * Benchmark for the search manager with many searches. Startup loads every
+ * saved search from the journal and schedules it, and is measured once per
+ * fork since the search manager can only start once in a JVM. Adding and
+ * removing a search is measured against a running manager.
+ * <p>
+ * The rate limit is set to one search per minute, so the searches hardly run
+ * and the initial fetch of each added search waits in the dispatch queue; the
+ * benchmark measures the scheduler and the store, not the network.
+ */
+public class SearchManagerBenchmark {
+
+  /** Frequencies given to the saved searches in turn **/
+  private static final SearchFrequency[] FREQUENCIES = { SearchFrequency.TEN_MINUTES, SearchFrequency.HOUR, SearchFrequency.HOUR, SearchFrequency.DAY, SearchFrequency.WEEK };
+
+  /** Number of threads saving searches while the store is filled **/
+  private static final int FILL_THREADS = 64;
+
+  /**
+   * Saved searches, ready for the search manager to start.
+   */
+  @State(Scope.Benchmark)
+  public static class SavedSearches {
+
+    /** Number of saved searches **/
+    @Param({ "10000", "100000", "1000000" })
+    public int searches;
+
+    /** Benchmark environment **/
+    private BenchmarkEnvironment environment_;
+
+    /**
+     * Create the environment and save the searches.
+     *
+     * @throws Exception if the searches cannot be saved
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+      Map<String, Object> config = new LinkedHashMap<String, Object>();
+      config.put("max_searches_per_minute", 1);
+      config.put("outbox_capacity", 1);
+      environment_ = BenchmarkEnvironment.create(config);
+      fillStore(searches);
+    }
+
+    /**
+     * Stop the search manager and delete the environment.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      SearchManager.getInstance().shutdown();
+      SearchStore.getInstance().close();
+      environment_.delete();
+    }
+
+  }
+
+  /**
+   * A running search manager with saved searches.
+   */
+  @State(Scope.Benchmark)
+  public static class RunningManager extends SavedSearches {
+
+    /** Search manager **/
+    private SearchManager manager_;
+
+    /**
+     * Start the search manager.
+     */
+    @Setup(Level.Trial)
+    public void start() {
+      manager_ = SearchManager.getInstance();
+    }
+
+  }
+
+  /**
+   * Start the search manager, loading and scheduling every saved search.
+   *
+   * @param state saved searches
+   * @return search manager
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 1)
+  @Fork(5)
+  public SearchManager startup(SavedSearches state) {
+    return SearchManager.getInstance();
+  }
+
+  /**
+   * Add a new search and remove it again, including saving and removing it in
+   * the store.
+   *
+   * @param state running search manager
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  @Fork(2)
+  public void addAndRemove(RunningManager state) {
+    Search search = SearchPersistenceBenchmark.createSearch();
+    state.manager_.addSearch(search);
+    state.manager_.removeSearch(search.getUUID());
+  }
+
+  /**
+   * Save searches to the configured store, from many threads so that the
+   * journal commits them in large groups. The store is closed afterwards, so
+   * that the search manager opens it afresh.
+   *
+   * @param count number of searches
+   * @throws Exception if the searches cannot be saved
+   */
+  private static void fillStore(int count) throws Exception {
+    SearchStore store = SearchStore.create("journal");
+    ExecutorService executor = Executors.newFixedThreadPool(FILL_THREADS);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>(FILL_THREADS);
+      for (int t = 0; t < FILL_THREADS; t++) {
+        int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int i = thread; i < count; i += FILL_THREADS) {
+            Search search = new Search(Fixtures.SITE + "/search/apa?query=" + i, "user" + (i % 1000) + "@example.com", FREQUENCIES[i % FREQUENCIES.length], "Search " + i);
+            store.put(search);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+      store.close();
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import craigslist.Search;
+import craigslist.SearchFrequency;
+import store.SearchStore;
+
+/**
+ * Benchmark for saving and loading searches. Saving goes through the
+ * configured search store, so with the journal store it includes waiting for
+ * the group commit to reach the disk. The file round trip is the JSON form on
+ * its own, as written by the file store and read back by Search.fromFile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SearchPersistenceBenchmark {
+
+  /**
+   * A search saved to the configured store.
+   */
+  @State(Scope.Benchmark)
+  public static class StoreState {
+
+    /** Search store: "journal" or "file" **/
+    @Param({ "journal", "file" })
+    public String store;
+
+    /** Benchmark environment **/
+    private BenchmarkEnvironment environment_;
+
+    /** Search which is saved **/
+    private Search search_;
+
+    /**
+     * Create the environment and save the search once.
+     */
+    @Setup
+    public void setUp() {
+      environment_ = BenchmarkEnvironment.create(Collections.<String, Object>singletonMap("search_store", store));
+      search_ = createSearch();
+      search_.save();
+    }
+
+    /**
+     * Close the store and delete the environment.
+     */
+    @TearDown
+    public void tearDown() {
+      SearchStore.getInstance().close();
+      environment_.delete();
+    }
+
+  }
+
+  /**
+   * A search and a file for its JSON form.
+   */
+  @State(Scope.Thread)
+  public static class FileState {
+
+    /** Directory holding the file **/
+    private Path directory_;
+
+    /** File for the JSON form **/
+    private Path file_;
+
+    /** Search which is written and read **/
+    private Search search_;
+
+    /**
+     * Create the directory and the search.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    @Setup
+    public void setUp() throws IOException {
+      directory_ = Files.createTempDirectory("craigslist-bench");
+      file_ = directory_.resolve("search.json");
+      search_ = createSearch();
+    }
+
+    /**
+     * Delete the file and the directory.
+     *
+     * @throws IOException if they cannot be deleted
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+      Files.deleteIfExists(file_);
+      Files.deleteIfExists(directory_);
+    }
+
+  }
+
+  /**
+   * Save a search which is already in the store, as a changed search would be.
+   *
+   * @param state store state
+   */
+  @Benchmark
+  public void save(StoreState state) {
+    state.search_.save();
+  }
+
+  /**
+   * Write the JSON form of a search to a file and load it back.
+   *
+   * @param state file state
+   * @return loaded search
+   * @throws IOException if the file cannot be written
+   */
+  @Benchmark
+  public Search fileRoundTrip(FileState state) throws IOException {
+    Files.write(state.file_, state.search_.toJson().getBytes(StandardCharsets.UTF_8));
+    return Search.fromFile(state.file_.toString());
+  }
+
+  /**
+   * Convert a search to its JSON form and back, without the disk.
+   *
+   * @param state file state
+   * @return converted search
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Search jsonRoundTrip(FileState state) {
+    return Search.fromJson(state.search_.toJson());
+  }
+
+  /**
+   * Create a search like one made through the web page.
+   *
+   * @return search
+   */
+  static Search createSearch() {
+    return new Search(Fixtures.SITE + "/search/sfc/apa?max_price=3000&min_bedrooms=2&availabilityMode=0", "bench@example.com", SearchFrequency.HOUR, "Two bedrooms in the city");
+  }
+
+}
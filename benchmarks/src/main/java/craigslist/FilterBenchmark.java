@@ -0,0 +1,130 @@
+package craigslist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.Fixtures;
+
+/**
+ * Benchmark for filtering a page of results for every search on a feed, each
+ * with its own include and exclude terms and price range. The shared path
+ * matches the page once with one matcher for all of the filters, as the feed
+ * coalescer does; the separate path compiles and matches each search's filter
+ * on its own, which is what filtering without a shared matcher costs. The
+ * benchmark is in the craigslist package for access to the feed filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class FilterBenchmark {
+
+  /** Words besides the fixture title words the terms are made from **/
+  private static final String[] WORDS = { "pets", "ok", "furnished", "garden", "balcony", "doorman", "gym", "pool", "sublet", "shared", "room", "basement", "garage", "deck", "fireplace", "loft" };
+
+  /** Number of searches on the feed **/
+  @Param({ "1", "100", "1000" })
+  public int searches;
+
+  /** Number of results on the page **/
+  @Param({ "120" })
+  public int results;
+
+  /** Searches on the feed, all with filters **/
+  private List<Search> searches_;
+
+  /** Filter of every search on the feed **/
+  private FeedFilter filter_;
+
+  /** Page of results **/
+  private List<Result> results_;
+
+  /**
+   * Create the searches, their feed filter and the page of results.
+   */
+  @Setup
+  public void setUp() {
+    // Give each search two or three include terms, some of them phrases, one
+    // exclude term and a price range
+    Random random = new Random(1);
+    List<String> words = new ArrayList<String>(Arrays.asList(WORDS));
+    words.addAll(Arrays.asList("sunny", "2br", "apartment", "park", "parking", "laundry", "quiet", "remodeled", "studio", "view", "hardwood"));
+    searches_ = new ArrayList<Search>(searches);
+    for (int i = 0; i < searches; i++) {
+      List<String> include = new ArrayList<String>();
+      for (int j = 0; j < 2 + random.nextInt(2); j++) {
+        String term = words.get(random.nextInt(words.size()));
+        include.add(random.nextBoolean() ? term : term + " " + words.get(random.nextInt(words.size())));
+      }
+      List<String> exclude = Arrays.asList(words.get(random.nextInt(words.size())) + i);
+      int minPrice = 500 * random.nextInt(4);
+      SearchFilter filter = new SearchFilter(include, exclude, minPrice, minPrice + 2000 + 500 * random.nextInt(4), random.nextInt(4) == 0);
+      searches_.add(new Search("https://sfbay.craigslist.org/search/apa?query=" + i, "user" + i + "@example.com", SearchFrequency.values()[0], "Search " + i, "rss", filter));
+    }
+    filter_ = FeedFilter.create(searches_);
+    results_ = Fixtures.results(results, System.currentTimeMillis());
+  }
+
+  /**
+   * Find the terms of every filter in the page, once for all of the searches.
+   *
+   * @return terms found
+   */
+  @Benchmark
+  public FeedFilter.Matches match() {
+    // Copy the page, since the feed filter reuses the matches of the same list
+    return filter_.match(new ArrayList<Result>(results_));
+  }
+
+  /**
+   * Match the page once and check every result against every search's filter.
+   *
+   * @return number of results accepted
+   */
+  @Benchmark
+  public int filterShared() {
+    FeedFilter.Matches matches = filter_.match(new ArrayList<Result>(results_));
+    int accepted = 0;
+    for (Search search : searches_) {
+      for (int i = 0; i < results_.size(); i++) {
+        if (filter_.accepts(search, matches, i)) {
+          accepted++;
+        }
+      }
+    }
+    return accepted;
+  }
+
+  /**
+   * Compile and match each search's filter on its own.
+   *
+   * @return number of results accepted
+   */
+  @Benchmark
+  public int filterSeparately() {
+    int accepted = 0;
+    for (Search search : searches_) {
+      List<Result> filtered = FeedFilter.apply(search, results_, 0);
+      accepted += filtered == null ? 0 : filtered.size();
+    }
+    return accepted;
+  }
+
+}
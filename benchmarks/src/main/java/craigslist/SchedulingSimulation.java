@@ -0,0 +1,799 @@
+package craigslist;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import util.Clock;
+
+/**
+ * Discrete-event simulation of the search scheduler, which replays days of
+ * synthetic posting traffic across many searches in virtual time and compares
+ * scheduling policies by fetch count, missed posts and detection latency.
+ * <p>
+ * Searches are real {@link Search} objects created under a virtual clock, and
+ * they are scheduled with the scheduler's own {@link SearchPhase} and
+ * {@link PollingInterval}. Feed fetches are shared between the searches on a
+ * feed as the feed coalescer shares them, and wait for permits from a token
+ * bucket like the rate limiter's, handed out in arrival order or by the
+ * dispatch queue's {@link FairQueue}. A post is missed by a search if it has
+ * scrolled off the feed's page by the time the search next sees the feed, and
+ * its detection latency is the time from the post being published to a fetch
+ * including it completing. Email delivery and idle early runs are not
+ * simulated.
+ * <p>
+ * Options are given as name=value arguments, see {@link #DEFAULTS}. Policies
+ * are "fixed", which runs every search at its frequency and hands out permits
+ * in arrival order, "adaptive", which stretches the interval of quiet searches
+ * by the adaptive poll factor, and "fair", which hands out permits by email
+ * address; "adaptive+fair" combines the two.
+ */
+public final class SchedulingSimulation {
+
+  /** Default options **/
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+
+  static {
+    DEFAULTS.put("searches", "100000");
+    DEFAULTS.put("feeds", "20000");
+    DEFAULTS.put("addresses", "20000");
+    DEFAULTS.put("days", "7");
+    DEFAULTS.put("rate", "2000");
+    DEFAULTS.put("burst", "1");
+    DEFAULTS.put("adaptive_factor", "4");
+    DEFAULTS.put("page_size", "25");
+    DEFAULTS.put("posts_per_day", "12");
+    DEFAULTS.put("fetch_seconds", "2");
+    DEFAULTS.put("policies", "fixed,adaptive,fair,adaptive+fair");
+    DEFAULTS.put("seed", "1");
+  }
+
+  /** Search frequencies, in the proportions of {@link #FREQUENCY_SHARES} **/
+  private static final SearchFrequency[] FREQUENCIES = { SearchFrequency.MINUTE, SearchFrequency.TEN_MINUTES, SearchFrequency.THIRTY_MINUTES, SearchFrequency.HOUR, SearchFrequency.DAY, SearchFrequency.WEEK };
+
+  /** Share of the searches with each frequency **/
+  private static final double[] FREQUENCY_SHARES = { 0.01, 0.09, 0.15, 0.40, 0.30, 0.05 };
+
+  /** Number of searches from which an email address counts as heavy **/
+  private static final int HEAVY_ADDRESS_SEARCHES = 50;
+
+  /** Start of the simulation, which is midnight UTC on a Monday **/
+  private static final long START_MILLIS = 1520208000000L;
+
+  /** Length of a day in milliseconds **/
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  /** Highest value of the daily posting rate multiplier **/
+  private static final double MAX_RATE_MULTIPLIER = 1.8;
+
+  /** Options **/
+  private final Map<String, String> options_;
+
+  /** Current virtual time in milliseconds **/
+  private long nowMillis_ = START_MILLIS;
+
+  /** Searches **/
+  private Search[] searches_;
+
+  /** Phase of each search **/
+  private SearchPhase[] phases_;
+
+  /** Feed of each search **/
+  private int[] feedOf_;
+
+  /** Whether each search belongs to a heavy email address **/
+  private boolean[] heavy_;
+
+  /** Publish times of the posts in each feed in milliseconds, oldest first **/
+  private long[][] posts_;
+
+  /**
+   * Constructor for a simulation.
+   *
+   * @param options options, with the defaults filled in
+   */
+  private SchedulingSimulation(Map<String, String> options) {
+    options_ = options;
+  }
+
+  /**
+   * Run the simulation.
+   *
+   * @param args options as name=value
+   */
+  public static void main(String[] args) {
+    Map<String, String> options = new LinkedHashMap<String, String>(DEFAULTS);
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals < 0 || !DEFAULTS.containsKey(arg.substring(0, equals))) {
+        System.err.println("Unknown option " + arg + ", options and defaults are " + DEFAULTS);
+        System.exit(2);
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    new SchedulingSimulation(options).run();
+  }
+
+  /**
+   * Generate the workload, and simulate each policy on it.
+   */
+  private void run() {
+    // Run the application classes in virtual time
+    Clock.setInstance(new Clock() {
+
+      /**
+       * {@inheritDoc}
+       */
+      public long currentTimeMillis() {
+        return nowMillis_;
+      }
+
+    });
+    System.out.println("Options: " + options_);
+    long startNanos = System.nanoTime();
+    generate();
+    System.out.printf(Locale.ROOT, "Generated the workload in %.1f s%n%n", (System.nanoTime() - startNanos) / 1e9);
+
+    // Simulate each policy from the start
+    System.out.printf(Locale.ROOT, "%-14s %10s %8s %10s %6s %10s %8s %7s %8s %8s %8s %8s %9s %9s %9s %6s%n", "policy", "runs", "skipped", "fetches", "f/run", "seen", "missed", "missed%", "p50", "p90", "p99", "max", "heavy p99", "light p99", "wait p99", "wall");
+    for (String policy : options_.get("policies").split(",")) {
+      boolean adaptive = false;
+      boolean fair = false;
+      for (String part : policy.split("\\+")) {
+        if (part.equals("adaptive")) {
+          adaptive = true;
+        } else if (part.equals("fair")) {
+          fair = true;
+        } else if (!part.equals("fixed")) {
+          System.err.println("Unknown policy " + policy);
+          System.exit(2);
+        }
+      }
+      nowMillis_ = START_MILLIS;
+      startNanos = System.nanoTime();
+      PolicyRun run = new PolicyRun(policy, adaptive, fair);
+      run.simulate(START_MILLIS + getInt("days") * DAY_MILLIS);
+      run.print((System.nanoTime() - startNanos) / 1e9);
+    }
+    Clock.setInstance(null);
+  }
+
+  /**
+   * Generate the searches, their feeds and email addresses, and the posts in
+   * every feed which has searches.
+   */
+  private void generate() {
+    int searchCount = getInt("searches");
+    int feedCount = getInt("feeds");
+    int addressCount = getInt("addresses");
+    Random random = new Random(Long.parseLong(options_.get("seed")));
+
+    // Create the searches, with a few popular feeds and a few addresses owning
+    // many searches
+    searches_ = new Search[searchCount];
+    phases_ = new SearchPhase[searchCount];
+    feedOf_ = new int[searchCount];
+    int[] addressOf = new int[searchCount];
+    int[] addressSearches = new int[addressCount];
+    for (int i = 0; i < searchCount; i++) {
+      feedOf_[i] = (int) (feedCount * Math.pow(random.nextDouble(), 2));
+      addressOf[i] = (int) (addressCount * Math.pow(random.nextDouble(), 3));
+      addressSearches[addressOf[i]]++;
+      SearchFrequency frequency = pickFrequency(random.nextDouble());
+      searches_[i] = new Search("https://sfbay.craigslist.org/search/apa?feed=" + feedOf_[i], "user" + addressOf[i] + "@example.com", frequency, "Simulated " + i);
+      phases_[i] = new SearchPhase(searches_[i].getUUID(), frequency.getMillis());
+    }
+    heavy_ = new boolean[searchCount];
+    int heavySearches = 0;
+    int heavyAddresses = 0;
+    for (int i = 0; i < searchCount; i++) {
+      heavy_[i] = addressSearches[addressOf[i]] >= HEAVY_ADDRESS_SEARCHES;
+      heavySearches += heavy_[i] ? 1 : 0;
+    }
+    for (int searches : addressSearches) {
+      heavyAddresses += searches >= HEAVY_ADDRESS_SEARCHES ? 1 : 0;
+    }
+
+    // Generate the posts of each feed with searches, at a rate of its own
+    // which rises in the afternoon and falls at night and at weekends
+    posts_ = new long[feedCount][];
+    boolean[] used = new boolean[feedCount];
+    for (int feed : feedOf_) {
+      used[feed] = true;
+    }
+    long endMillis = START_MILLIS + getInt("days") * DAY_MILLIS;
+    long postCount = 0;
+    int usedFeeds = 0;
+    for (int feed = 0; feed < feedCount; feed++) {
+      if (!used[feed]) {
+        continue;
+      }
+      usedFeeds++;
+      double postsPerDay = Double.parseDouble(options_.get("posts_per_day")) * Math.exp(random.nextGaussian() - 0.5);
+      double maxRatePerMilli = postsPerDay * MAX_RATE_MULTIPLIER / DAY_MILLIS;
+      long[] times = new long[16];
+      int count = 0;
+      double time = START_MILLIS;
+      while (true) {
+        time += -Math.log(1 - random.nextDouble()) / maxRatePerMilli;
+        if (time >= endMillis) {
+          break;
+        } else if (random.nextDouble() * MAX_RATE_MULTIPLIER >= getRateMultiplier((long) time)) {
+          continue;
+        }
+        if (count == times.length) {
+          times = Arrays.copyOf(times, count * 2);
+        }
+        times[count++] = (long) time;
+      }
+      posts_[feed] = Arrays.copyOf(times, count);
+      postCount += count;
+    }
+    System.out.printf(Locale.ROOT, "Workload: %d searches on %d feeds, %d posts over %d days, %d heavy addresses with %d searches%n", searchCount, usedFeeds, postCount, getInt("days"), heavyAddresses, heavySearches);
+  }
+
+  /**
+   * Pick a search frequency in the configured proportions.
+   *
+   * @param uniform uniform random number between 0 and 1
+   * @return search frequency
+   */
+  private static SearchFrequency pickFrequency(double uniform) {
+    double cumulative = 0;
+    for (int i = 0; i < FREQUENCIES.length; i++) {
+      cumulative += FREQUENCY_SHARES[i];
+      if (uniform < cumulative) {
+        return FREQUENCIES[i];
+      }
+    }
+    return FREQUENCIES[FREQUENCIES.length - 1];
+  }
+
+  /**
+   * Get the posting rate at a time, relative to the daily average of a
+   * weekday.
+   *
+   * @param millis time in milliseconds
+   * @return rate multiplier, between 0 and {@link #MAX_RATE_MULTIPLIER}
+   */
+  private static double getRateMultiplier(long millis) {
+    long sinceStart = millis - START_MILLIS;
+    double hour = (double) (sinceStart % DAY_MILLIS) / TimeUnit.HOURS.toMillis(1);
+    double multiplier = 1 + 0.8 * Math.sin(2 * Math.PI * (hour - 9) / 24);
+    return sinceStart / DAY_MILLIS % 7 >= 5 ? 0.7 * multiplier : multiplier;
+  }
+
+  /**
+   * Get an integer option.
+   *
+   * @param name option name
+   * @return value
+   */
+  private int getInt(String name) {
+    return Integer.parseInt(options_.get(name));
+  }
+
+  /**
+   * Simulation of one policy over the workload.
+   */
+  private final class PolicyRun {
+
+    /** Name of the policy **/
+    private final String name_;
+
+    /** Whether quiet searches run less often **/
+    private final boolean adaptive_;
+
+    /** Whether permits are handed out by email address **/
+    private final boolean fair_;
+
+    /** Number of posts shown on a feed's page **/
+    private final int pageSize_;
+
+    /** Time a fetch takes in milliseconds **/
+    private final long fetchDurationMillis_;
+
+    /** Time between rate limit refills in milliseconds **/
+    private final double refillMillis_;
+
+    /** Maximum number of saved permits **/
+    private final int burst_;
+
+    /** Pending events **/
+    private final EventHeap events_ = new EventHeap();
+
+    /** Adaptive interval of each search **/
+    private final PollingInterval[] intervals_;
+
+    /** Next run of each search in milliseconds **/
+    private final long[] deadlines_;
+
+    /** Time each search's current run was due in milliseconds **/
+    private final long[] dueMillis_;
+
+    /** Whether each search is running **/
+    private final boolean[] running_;
+
+    /** Time each search's last run completed in milliseconds **/
+    private final long[] lastRunMillis_;
+
+    /** Number of posts of its feed each search has accounted for **/
+    private final int[] accounted_;
+
+    /** Next search waiting for the same fetch, or -1 **/
+    private final int[] nextJoiner_;
+
+    /** First search waiting for each feed's fetch, or -1 if none is in progress **/
+    private final int[] joiners_;
+
+    /** Number of posts published when each feed's fetch in progress was sent **/
+    private final int[] pendingCounts_;
+
+    /** Number of posts published when each feed's last fetch was sent **/
+    private final int[] fetchCounts_;
+
+    /** Time each feed's last fetch completed in milliseconds, or 0 **/
+    private final long[] fetchMillis_;
+
+    /** Searches waiting for a permit in arrival order, if not fair **/
+    private final ArrayDeque<Integer> fifo_ = new ArrayDeque<Integer>();
+
+    /** Searches waiting for a permit by email address, if fair **/
+    private final FairQueue<Integer> fairQueue_ = new FairQueue<Integer>();
+
+    /** Available permits **/
+    private int tokens_;
+
+    /** Number of the next refill **/
+    private long nextRefill_ = 1;
+
+    /** Whether a permit grant is pending **/
+    private boolean granting_;
+
+    /** Number of search runs **/
+    private long runs_;
+
+    /** Number of runs skipped because the previous run was still going **/
+    private long skipped_;
+
+    /** Number of fetches **/
+    private long fetches_;
+
+    /** Number of posts seen by searches **/
+    private long seen_;
+
+    /** Number of posts missed by searches **/
+    private long missed_;
+
+    /** Detection latency of all searches in milliseconds **/
+    private final Histogram latency_;
+
+    /** Detection latency of searches of heavy addresses in milliseconds **/
+    private final Histogram heavyLatency_;
+
+    /** Detection latency of other searches in milliseconds **/
+    private final Histogram lightLatency_;
+
+    /** Time waited for permits past the due time in milliseconds **/
+    private final Histogram wait_;
+
+    /**
+     * Constructor for a policy run, with every search scheduled as if it had
+     * just been added.
+     *
+     * @param name name of the policy
+     * @param adaptive whether quiet searches run less often
+     * @param fair whether permits are handed out by email address
+     */
+    private PolicyRun(String name, boolean adaptive, boolean fair) {
+      name_ = name;
+      adaptive_ = adaptive;
+      fair_ = fair;
+      pageSize_ = getInt("page_size");
+      fetchDurationMillis_ = TimeUnit.SECONDS.toMillis(getInt("fetch_seconds"));
+      refillMillis_ = 60000.0 / getInt("rate");
+      burst_ = getInt("burst");
+      tokens_ = burst_;
+
+      // Register the histograms under the policy's name
+      MetricsRegistry metrics = MetricsRegistry.getInstance();
+      String suffix = name.replaceAll("[^a-z]", "_");
+      latency_ = metrics.histogram("simulation_detection_seconds_" + suffix, "Simulated time from a post being published to a search seeing it.", 1e-3);
+      heavyLatency_ = metrics.histogram("simulation_heavy_detection_seconds_" + suffix, "Simulated detection latency of searches of heavy addresses.", 1e-3);
+      lightLatency_ = metrics.histogram("simulation_light_detection_seconds_" + suffix, "Simulated detection latency of searches of other addresses.", 1e-3);
+      wait_ = metrics.histogram("simulation_permit_wait_seconds_" + suffix, "Simulated time fetches waited past their due time for a permit.", 1e-3);
+
+      // Schedule each search as the search manager schedules a new search
+      int searchCount = searches_.length;
+      int feedCount = posts_.length;
+      int factor = adaptive ? getInt("adaptive_factor") : 1;
+      intervals_ = new PollingInterval[searchCount];
+      deadlines_ = new long[searchCount];
+      dueMillis_ = new long[searchCount];
+      running_ = new boolean[searchCount];
+      lastRunMillis_ = new long[searchCount];
+      accounted_ = new int[searchCount];
+      nextJoiner_ = new int[searchCount];
+      for (int i = 0; i < searchCount; i++) {
+        long frequencyMillis = searches_[i].getFrequency().getMillis();
+        intervals_[i] = new PollingInterval(frequencyMillis, frequencyMillis * factor, nowMillis_);
+        long lastSearchMillis = searches_[i].getLastSearchDate().getTime();
+        lastRunMillis_[i] = lastSearchMillis;
+        schedule(i, Math.max(phases_[i].getNextDeadline(lastSearchMillis, frequencyMillis), phases_[i].alignToPhase(nowMillis_)));
+      }
+      joiners_ = new int[feedCount];
+      Arrays.fill(joiners_, -1);
+      pendingCounts_ = new int[feedCount];
+      fetchCounts_ = new int[feedCount];
+      fetchMillis_ = new long[feedCount];
+    }
+
+    /**
+     * Process events until the end time.
+     *
+     * @param endMillis end time in milliseconds
+     */
+    private void simulate(long endMillis) {
+      int searchCount = searches_.length;
+      while (!events_.isEmpty()) {
+        long event = events_.peek();
+        long millis = START_MILLIS + EventHeap.getTime(event);
+        if (millis > endMillis) {
+          break;
+        }
+        events_.pop();
+        nowMillis_ = millis;
+        int id = EventHeap.getId(event);
+        if (id < searchCount) {
+          if (deadlines_[id] == millis) {
+            runSearch(id);
+          }
+        } else if (id < searchCount + posts_.length) {
+          finishFetch(id - searchCount);
+        } else {
+          grantNext();
+        }
+      }
+    }
+
+    /**
+     * Run a search which is due, as the search manager does.
+     *
+     * @param search search index
+     */
+    private void runSearch(int search) {
+      // Schedule the next run one interval on, skipping runs which were missed
+      long periodMillis = intervals_[search].getIntervalMillis(nowMillis_);
+      long dueMillis = deadlines_[search];
+      long nextDeadlineMillis = phases_[search].getNextDeadline(dueMillis, periodMillis);
+      if (nextDeadlineMillis <= nowMillis_) {
+        nextDeadlineMillis = phases_[search].getNextDeadline(nowMillis_, periodMillis);
+      }
+      schedule(search, nextDeadlineMillis);
+
+      // Skip this run if the previous one has not finished yet
+      if (running_[search]) {
+        skipped_++;
+        return;
+      }
+      running_[search] = true;
+      dueMillis_[search] = dueMillis;
+      runs_++;
+
+      // Join a fetch in progress, reuse a fresh one, or start a new one, as the
+      // feed coalescer does
+      int feed = feedOf_[search];
+      if (joiners_[feed] != -1) {
+        nextJoiner_[search] = joiners_[feed];
+        joiners_[feed] = search;
+      } else if (fetchMillis_[feed] > lastRunMillis_[search] && nowMillis_ - fetchMillis_[feed] < searches_[search].getFrequency().getMillis()) {
+        finishRun(search, fetchCounts_[feed]);
+      } else {
+        nextJoiner_[search] = -1;
+        joiners_[feed] = search;
+        acquire(search);
+      }
+    }
+
+    /**
+     * Take a permit for a search's fetch, or wait for one.
+     *
+     * @param search search index
+     */
+    private void acquire(int search) {
+      boolean isEmpty = fair_ ? fairQueue_.size() == 0 : fifo_.isEmpty();
+      if (isEmpty && !granting_) {
+        refill();
+        if (tokens_ > 0) {
+          tokens_--;
+          startFetch(search);
+          return;
+        }
+      }
+
+      // Wait for the next refill
+      if (fair_) {
+        fairQueue_.add(searches_[search].getEmailAddress(), search, dueMillis_[search], searches_[search].getFrequency().getMillis());
+      } else {
+        fifo_.add(search);
+      }
+      if (!granting_) {
+        granting_ = true;
+        events_.push(getRefillMillis(nextRefill_) - START_MILLIS, searches_.length + posts_.length);
+      }
+    }
+
+    /**
+     * Add the permits refilled since the last refill, while nobody is waiting.
+     */
+    private void refill() {
+      long lastRefill = (long) Math.floor((nowMillis_ - START_MILLIS) / refillMillis_);
+      if (lastRefill >= nextRefill_) {
+        tokens_ = (int) Math.min(burst_, tokens_ + lastRefill - nextRefill_ + 1);
+        nextRefill_ = lastRefill + 1;
+      }
+    }
+
+    /**
+     * Hand the permit of a refill to the next waiting search.
+     */
+    private void grantNext() {
+      nextRefill_++;
+      Integer search = fair_ ? fairQueue_.poll(nowMillis_) : fifo_.poll();
+      if (search != null) {
+        startFetch(search);
+      }
+      boolean isWaiting = fair_ ? fairQueue_.size() > 0 : !fifo_.isEmpty();
+      if (isWaiting) {
+        events_.push(getRefillMillis(nextRefill_) - START_MILLIS, searches_.length + posts_.length);
+      } else {
+        granting_ = false;
+      }
+    }
+
+    /**
+     * Get the time of a refill.
+     *
+     * @param refill refill number
+     * @return time in milliseconds
+     */
+    private long getRefillMillis(long refill) {
+      return START_MILLIS + (long) Math.ceil(refill * refillMillis_);
+    }
+
+    /**
+     * Send the fetch of a search's feed, once a permit has been granted.
+     *
+     * @param search search index
+     */
+    private void startFetch(int search) {
+      fetches_++;
+      wait_.record(nowMillis_ - dueMillis_[search]);
+      int feed = feedOf_[search];
+      pendingCounts_[feed] = countPosts(feed, nowMillis_);
+      events_.push(nowMillis_ + fetchDurationMillis_ - START_MILLIS, searches_.length + feed);
+    }
+
+    /**
+     * Complete a feed's fetch, and finish the runs of every search waiting for
+     * it.
+     *
+     * @param feed feed index
+     */
+    private void finishFetch(int feed) {
+      fetchCounts_[feed] = pendingCounts_[feed];
+      fetchMillis_[feed] = nowMillis_;
+      int search = joiners_[feed];
+      joiners_[feed] = -1;
+      while (search != -1) {
+        int next = nextJoiner_[search];
+        finishRun(search, fetchCounts_[feed]);
+        search = next;
+      }
+    }
+
+    /**
+     * Finish a search's run with the posts on its feed's page, recording the
+     * posts it sees and misses, and bring its next run forward if new posts
+     * shortened its interval, as the search manager does.
+     *
+     * @param search search index
+     * @param count number of posts published when the page was fetched
+     */
+    private void finishRun(int search, int count) {
+      int feed = feedOf_[search];
+      int newPosts = 0;
+      if (count > accounted_[search]) {
+        int firstShown = Math.max(accounted_[search], count - pageSize_);
+        missed_ += firstShown - accounted_[search];
+        Histogram latency = heavy_[search] ? heavyLatency_ : lightLatency_;
+        for (int i = firstShown; i < count; i++) {
+          long millis = nowMillis_ - posts_[feed][i];
+          latency_.record(millis);
+          latency.record(millis);
+        }
+        newPosts = count - firstShown;
+        seen_ += newPosts;
+        accounted_[search] = count;
+      }
+      running_[search] = false;
+      lastRunMillis_[search] = nowMillis_;
+
+      // Bring the next run forward if new posts shortened the interval
+      intervals_[search].record(newPosts, nowMillis_);
+      if (newPosts > 0) {
+        long nextDeadlineMillis = phases_[search].getNextDeadline(nowMillis_, intervals_[search].getIntervalMillis(nowMillis_));
+        if (nextDeadlineMillis < deadlines_[search]) {
+          schedule(search, nextDeadlineMillis);
+        }
+      }
+    }
+
+    /**
+     * Set the next run of a search.
+     *
+     * @param search search index
+     * @param deadlineMillis time of the next run in milliseconds
+     */
+    private void schedule(int search, long deadlineMillis) {
+      deadlines_[search] = deadlineMillis;
+      events_.push(deadlineMillis - START_MILLIS, search);
+    }
+
+    /**
+     * Count the posts in a feed published by a time.
+     *
+     * @param feed feed index
+     * @param millis time in milliseconds
+     * @return number of posts
+     */
+    private int countPosts(int feed, long millis) {
+      long[] times = posts_[feed];
+      int low = 0;
+      int high = times.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (times[middle] <= millis) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Print the results of the run.
+     *
+     * @param wallSeconds real time the run took in seconds
+     */
+    private void print(double wallSeconds) {
+      System.out.printf(Locale.ROOT, "%-14s %10d %8d %10d %6.2f %10d %8d %6.2f%% %8s %8s %8s %8s %9s %9s %9s %5.1fs%n", name_, runs_, skipped_, fetches_, (double) fetches_ / Math.max(1, runs_), seen_, missed_, 100.0 * missed_ / Math.max(1, seen_ + missed_),
+          format(latency_.getPercentile(50)), format(latency_.getPercentile(90)), format(latency_.getPercentile(99)), format(latency_.getPercentile(100)), format(heavyLatency_.getPercentile(99)), format(lightLatency_.getPercentile(99)), format(wait_.getPercentile(99)), wallSeconds);
+    }
+
+    /**
+     * Format a duration in milliseconds in the largest unit which keeps it
+     * readable.
+     *
+     * @param millis duration in milliseconds
+     * @return formatted duration
+     */
+    private String format(long millis) {
+      if (millis < TimeUnit.MINUTES.toMillis(2)) {
+        return String.format(Locale.ROOT, "%.0fs", millis / 1000.0);
+      } else if (millis < TimeUnit.HOURS.toMillis(2)) {
+        return String.format(Locale.ROOT, "%.0fm", millis / 60000.0);
+      }
+      return String.format(Locale.ROOT, "%.1fh", millis / 3600000.0);
+    }
+
+  }
+
+  /**
+   * Binary heap of events, each packed into a long as its time relative to the
+   * start in the high bits and its target in the low bits, so that events
+   * sort by time without allocating.
+   */
+  private static final class EventHeap {
+
+    /** Packed events **/
+    private long[] heap_ = new long[1024];
+
+    /** Number of events **/
+    private int size_;
+
+    /**
+     * Add an event.
+     *
+     * @param relativeMillis time since the start in milliseconds
+     * @param id target of the event
+     */
+    private void push(long relativeMillis, int id) {
+      if (size_ == heap_.length) {
+        heap_ = Arrays.copyOf(heap_, size_ * 2);
+      }
+      long event = relativeMillis << 32 | id;
+      int i = size_++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (heap_[parent] <= event) {
+          break;
+        }
+        heap_[i] = heap_[parent];
+        i = parent;
+      }
+      heap_[i] = event;
+    }
+
+    /**
+     * Get the earliest event without removing it.
+     *
+     * @return packed event
+     */
+    private long peek() {
+      return heap_[0];
+    }
+
+    /**
+     * Remove the earliest event.
+     */
+    private void pop() {
+      long last = heap_[--size_];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size_) {
+          break;
+        } else if (child + 1 < size_ && heap_[child + 1] < heap_[child]) {
+          child++;
+        }
+        if (last <= heap_[child]) {
+          break;
+        }
+        heap_[i] = heap_[child];
+        i = child;
+      }
+      if (size_ > 0) {
+        heap_[i] = last;
+      }
+    }
+
+    /**
+     * Check whether there are no events.
+     *
+     * @return true if the heap is empty
+     */
+    private boolean isEmpty() {
+      return size_ == 0;
+    }
+
+    /**
+     * Get the time of a packed event.
+     *
+     * @param event packed event
+     * @return time since the start in milliseconds
+     */
+    private static long getTime(long event) {
+      return event >>> 32;
+    }
+
+    /**
+     * Get the target of a packed event.
+     *
+     * @param event packed event
+     * @return target
+     */
+    private static int getId(long event) {
+      return (int) event;
+    }
+
+  }
+
+}
@@ -0,0 +1,321 @@
+package loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import benchmarks.BenchmarkEnvironment;
+import craigslist.FeedCoalescer;
+import craigslist.RateLimiter;
+import craigslist.Search;
+import craigslist.SearchFrequency;
+import craigslist.SearchManager;
+import email.Outbox;
+import email.SmtpTransportPool;
+import http.FeedHttpClient;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import store.SearchStore;
+
+/**
+ * Load test of the whole application against a stub feed server and an SMTP
+ * sink, with nothing leaving the machine. It registers searches through
+ * SearchManager.addSearch, spread over the feeds of the stub server, and lets
+ * the real scheduler, rate limiter, fetchers, outbox and SMTP connections run
+ * them for a while, printing throughput, post to email latency, threads and
+ * heap use as it goes.
+ * <p>
+ * Options are given as name=value arguments, see {@link #DEFAULTS}. Any option
+ * starting with "config." is passed on to the application's config, such as
+ * config.worker_threads=16.
+ */
+public final class LoadTest {
+
+  /** Default options **/
+  private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+
+  static {
+    DEFAULTS.put("searches", "1000");
+    DEFAULTS.put("feeds", "100");
+    DEFAULTS.put("addresses", "0");
+    DEFAULTS.put("frequency", "MINUTE");
+    DEFAULTS.put("fetcher", "rss");
+    DEFAULTS.put("rate", "6000");
+    DEFAULTS.put("duration", "300");
+    DEFAULTS.put("post_interval", "60");
+    DEFAULTS.put("page_size", "25");
+    DEFAULTS.put("latency", "50");
+    DEFAULTS.put("error_rate", "0.01");
+    DEFAULTS.put("report", "10");
+  }
+
+  /** Number of threads registering searches **/
+  private static final int REGISTER_THREADS = 64;
+
+  /** Prefix of the threads of the stub servers **/
+  private static final String STUB_THREAD_PREFIX = "stub-";
+
+  /** Format of a report line **/
+  private static final String REPORT_FORMAT = "%6s %9s %9s %9s %9s %9s %8s %8s %8s %8s %8s %8s%n";
+
+  /** Options **/
+  private final Map<String, String> options_;
+
+  /** Stub feed server **/
+  private StubFeedServer stub_;
+
+  /** SMTP sink **/
+  private SmtpSink sink_;
+
+  /** Highest number of application threads seen **/
+  private int peakThreads_;
+
+  /** Highest heap use seen in bytes **/
+  private long peakHeap_;
+
+  /**
+   * Constructor for a load test.
+   *
+   * @param options options, with the defaults filled in
+   */
+  private LoadTest(Map<String, String> options) {
+    options_ = options;
+  }
+
+  /**
+   * Run the load test.
+   *
+   * @param args options as name=value
+   * @throws Exception if the load test cannot be set up
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<String, String>(DEFAULTS);
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals < 0 || (!DEFAULTS.containsKey(arg.substring(0, equals)) && !arg.startsWith("config."))) {
+        System.err.println("Unknown option " + arg + ", options and defaults are " + DEFAULTS);
+        System.exit(2);
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    new LoadTest(options).run();
+    System.exit(0);
+  }
+
+  /**
+   * Start the stubs and the application, register the searches, and report
+   * until the duration has passed.
+   *
+   * @throws Exception if the load test cannot be set up
+   */
+  private void run() throws Exception {
+    int searches = getInt("searches");
+    int feeds = getInt("feeds");
+    long durationMillis = TimeUnit.SECONDS.toMillis(getInt("duration"));
+    long reportMillis = TimeUnit.SECONDS.toMillis(getInt("report"));
+    System.out.println("Options: " + options_);
+
+    // Start the stubs, and point the application at them
+    stub_ = new StubFeedServer(feeds, TimeUnit.SECONDS.toMillis(getInt("post_interval")), getInt("page_size"), getInt("latency"), Double.parseDouble(options_.get("error_rate")));
+    sink_ = new SmtpSink(stub_::getPublishMillis);
+    Map<String, Object> config = new LinkedHashMap<String, Object>();
+    config.put("max_searches_per_minute", getInt("rate"));
+    config.put("result_fetcher", options_.get("fetcher"));
+    config.put("html_time_zone", "UTC");
+    config.put("smtp_port", sink_.getPort());
+    for (Map.Entry<String, String> option : options_.entrySet()) {
+      if (option.getKey().startsWith("config.")) {
+        config.put(option.getKey().substring("config.".length()), parseValue(option.getValue()));
+      }
+    }
+    BenchmarkEnvironment environment = BenchmarkEnvironment.create(config);
+
+    try {
+      // Start the search manager, and register the searches
+      long startNanos = System.nanoTime();
+      SearchManager manager = SearchManager.getInstance();
+      register(manager, searches, feeds, getInt("addresses"), SearchFrequency.valueOf(options_.get("frequency")));
+      long registerMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      System.out.printf(Locale.ROOT, "Registered %d searches on %d feeds in %.1f s (%.0f searches/s)%n", searches, feeds, registerMillis / 1000.0, searches * 1000.0 / Math.max(1, registerMillis));
+
+      // Report at each interval until the duration has passed
+      System.out.printf(Locale.ROOT, REPORT_FORMAT, "time", "runs/s", "fetches/s", "304s/s", "errors/s", "emails/s", "p50", "p90", "p99", "max", "threads", "heap MB");
+      long[] last = getTotals();
+      long lastNanos = System.nanoTime();
+      long endNanos = lastNanos + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+      while (System.nanoTime() < endNanos) {
+        Thread.sleep(Math.min(reportMillis, TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime()) + 1));
+        long[] totals = getTotals();
+        long nowNanos = System.nanoTime();
+        report(TimeUnit.NANOSECONDS.toSeconds(nowNanos - startNanos) + "s", totals, last, (nowNanos - lastNanos) / 1e9);
+        last = totals;
+        lastNanos = nowNanos;
+      }
+
+      // Print the totals over the whole run
+      System.out.println();
+      long[] totals = getTotals();
+      Histogram latency = sink_.getLatency();
+      System.out.printf(Locale.ROOT, "Search runs: %d, feed responses: %d full, %d not modified, %d injected errors%n", totals[0], stub_.getResponses(), stub_.getNotModified(), stub_.getErrors());
+      System.out.printf(Locale.ROOT, "Emails: %d enrollment, %d results with %d posts, %d send failures, %d rejected by a full outbox%n", sink_.getEnrollmentEmails(), sink_.getResultsEmails(), sink_.getPosts(), getCounter("email_send_failures_total"), getCounter("emails_rejected_total"));
+      System.out.printf(Locale.ROOT, "Post to email latency: mean %.1f s, p50 %s, p90 %s, p99 %s, p99.9 %s, max %s%n", latency.getMean() / 1000, seconds(latency.getPercentile(50)), seconds(latency.getPercentile(90)), seconds(latency.getPercentile(99)), seconds(latency.getPercentile(99.9)), seconds(latency.getPercentile(100)));
+      System.out.printf(Locale.ROOT, "Peak application threads: %d, peak heap used: %d MB%n", peakThreads_, peakHeap_ >> 20);
+    } finally {
+      // Stop the application as the lifecycle listener does, then the stubs
+      SearchManager.getInstance().shutdown();
+      SearchStore.getInstance().close();
+      FeedCoalescer.getInstance().shutdown();
+      RateLimiter.getInstance().shutdown();
+      Outbox.getInstance().shutdown();
+      FeedHttpClient.getInstance().shutdown();
+      SmtpTransportPool.getInstance().shutdown();
+      stub_.stop();
+      sink_.stop();
+      environment.delete();
+    }
+  }
+
+  /**
+   * Register searches from several threads, each on a feed in turn and with
+   * its own email address unless they are spread over fewer.
+   *
+   * @param manager search manager
+   * @param searches number of searches
+   * @param feeds number of feeds
+   * @param addresses number of email addresses, or 0 for one per search
+   * @param frequency search frequency
+   * @throws Exception if a search cannot be registered
+   */
+  private void register(SearchManager manager, int searches, int feeds, int addresses, SearchFrequency frequency) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(REGISTER_THREADS);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>(REGISTER_THREADS);
+      for (int t = 0; t < REGISTER_THREADS; t++) {
+        int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int i = thread; i < searches; i += REGISTER_THREADS) {
+            int address = addresses > 0 ? i % addresses : i;
+            manager.addSearch(new Search(stub_.getSearchUrl(i % feeds), "user" + address + "@example.com", frequency, "Load test " + i));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Print a report line with the rates since the last report.
+   *
+   * @param time time since the start
+   * @param totals current totals
+   * @param last totals at the last report
+   * @param seconds seconds since the last report
+   */
+  private void report(String time, long[] totals, long[] last, double seconds) {
+    // Count the threads which belong to the application
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    int threads = 0;
+    for (ThreadInfo info : threadBean.getThreadInfo(threadBean.getAllThreadIds())) {
+      if (info != null && !info.getThreadName().startsWith(STUB_THREAD_PREFIX)) {
+        threads++;
+      }
+    }
+    peakThreads_ = Math.max(peakThreads_, threads);
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    peakHeap_ = Math.max(peakHeap_, heap.getUsed());
+
+    Histogram latency = sink_.getLatency();
+    System.out.printf(Locale.ROOT, REPORT_FORMAT, time, rate(totals[0] - last[0], seconds), rate(totals[1] - last[1], seconds), rate(totals[2] - last[2], seconds), rate(totals[3] - last[3], seconds), rate(totals[4] - last[4], seconds),
+        seconds(latency.getPercentile(50)), seconds(latency.getPercentile(90)), seconds(latency.getPercentile(99)), seconds(latency.getPercentile(100)), threads, heap.getUsed() >> 20);
+  }
+
+  /**
+   * Get the totals which are reported as rates: search runs, full fetches, not
+   * modified fetches, fetch errors and emails sent.
+   *
+   * @return totals
+   */
+  private long[] getTotals() {
+    return new long[] { getCounter("search_runs_total"), getCounter("feed_fetches_total"), getCounter("feed_fetches_not_modified_total"), getCounter("feed_fetch_errors_total"), getCounter("emails_sent_total") };
+  }
+
+  /**
+   * Get the value of an application counter.
+   *
+   * @param name counter name
+   * @return value, or 0 if the counter has not been registered
+   */
+  private static long getCounter(String name) {
+    for (Counter counter : MetricsRegistry.getInstance().getCounters()) {
+      if (counter.getName().equals(name)) {
+        return counter.get();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Format a rate.
+   *
+   * @param count count over the interval
+   * @param seconds length of the interval in seconds
+   * @return rate per second
+   */
+  private static String rate(long count, double seconds) {
+    return String.format(Locale.ROOT, "%.1f", count / seconds);
+  }
+
+  /**
+   * Format a latency in milliseconds as seconds.
+   *
+   * @param millis latency in milliseconds
+   * @return latency in seconds
+   */
+  private static String seconds(long millis) {
+    return String.format(Locale.ROOT, "%.1fs", millis / 1000.0);
+  }
+
+  /**
+   * Get an integer option.
+   *
+   * @param name option name
+   * @return value
+   */
+  private int getInt(String name) {
+    return Integer.parseInt(options_.get(name));
+  }
+
+  /**
+   * Parse a config value given as an option, as a number or a boolean where
+   * possible.
+   *
+   * @param value option value
+   * @return config value
+   */
+  private static Object parseValue(String value) {
+    if (value.equals("true") || value.equals("false")) {
+      return Boolean.valueOf(value);
+    }
+    try {
+      return Long.valueOf(value);
+    } catch (NumberFormatException e) {
+      return value;
+    }
+  }
+
+}
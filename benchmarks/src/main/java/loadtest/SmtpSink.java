@@ -0,0 +1,239 @@
+package loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongUnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+
+/**
+ * Local SMTP server which accepts every message and throws it away, counting
+ * the results and enrollment emails. For each post linked from a results email
+ * it records the time from the post being published to the email arriving.
+ * <p>
+ * It speaks just enough SMTP for JavaMail without authentication or STARTTLS,
+ * on a thread per connection named "stub-", so the pooled SMTP connections
+ * each hold one thread.
+ */
+public final class SmtpSink {
+
+  /** Subject prefix of a results email **/
+  private static final String RESULTS_SUBJECT = "Subject: New results";
+
+  /** Pattern for the post ID at the end of a link **/
+  private static final Pattern POST_ID = Pattern.compile("/(\\d{6,})\\.html");
+
+  /** Server socket **/
+  private final ServerSocket serverSocket_;
+
+  /** Function giving the publish time of a post ID, or -1 if it is not known **/
+  private final LongUnaryOperator publishMillis_;
+
+  /** Time from a post being published to its email arriving, in milliseconds **/
+  private final Histogram latency_;
+
+  /** Number of results emails **/
+  private final LongAdder resultsEmails_ = new LongAdder();
+
+  /** Number of enrollment emails **/
+  private final LongAdder enrollmentEmails_ = new LongAdder();
+
+  /** Number of posts linked from results emails **/
+  private final LongAdder posts_ = new LongAdder();
+
+  /** Number of connection threads started **/
+  private final AtomicInteger threadCount_ = new AtomicInteger();
+
+  /**
+   * Constructor for an SMTP sink, which starts it on a free local port.
+   *
+   * @param publishMillis function giving the publish time of a post ID, or -1
+   *          if it is not known
+   * @throws IOException if the server socket cannot be opened
+   */
+  public SmtpSink(LongUnaryOperator publishMillis) throws IOException {
+    publishMillis_ = publishMillis;
+    latency_ = MetricsRegistry.getInstance().histogram("loadtest_post_to_email_seconds", "Time from a post being published to a results email linking it arriving at the SMTP sink.", 1e-3);
+    serverSocket_ = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(this::accept, "stub-smtp-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Get the port the sink listens on.
+   *
+   * @return port
+   */
+  public int getPort() {
+    return serverSocket_.getLocalPort();
+  }
+
+  /**
+   * Get the post to email latency histogram.
+   *
+   * @return histogram in milliseconds
+   */
+  public Histogram getLatency() {
+    return latency_;
+  }
+
+  /**
+   * Get the number of results emails received.
+   *
+   * @return emails
+   */
+  public long getResultsEmails() {
+    return resultsEmails_.sum();
+  }
+
+  /**
+   * Get the number of enrollment emails received.
+   *
+   * @return emails
+   */
+  public long getEnrollmentEmails() {
+    return enrollmentEmails_.sum();
+  }
+
+  /**
+   * Get the number of posts linked from results emails.
+   *
+   * @return posts
+   */
+  public long getPosts() {
+    return posts_.sum();
+  }
+
+  /**
+   * Stop accepting connections. Open connections end when the client closes
+   * them.
+   */
+  public void stop() {
+    try {
+      serverSocket_.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Accept connections until the sink is stopped.
+   */
+  private void accept() {
+    while (!serverSocket_.isClosed()) {
+      try {
+        Socket socket = serverSocket_.accept();
+        Thread thread = new Thread(() -> serve(socket), "stub-smtp-" + threadCount_.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+      } catch (SocketException e) {
+        // Closed by stop
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Hold an SMTP conversation until the client quits.
+   *
+   * @param socket client connection
+   */
+  private void serve(Socket socket) {
+    try (Socket client = socket;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+        OutputStream output = client.getOutputStream()) {
+      reply(output, "220 localhost SMTP sink");
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String command = line.length() < 4 ? line.toUpperCase() : line.substring(0, 4).toUpperCase();
+        if (command.equals("EHLO")) {
+          reply(output, "250-localhost\r\n250-8BITMIME\r\n250 SIZE 0");
+        } else if (command.equals("DATA")) {
+          reply(output, "354 End data with <CR><LF>.<CR><LF>");
+          readMessage(reader);
+          reply(output, "250 OK");
+        } else if (command.equals("QUIT")) {
+          reply(output, "221 Bye");
+          return;
+        } else {
+          // HELO, MAIL, RCPT, RSET and NOOP need no more than an OK
+          reply(output, "250 OK");
+        }
+      }
+    } catch (IOException e) {
+      // The client went away
+    }
+  }
+
+  /**
+   * Read a message up to the line with a single dot, and record it.
+   *
+   * @param reader connection reader
+   * @throws IOException if the connection fails
+   */
+  private void readMessage(BufferedReader reader) throws IOException {
+    StringBuilder message = new StringBuilder(4096);
+    boolean results = false;
+    String line;
+    while ((line = reader.readLine()) != null && !line.equals(".")) {
+      if (line.startsWith(RESULTS_SUBJECT)) {
+        results = true;
+      }
+
+      // Join quoted-printable soft line breaks, so that links are whole
+      if (line.endsWith("=")) {
+        message.append(line, 0, line.length() - 1);
+      } else {
+        message.append(line).append('\n');
+      }
+    }
+    if (!results) {
+      enrollmentEmails_.increment();
+      return;
+    }
+
+    // Record the latency of every post in the email, once although it is
+    // linked from both the text and the HTML part
+    resultsEmails_.increment();
+    long nowMillis = System.currentTimeMillis();
+    Set<Long> postIds = new HashSet<Long>();
+    Matcher matcher = POST_ID.matcher(message);
+    while (matcher.find()) {
+      long postId = Long.parseLong(matcher.group(1));
+      long publishMillis = postIds.add(postId) ? publishMillis_.applyAsLong(postId) : -1;
+      if (publishMillis >= 0) {
+        posts_.increment();
+        latency_.record(nowMillis - publishMillis);
+      }
+    }
+  }
+
+  /**
+   * Write a reply line.
+   *
+   * @param output connection output
+   * @param reply reply without the line ending
+   * @throws IOException if the connection fails
+   */
+  private static void reply(OutputStream output, String reply) throws IOException {
+    output.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    output.flush();
+  }
+
+}
@@ -0,0 +1,271 @@
+package loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import benchmarks.Fixtures;
+
+/**
+ * Local HTTP server standing in for Craigslist. It serves a number of feeds at
+ * /search/feed&lt;n&gt;, as an RSS feed when the query has format=rss and as a
+ * search results page otherwise, so both result fetchers can be used.
+ * <p>
+ * Each feed has a new post every post interval, with the feeds offset from each
+ * other so that posts arrive evenly. Posts exist from a little before the
+ * server starts, and the post ID of a post gives its feed and its number, so
+ * the time it was published can be worked out from any link to it. Responses
+ * carry an ETag which changes with each new post, are delayed by the
+ * configured latency, and fail with 503 Service Unavailable at the configured
+ * error rate.
+ * <p>
+ * Server threads are named "stub-", so they can be told apart from the
+ * application's threads.
+ */
+public final class StubFeedServer {
+
+  /** Path of a feed, followed by its number **/
+  public static final String FEED_PATH = "/search/feed";
+
+  /** Post ID of post 0 of feed 0, with enough digits to look like a real one **/
+  private static final long FIRST_POST_ID = 1000000000000L;
+
+  /** Range of post IDs given to each feed **/
+  private static final long POSTS_PER_FEED = 10000000L;
+
+  /** Number of posts which already exist when the server starts **/
+  private static final int PAST_POSTS = 200;
+
+  /** Number of feeds **/
+  private final int feeds_;
+
+  /** Time between posts in each feed in milliseconds **/
+  private final long postIntervalMillis_;
+
+  /** Number of posts in each response **/
+  private final int pageSize_;
+
+  /** Delay before each response in milliseconds **/
+  private final long latencyMillis_;
+
+  /** Fraction of requests which fail, between 0 and 1 **/
+  private final double errorRate_;
+
+  /** Time of post 0 of feed 0 in milliseconds **/
+  private final long firstPostMillis_;
+
+  /** HTTP server **/
+  private final HttpServer server_;
+
+  /** Executor handling the requests **/
+  private final ExecutorService executor_;
+
+  /** Number of full responses **/
+  private final LongAdder responses_ = new LongAdder();
+
+  /** Number of Not Modified responses **/
+  private final LongAdder notModified_ = new LongAdder();
+
+  /** Number of injected errors **/
+  private final LongAdder errors_ = new LongAdder();
+
+  /**
+   * Constructor for a stub feed server, which starts it on a free local port.
+   *
+   * @param feeds number of feeds
+   * @param postIntervalMillis time between posts in each feed in milliseconds
+   * @param pageSize number of posts in each response
+   * @param latencyMillis delay before each response in milliseconds
+   * @param errorRate fraction of requests which fail, between 0 and 1
+   * @throws IOException if the server cannot be started
+   */
+  public StubFeedServer(int feeds, long postIntervalMillis, int pageSize, long latencyMillis, double errorRate) throws IOException {
+    feeds_ = feeds;
+    postIntervalMillis_ = postIntervalMillis;
+    pageSize_ = pageSize;
+    latencyMillis_ = latencyMillis;
+    errorRate_ = errorRate;
+    firstPostMillis_ = System.currentTimeMillis() - PAST_POSTS * postIntervalMillis;
+
+    // Start the server, on enough threads to hold every delayed response
+    AtomicInteger threadCount = new AtomicInteger();
+    executor_ = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "stub-http-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    server_ = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    server_.createContext(FEED_PATH, this::handle);
+    server_.setExecutor(executor_);
+    server_.start();
+  }
+
+  /**
+   * Get the URL of the site, without a trailing slash.
+   *
+   * @return site URL
+   */
+  public String getSite() {
+    return "http://127.0.0.1:" + server_.getAddress().getPort();
+  }
+
+  /**
+   * Get the search URL of a feed.
+   *
+   * @param feed feed number
+   * @return search URL
+   */
+  public String getSearchUrl(int feed) {
+    return getSite() + FEED_PATH + feed;
+  }
+
+  /**
+   * Get the time a post was published.
+   *
+   * @param postId post ID
+   * @return time in milliseconds, or -1 if the post ID is not from this server
+   */
+  public long getPublishMillis(long postId) {
+    long offset = postId - FIRST_POST_ID;
+    if (offset < 0 || offset >= feeds_ * POSTS_PER_FEED) {
+      return -1;
+    }
+    return getPostMillis((int) (offset / POSTS_PER_FEED), offset % POSTS_PER_FEED);
+  }
+
+  /**
+   * Get the number of full responses.
+   *
+   * @return responses
+   */
+  public long getResponses() {
+    return responses_.sum();
+  }
+
+  /**
+   * Get the number of Not Modified responses.
+   *
+   * @return responses
+   */
+  public long getNotModified() {
+    return notModified_.sum();
+  }
+
+  /**
+   * Get the number of injected errors.
+   *
+   * @return errors
+   */
+  public long getErrors() {
+    return errors_.sum();
+  }
+
+  /**
+   * Stop the server.
+   */
+  public void stop() {
+    server_.stop(0);
+    executor_.shutdownNow();
+  }
+
+  /**
+   * Handle a request for a feed.
+   *
+   * @param exchange HTTP exchange
+   * @throws IOException if the response cannot be written
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      // Wait for the injected latency
+      if (latencyMillis_ > 0) {
+        try {
+          Thread.sleep(latencyMillis_);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+
+      // Fail some requests
+      if (errorRate_ > 0 && ThreadLocalRandom.current().nextDouble() < errorRate_) {
+        errors_.increment();
+        exchange.sendResponseHeaders(503, -1);
+        return;
+      }
+
+      // Find the feed
+      int feed;
+      try {
+        feed = Integer.parseInt(exchange.getRequestURI().getPath().substring(FEED_PATH.length()));
+      } catch (NumberFormatException e) {
+        feed = -1;
+      }
+      if (feed < 0 || feed >= feeds_) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+
+      // Answer a conditional request if the newest post has not changed
+      long newest = getNewestPost(feed, System.currentTimeMillis());
+      String query = exchange.getRequestURI().getRawQuery();
+      boolean rss = query != null && query.contains("format=rss");
+      String entityTag = "\"" + feed + "-" + newest + (rss ? "-rss" : "-html") + "\"";
+      exchange.getResponseHeaders().set("ETag", entityTag);
+      if (entityTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        notModified_.increment();
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+
+      // Write the newest posts
+      int count = (int) Math.min(pageSize_, newest + 1);
+      long[] postIds = new long[count];
+      long[] postMillis = new long[count];
+      for (int i = 0; i < count; i++) {
+        postIds[i] = FIRST_POST_ID + feed * POSTS_PER_FEED + newest - i;
+        postMillis[i] = getPostMillis(feed, newest - i);
+      }
+      byte[] body = rss ? Fixtures.rssFeed(getSite(), postIds, postMillis) : Fixtures.htmlPage(getSite(), postIds, postMillis);
+      exchange.getResponseHeaders().set("Content-Type", rss ? "application/rss+xml; charset=utf-8" : "text/html; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+      responses_.increment();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Get the number of the newest post in a feed.
+   *
+   * @param feed feed number
+   * @param nowMillis current time in milliseconds
+   * @return post number
+   */
+  private long getNewestPost(int feed, long nowMillis) {
+    return (nowMillis - getPostMillis(feed, 0)) / postIntervalMillis_;
+  }
+
+  /**
+   * Get the time of a post.
+   *
+   * @param feed feed number
+   * @param post post number
+   * @return time in milliseconds
+   */
+  private long getPostMillis(int feed, long post) {
+    return firstPostMillis_ + feed * postIntervalMillis_ / feeds_ + post * postIntervalMillis_;
+  }
+
+}
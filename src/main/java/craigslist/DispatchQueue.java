@@ -0,0 +1,196 @@
+package craigslist;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.PostConstruct;
+
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import util.Clock;
+
+/**
+ * Singleton queue which decides which search gets the next rate limit permit
+ * when more searches are due than the rate limit allows. Searches are grouped
+ * by email address, and the addresses take turns by start-time fair queuing, so
+ * one address with many searches cannot starve the others. Within an address,
+ * the search which is latest relative to its frequency goes first.
+ * <p>
+ * Only one permit is requested from the rate limiter at a time, and the choice
+ * is made when the permit is granted, so the order reflects the searches which
+ * are waiting at that moment.
+ */
+public class DispatchQueue {
+
+  /** Singleton instance **/
+  private static volatile DispatchQueue instance_;
+
+  /** Waiting searches, grouped by email address **/
+  private FairQueue<Entry> queue_;
+
+  /** Whether a permit has been requested from the rate limiter **/
+  private boolean requested_;
+
+  /** Histograms of how late searches got their permit, organized by frequency **/
+  private Map<SearchFrequency, Histogram> lateness_;
+
+  /**
+   * Post-construct method for initializing the singleton.
+   */
+  @PostConstruct
+  public void init() {
+    queue_ = new FairQueue<Entry>();
+
+    // Register the metrics
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    metrics.gauge("dispatch_queue_depth", "Searches waiting in the dispatch queue for a rate limit permit.", this::size);
+    lateness_ = new EnumMap<SearchFrequency, Histogram>(SearchFrequency.class);
+    for (SearchFrequency frequency : SearchFrequency.values()) {
+      String name = "search_lateness_seconds_" + frequency.name().toLowerCase(Locale.ROOT);
+      String help = "Time searches run every " + frequency.getDescription() + " waited past their due time for a rate limit permit.";
+      lateness_.put(frequency, metrics.histogram(name, help, 1e-3));
+    }
+  }
+
+  /**
+   * Get the instance of the singleton.
+   *
+   * @return singleton instance
+   */
+  public static DispatchQueue getInstance() {
+    if (instance_ == null) {
+      synchronized (DispatchQueue.class) {
+        if (instance_ == null) {
+          DispatchQueue instance = new DispatchQueue();
+          instance.init();
+          instance_ = instance;
+        }
+      }
+    }
+    return instance_;
+  }
+
+  /**
+   * Register a search for a rate limit permit. The returned future may be
+   * completed on the rate limiter thread, so any dependent work should be run
+   * on another executor. Cancelling the future gives up the place in the queue.
+   *
+   * @param search search
+   * @param dueMillis time the search was due to run in milliseconds
+   * @return future which completes when a permit has been granted
+   */
+  public CompletableFuture<Void> acquire(Search search, long dueMillis) {
+    Entry entry = new Entry(search, dueMillis);
+    boolean isGranted;
+    synchronized (this) {
+      // Take a permit straight away if nothing is waiting
+      isGranted = queue_.size() == 0 && !requested_ && RateLimiter.getInstance().tryAcquire();
+      if (!isGranted) {
+        queue_.add(entry.search_.getEmailAddress(), entry, entry.dueMillis_, entry.search_.getFrequency().getMillis());
+        if (requested_) {
+          return entry.permit_;
+        }
+        requested_ = true;
+      }
+    }
+    if (isGranted) {
+      grant(entry);
+    } else {
+      requestPermit();
+    }
+    return entry.permit_;
+  }
+
+  /**
+   * Get the number of searches waiting for a permit.
+   *
+   * @return queue depth
+   */
+  public synchronized int size() {
+    return queue_.size();
+  }
+
+  /**
+   * Request a permit from the rate limiter for the next waiting search.
+   */
+  private void requestPermit() {
+    RateLimiter.getInstance().acquireAsync().thenRun(this::dispatch);
+  }
+
+  /**
+   * Hand a permit to the next waiting search, and request another permit if
+   * more searches are waiting.
+   */
+  private void dispatch() {
+    Entry entry;
+    boolean isWaiting;
+    synchronized (this) {
+      entry = poll();
+      isWaiting = queue_.size() > 0;
+      requested_ = isWaiting;
+    }
+    if (entry != null) {
+      grant(entry);
+    }
+    if (isWaiting) {
+      requestPermit();
+    }
+  }
+
+  /**
+   * Take the next search, skipping searches which gave up waiting.
+   *
+   * @return waiting search, or null if none are waiting
+   */
+  private Entry poll() {
+    long nowMillis = Clock.getInstance().currentTimeMillis();
+    Entry entry;
+    while ((entry = queue_.poll(nowMillis)) != null) {
+      if (!entry.permit_.isDone()) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Grant a permit to a search, and record how late it was.
+   *
+   * @param entry waiting search
+   */
+  private void grant(Entry entry) {
+    if (entry.permit_.complete(null)) {
+      lateness_.get(entry.search_.getFrequency()).record(Clock.getInstance().currentTimeMillis() - entry.dueMillis_);
+    }
+  }
+
+  /**
+   * A search waiting for a permit.
+   */
+  private static final class Entry {
+
+    /** Search waiting for the permit **/
+    private final Search search_;
+
+    /** Time the search was due to run in milliseconds **/
+    private final long dueMillis_;
+
+    /** Future completed when the permit is granted **/
+    private final CompletableFuture<Void> permit_ = new CompletableFuture<Void>();
+
+    /**
+     * Constructor for a waiting search.
+     *
+     * @param search search
+     * @param dueMillis time the search was due to run in milliseconds
+     */
+    private Entry(Search search, long dueMillis) {
+      search_ = search;
+      dueMillis_ = dueMillis;
+    }
+
+  }
+
+}
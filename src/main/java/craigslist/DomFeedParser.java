@@ -0,0 +1,91 @@
+package craigslist;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Class for parsing results from an RSS feed by building a full XML document.
+ */
+public final class DomFeedParser implements FeedParser {
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Result> parse(InputStream input, Date sinceDate, int maxResults) throws Exception {
+    // Create the list of results
+    List<Result> results = new ArrayList<Result>();
+
+    // If date is null, set date to start of time
+    if (sinceDate == null) {
+      sinceDate = new Date(0);
+    }
+
+    // Parse the feed into an XML document
+    DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    Document document = builder.parse(input);
+
+    // Get all of the items
+    NodeList itemNodes = document.getElementsByTagName("item");
+    for (int i = 0; i < itemNodes.getLength(); i++) {
+      // Check if the maximum number of results has been reached
+      if (maxResults > 0 && i == maxResults) {
+        break;
+      }
+
+      // Get the element, and parse the relevant data
+      Element itemElement = (Element) itemNodes.item(i);
+      Result resultItem;
+      Date resultDate;
+      try {
+        String title = getFirstChildElement(itemElement, "title").getTextContent();
+        String link = getFirstChildElement(itemElement, "link").getTextContent();
+        String description = getFirstChildElement(itemElement, "description").getTextContent();
+        String dateString = getFirstChildElement(itemElement, "dc:date").getTextContent();
+        resultDate = FeedDateFormat.parse(dateString);
+        resultItem = new Result(title, link, description, resultDate);
+      } catch (Exception e) {
+        // Item does not fit the expected result format
+        continue;
+      }
+
+      // Stop parsing results if the result date is before the specified since date
+      if (!resultDate.after(sinceDate)) {
+        break;
+      }
+
+      // Add the result to the list
+      results.add(resultItem);
+    }
+
+    return results;
+  }
+
+  /**
+   * Get the first child element in an element with a specified tag name.
+   *
+   * @param element parent element
+   * @param tagName tag name
+   * @return first child element with matching tag name
+   */
+  private Element getFirstChildElement(Element element, String tagName) throws Exception {
+    // Get the list of child nodes with the matching tag name
+    NodeList childNodes = element.getElementsByTagName(tagName);
+
+    // Throw an exception if no matching child elements are found
+    if (childNodes.getLength() == 0) {
+      throw new Exception("No matching children found.");
+    }
+
+    return (Element) childNodes.item(0);
+  }
+
+}
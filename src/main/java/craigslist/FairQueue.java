@@ -0,0 +1,172 @@
+package craigslist;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Queue of waiting items grouped by owner, where the owners take turns by
+ * start-time fair queuing, so one owner with many items cannot starve the
+ * others. Within an owner, the item which is latest relative to its period
+ * goes first. The queue is not thread safe.
+ *
+ * @param <E> type of the waiting items
+ */
+final class FairQueue<E> {
+
+  /** Map of owners, organized by key **/
+  private final Map<String, Flow<E>> flows_ = new HashMap<String, Flow<E>>();
+
+  /** Owners with waiting items, ordered by start tag **/
+  private final PriorityQueue<Flow<E>> backlogged_ = new PriorityQueue<Flow<E>>((a, b) -> Long.compare(a.startTag_, b.startTag_));
+
+  /** Virtual time, which is the start tag of the last owner served **/
+  private long virtualTime_;
+
+  /** Number of waiting items **/
+  private int size_;
+
+  /**
+   * Add an item to the queue of its owner.
+   *
+   * @param owner key of the owner
+   * @param item item
+   * @param dueMillis time the item was due in milliseconds
+   * @param periodMillis period lateness is measured against in milliseconds
+   */
+  void add(String owner, E item, long dueMillis, long periodMillis) {
+    Flow<E> flow = flows_.computeIfAbsent(owner, key -> new Flow<E>());
+    if (flow.entries_.isEmpty()) {
+      // An owner which was idle starts at the current virtual time, without
+      // credit for the time it was idle
+      flow.startTag_ = Math.max(virtualTime_, flow.finishTag_);
+      backlogged_.add(flow);
+    }
+    flow.entries_.add(new Entry<E>(item, dueMillis, periodMillis));
+    size_++;
+  }
+
+  /**
+   * Take the next item, from the owner with the earliest start tag.
+   *
+   * @param nowMillis current time in milliseconds
+   * @return item, or null if none are waiting
+   */
+  E poll(long nowMillis) {
+    Flow<E> flow = backlogged_.poll();
+    if (flow == null) {
+      return null;
+    }
+    Entry<E> entry = flow.pollLatest(nowMillis);
+    size_--;
+
+    // Advance the owner by one turn, and put it back if it has more waiting
+    virtualTime_ = flow.startTag_;
+    flow.finishTag_ = flow.startTag_ + 1;
+    if (!flow.entries_.isEmpty()) {
+      flow.startTag_ = flow.finishTag_;
+      backlogged_.add(flow);
+    }
+    forgetIdleFlows();
+    return entry.item_;
+  }
+
+  /**
+   * Get the number of waiting items.
+   *
+   * @return number of items
+   */
+  int size() {
+    return size_;
+  }
+
+  /**
+   * Forget idle owners whose last turn is over, once there are many.
+   */
+  private void forgetIdleFlows() {
+    if (flows_.size() > 2 * backlogged_.size() + 64) {
+      flows_.values().removeIf(flow -> flow.entries_.isEmpty() && flow.finishTag_ <= virtualTime_);
+    }
+  }
+
+  /**
+   * Items waiting which belong to one owner.
+   *
+   * @param <E> type of the waiting items
+   */
+  private static final class Flow<E> {
+
+    /** Waiting items, in arrival order **/
+    private final List<Entry<E>> entries_ = new ArrayList<Entry<E>>();
+
+    /** Virtual time at which the owner is next served **/
+    private long startTag_;
+
+    /** Virtual time at which the owner last finished being served **/
+    private long finishTag_;
+
+    /**
+     * Take the waiting item which is latest relative to its period.
+     *
+     * @param nowMillis current time in milliseconds
+     * @return waiting item
+     */
+    private Entry<E> pollLatest(long nowMillis) {
+      int latest = 0;
+      double latestLateness = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < entries_.size(); i++) {
+        double lateness = entries_.get(i).getLateness(nowMillis);
+        if (lateness > latestLateness) {
+          latestLateness = lateness;
+          latest = i;
+        }
+      }
+      return entries_.remove(latest);
+    }
+
+  }
+
+  /**
+   * A waiting item.
+   *
+   * @param <E> type of the item
+   */
+  private static final class Entry<E> {
+
+    /** Item **/
+    private final E item_;
+
+    /** Time the item was due in milliseconds **/
+    private final long dueMillis_;
+
+    /** Period lateness is measured against in milliseconds **/
+    private final long periodMillis_;
+
+    /**
+     * Constructor for a waiting item.
+     *
+     * @param item item
+     * @param dueMillis time the item was due in milliseconds
+     * @param periodMillis period lateness is measured against in milliseconds
+     */
+    private Entry(E item, long dueMillis, long periodMillis) {
+      item_ = item;
+      dueMillis_ = dueMillis;
+      periodMillis_ = periodMillis;
+    }
+
+    /**
+     * Get how late the item is, as a fraction of its period.
+     *
+     * @param nowMillis current time in milliseconds
+     * @return lateness, which is negative if the item is not yet due
+     */
+    private double getLateness(long nowMillis) {
+      return (double) (nowMillis - dueMillis_) / periodMillis_;
+    }
+
+  }
+
+}
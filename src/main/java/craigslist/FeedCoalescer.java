@@ -0,0 +1,704 @@
+package craigslist;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import store.SeenPostSet;
+import util.Clock;
+import util.ConfigManager;
+
+/**
+ * Singleton class for sharing feed fetches between searches which follow the
+ * same feed. Each feed is fetched at most once per cycle, and the results are
+ * shared with every search subscribed to it. Each feed also keeps a persistent
+ * set of the posts it has seen, so that a search is sent the posts first seen
+ * since its last results, whatever their dates. The filters of the searches on
+ * a feed are compiled together, so each page of results is matched once for all
+ * of them. The last results are kept with only the start of their descriptions,
+ * unless a search on the feed filters them, which needs the full text.
+ */
+public class FeedCoalescer {
+
+  /** Singleton instance **/
+  private static volatile FeedCoalescer instance_;
+
+  /** Counter for new results left out by search filters **/
+  private static final Counter FILTERED = MetricsRegistry.getInstance().counter("results_filtered_total", "New results left out by search filters.");
+
+  /** Map of feeds, organized by canonical URI **/
+  private Map<String, Feed> feeds_;
+
+  /** Directory holding the seen post sets **/
+  private File seenDirectory_;
+
+  /** Number of slots in each seen post set **/
+  private int seenCapacity_;
+
+  /** Age after which seen posts can be forgotten in milliseconds **/
+  private long seenMaxAgeMillis_;
+
+  /**
+   * Post-construct method for initializing the singleton.
+   */
+  @PostConstruct
+  public void init() {
+    feeds_ = new ConcurrentHashMap<String, Feed>();
+    ConfigManager configManager = ConfigManager.getInstance();
+    seenDirectory_ = new File(configManager.getSavedSearchDirectory(), "seen");
+    seenDirectory_.mkdirs();
+    seenCapacity_ = configManager.getSeenPostCapacity();
+    seenMaxAgeMillis_ = TimeUnit.DAYS.toMillis(configManager.getSeenPostDays());
+    MetricsRegistry.getInstance().gaugeFamily("feed_empty_run_ratio", "Fraction of search runs on each feed which found no new results.", "feed", this::getEmptyRunRatios);
+  }
+
+  /**
+   * Pre-destroy method for writing the seen post sets to disk.
+   */
+  @PreDestroy
+  public void shutdown() {
+    for (Feed feed : feeds_.values()) {
+      if (feed.seenPosts_ != null) {
+        feed.seenPosts_.force();
+      }
+    }
+  }
+
+  /**
+   * Get the instance of the singleton.
+   *
+   * @return singleton instance
+   */
+  public static FeedCoalescer getInstance() {
+    if (instance_ == null) {
+      synchronized (FeedCoalescer.class) {
+        if (instance_ == null) {
+          FeedCoalescer instance = new FeedCoalescer();
+          instance.init();
+          instance_ = instance;
+        }
+      }
+    }
+    return instance_;
+  }
+
+  /**
+   * Subscribe a search to its feed.
+   *
+   * @param search search
+   */
+  public void subscribe(Search search) {
+    String key = canonicalize(search.getFeedUri());
+    feeds_.compute(key, (feedKey, feed) -> {
+      if (feed == null) {
+        feed = new Feed(openSeenPosts(feedKey));
+      }
+      feed.subscribers_.add(search);
+      if (search.getFilter() != null) {
+        feed.invalidateFilter();
+      }
+      return feed;
+    });
+  }
+
+  /**
+   * Unsubscribe a search from its feed, and forget the feed and its seen posts
+   * if it has no subscribers left.
+   *
+   * @param search search
+   */
+  public void unsubscribe(Search search) {
+    String key = canonicalize(search.getFeedUri());
+    feeds_.computeIfPresent(key, (feedKey, feed) -> {
+      feed.subscribers_.remove(search);
+      if (search.getFilter() != null) {
+        feed.invalidateFilter();
+      }
+      if (!feed.subscribers_.isEmpty()) {
+        return feed;
+      }
+      if (feed.seenPosts_ != null) {
+        feed.seenPosts_.delete();
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Get the number of distinct feeds with subscribers.
+   *
+   * @return number of feeds
+   */
+  public int getFeedCount() {
+    return feeds_.size();
+  }
+
+  /**
+   * Get the fraction of search runs which found no new results, for each feed
+   * which has been run.
+   *
+   * @return empty run ratios, organized by feed ID, which is also the name of
+   *         the feed's seen post file
+   */
+  public Map<String, Double> getEmptyRunRatios() {
+    Map<String, Double> ratios = new TreeMap<String, Double>();
+    for (Map.Entry<String, Feed> entry : feeds_.entrySet()) {
+      Feed feed = entry.getValue();
+      synchronized (feed) {
+        if (feed.runs_ > 0) {
+          ratios.put(getFeedId(entry.getKey()), (double) feed.emptyRuns_ / feed.runs_);
+        }
+      }
+    }
+    return ratios;
+  }
+
+  /**
+   * Get the results posted since the last result found by a search. The feed is
+   * only fetched if it has not been fetched since the search last ran, or if the
+   * last fetch is older than the search frequency; otherwise the results of the
+   * last fetch are reused.
+   *
+   * <p>
+   * No thread waits for a rate limit permit: a fetch is handed to the executor
+   * only once a permit has been granted.
+   *
+   * @param search search, which must not have updated its search date yet
+   * @param dueMillis time the search was due to run in milliseconds
+   * @param executor executor for fetching and parsing the feed
+   * @return future new results, with the ones left out by the search's filter
+   */
+  public CompletableFuture<NewResults> getNewResults(Search search, long dueMillis, Executor executor) {
+    String key = canonicalize(search.getFeedUri());
+    Feed subscribedFeed = feeds_.get(key);
+
+    // Fetch directly for a search which is not subscribed
+    Feed feed = subscribedFeed == null ? new Feed(null) : subscribedFeed;
+
+    // Get the shared results, and keep only the ones which are new to this search
+    long baselineMillis = feed.seenPosts_ == null ? 0 : feed.seenPosts_.getBaselineMillis();
+    return feed.getResults(search, dueMillis, executor).thenApply(results -> {
+      NewResults newResults = filterResults(results, search, baselineMillis, feed);
+      feed.recordRun(newResults.getResults() == null);
+      return newResults;
+    });
+  }
+
+  /**
+   * Get the canonical form of a feed URI, so that URIs which only differ in
+   * letter case, parameter order, empty parameters or fragments share a feed.
+   *
+   * @param uri feed URI
+   * @return canonical URI string
+   */
+  public static String canonicalize(URI uri) {
+    if (uri == null) {
+      return "";
+    }
+
+    // Normalize the scheme, host, port and path
+    StringBuilder builder = new StringBuilder();
+    String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+    builder.append(scheme).append("://");
+    if (uri.getHost() != null) {
+      builder.append(uri.getHost().toLowerCase(Locale.ROOT));
+    }
+    int port = uri.getPort();
+    if (port != -1 && !(scheme.equals("http") && port == 80) && !(scheme.equals("https") && port == 443)) {
+      builder.append(':').append(port);
+    }
+    String path = uri.getRawPath();
+    builder.append(path == null || path.isEmpty() ? "/" : path);
+
+    // Sort the non-empty query parameters
+    String query = uri.getRawQuery();
+    if (query != null) {
+      String[] parameters = query.split("&");
+      Arrays.sort(parameters);
+      char separator = '?';
+      for (String parameter : parameters) {
+        if (parameter.isEmpty() || parameter.endsWith("=")) {
+          continue;
+        }
+        builder.append(separator).append(parameter);
+        separator = '&';
+      }
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Open the seen post set for a feed.
+   *
+   * @param key canonical feed URI
+   * @return seen post set, or null if it cannot be opened
+   */
+  private SeenPostSet openSeenPosts(String key) {
+    // Name the file with the feed's ID
+    File file = new File(seenDirectory_, getFeedId(key) + ".set");
+    try {
+      return new SeenPostSet(file, seenCapacity_, seenMaxAgeMillis_);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Get the ID of a feed, an FNV-1a hash of its canonical URI, which names the
+   * feed without revealing what is being searched for.
+   *
+   * @param key canonical feed URI
+   * @return ID as 16 hexadecimal digits
+   */
+  private static String getFeedId(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+    }
+    return String.format("%016x", hash);
+  }
+
+  /**
+   * Filter shared results down to the ones which are new to a search and pass
+   * its filter.
+   *
+   * @param results shared results, newest first
+   * @param search search
+   * @param baselineMillis time the feed's seen post set was started, or 0
+   * @param feed feed the results came from
+   * @return new results, with the ones left out by the search's filter
+   */
+  private static NewResults filterResults(List<Result> results, Search search, long baselineMillis, Feed feed) {
+    if (results == null) {
+      return new NewResults(null, null);
+    }
+
+    // Find the terms of every filter on the feed in the results, once per page
+    FeedFilter filter = search.getFilter() == null ? null : feed.getFilter(search);
+    FeedFilter.Matches matches = filter == null ? null : filter.match(results);
+
+    // Copy the results which are new to the search, and the ones which also
+    // pass its filter
+    Date sinceDate = search.getLastResultDate();
+    long lastSeenMillis = search.getLastSeenMillis();
+    List<Result> newResults = new ArrayList<Result>();
+    List<Result> acceptedResults = filter == null ? newResults : new ArrayList<Result>();
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      if (!isNewResult(result, sinceDate, lastSeenMillis, baselineMillis)) {
+        continue;
+      }
+      newResults.add(result);
+      if (filter == null) {
+        continue;
+      } else if (filter.accepts(search, matches, i)) {
+        acceptedResults.add(result);
+      } else {
+        FILTERED.increment();
+      }
+    }
+
+    // Use null for no results
+    return new NewResults(acceptedResults.isEmpty() ? null : acceptedResults, newResults.isEmpty() ? null : newResults);
+  }
+
+  /**
+   * Check whether a result is new to a search. A result is new if it was first
+   * seen after the search's last seen time. Where the first seen time means
+   * nothing, because the search has no last seen time yet or the result was
+   * already in the feed when its seen post set was started, the result is new
+   * if it was posted after the search's last result.
+   *
+   * @param result result
+   * @param sinceDate last result date of the search, or null
+   * @param lastSeenMillis last seen time of the search, or 0
+   * @param baselineMillis time the feed's seen post set was started, or 0
+   * @return true if the result is new, false otherwise
+   */
+  private static boolean isNewResult(Result result, Date sinceDate, long lastSeenMillis, long baselineMillis) {
+    long firstSeenMillis = result.getFirstSeenMillis();
+    if (firstSeenMillis != 0 && firstSeenMillis <= lastSeenMillis) {
+      return false;
+    } else if (firstSeenMillis == 0 || lastSeenMillis == 0 || firstSeenMillis <= baselineMillis) {
+      return sinceDate == null || result.getDateMillis() > sinceDate.getTime();
+    }
+    return true;
+  }
+
+  /**
+   * Results which are new to a search. The search moves past all of them once
+   * it has sent the ones which passed its filter, so that results left out by
+   * the filter are only considered once.
+   */
+  public static final class NewResults {
+
+    /** New results which passed the search's filter, or null if none did **/
+    private final List<Result> results_;
+
+    /** All new results, including those left out by the filter, or null **/
+    private final List<Result> consideredResults_;
+
+    /**
+     * Constructor for new results.
+     *
+     * @param results new results which passed the search's filter, or null
+     * @param consideredResults all new results, or null
+     */
+    private NewResults(List<Result> results, List<Result> consideredResults) {
+      results_ = results;
+      consideredResults_ = consideredResults;
+    }
+
+    /**
+     * Get the new results which passed the search's filter.
+     *
+     * @return list of results, or null if there are none
+     */
+    public List<Result> getResults() {
+      return results_;
+    }
+
+    /**
+     * Get all of the new results, including those left out by the filter.
+     *
+     * @return list of results, or null if there are none
+     */
+    public List<Result> getConsideredResults() {
+      return consideredResults_;
+    }
+
+  }
+
+  /**
+   * A feed shared by one or more searches.
+   */
+  private static final class Feed {
+
+    /** Searches subscribed to the feed **/
+    private final Set<Search> subscribers_ = ConcurrentHashMap.newKeySet();
+
+    /** Posts seen in the feed, or null if not tracked **/
+    private final SeenPostSet seenPosts_;
+
+    /** Validators for sending conditional requests **/
+    private final FeedValidators validators_ = new FeedValidators();
+
+    /** Results of the last fetch **/
+    private List<Result> results_;
+
+    /** Date the results of the last fetch were filtered by, or null if unfiltered **/
+    private Date sinceDate_;
+
+    /** Whether the results of the last fetch keep their full descriptions **/
+    private boolean isFullText_;
+
+    /** Time of the last fetch in milliseconds, or 0 if never fetched **/
+    private long fetchTime_;
+
+    /** Fetch in progress, or null if there is none **/
+    private CompletableFuture<List<Result>> fetch_;
+
+    /** Number of search runs on the feed **/
+    private long runs_;
+
+    /** Number of search runs on the feed which found no new results **/
+    private long emptyRuns_;
+
+    /** Compiled filters of the subscribers, or null if none have filters **/
+    private FeedFilter filter_;
+
+    /** Whether the compiled filters are out of date **/
+    private boolean isFilterStale_ = true;
+
+    /**
+     * Constructor for a feed.
+     *
+     * @param seenPosts posts seen in the feed, or null if not tracked
+     */
+    private Feed(SeenPostSet seenPosts) {
+      seenPosts_ = seenPosts;
+    }
+
+    /**
+     * Get the feed results for a search, either from the last fetch or by
+     * fetching the feed. Concurrent callers share a fetch in progress.
+     *
+     * @param search search requesting the results
+     * @param dueMillis time the search was due to run in milliseconds
+     * @param executor executor for fetching and parsing the feed
+     * @return future list of results, or null if none were found
+     */
+    private CompletableFuture<List<Result>> getResults(Search search, long dueMillis, Executor executor) {
+      CompletableFuture<List<Result>> fetch;
+      synchronized (this) {
+        if (fetch_ != null) {
+          // Join the fetch in progress
+          return fetch_;
+        } else if (isFresh(search)) {
+          return CompletableFuture.completedFuture(results_);
+        }
+
+        // Start a new fetch
+        fetch = fetch_ = new CompletableFuture<List<Result>>();
+      }
+
+      // Fetch the feed once the dispatch queue grants a permit
+      DispatchQueue.getInstance().acquire(search, dueMillis).thenComposeAsync(ignored -> fetchFeed(search, fetch, executor), executor).whenComplete((ignored, e) -> {
+        if (e != null) {
+          abandonFetch(fetch);
+        }
+      });
+      return fetch;
+    }
+
+    /**
+     * Get the compiled filters of the subscribers, compiling them again if the
+     * subscribers have changed. A search whose filter is not covered, because
+     * it is not subscribed or the feed has too many terms, gets its filter
+     * compiled on its own.
+     *
+     * @param search search with a filter
+     * @return compiled filters covering the search
+     */
+    private synchronized FeedFilter getFilter(Search search) {
+      if (isFilterStale_) {
+        filter_ = FeedFilter.create(new ArrayList<Search>(subscribers_));
+        isFilterStale_ = false;
+      }
+      if (filter_ != null && filter_.covers(search)) {
+        return filter_;
+      }
+      return FeedFilter.create(Collections.singletonList(search));
+    }
+
+    /**
+     * Mark the compiled filters as out of date, after a search with a filter
+     * has subscribed or unsubscribed.
+     */
+    private synchronized void invalidateFilter() {
+      isFilterStale_ = true;
+    }
+
+    /**
+     * Record the outcome of a search run on the feed.
+     *
+     * @param isEmpty true if the run found no new results
+     */
+    private synchronized void recordRun(boolean isEmpty) {
+      runs_++;
+      if (isEmpty) {
+        emptyRuns_++;
+      }
+    }
+
+    /**
+     * Check whether the last fetch can be reused for a search.
+     *
+     * @param search search
+     * @return true if the last fetch happened after the search last ran and
+     *         within one search period, and kept the full descriptions if the
+     *         search has a filter
+     */
+    private boolean isFresh(Search search) {
+      long now = Clock.getInstance().currentTimeMillis();
+      return fetchTime_ > search.getLastSearchDate().getTime() && now - fetchTime_ < search.getFrequency().getMillis() && (isFullText_ || search.getFilter() == null);
+    }
+
+    /**
+     * Fetch the feed, after a permit has been granted. No thread is held while
+     * the response is downloaded, and the response is parsed on the executor.
+     *
+     * @param search search requesting the fetch
+     * @param fetch future to complete with the results
+     * @param executor executor for parsing the feed
+     * @return future which completes once the fetch has been recorded
+     */
+    private CompletableFuture<Void> fetchFeed(Search search, CompletableFuture<List<Result>> fetch, Executor executor) {
+      // Fetch the whole feed if seen posts are tracked, so that posts which
+      // arrive out of order are found, and otherwise everything newer than the
+      // oldest result date among subscribers
+      Date sinceDate = seenPosts_ == null ? getOldestResultDate(search) : null;
+      HttpResultFetcher fetcher = HttpResultFetcher.create(search);
+
+      // Keep the full descriptions while any subscriber filters the results
+      boolean isFullText = hasFilter(search);
+
+      // A conditional request is only safe if the last results cover every
+      // subscriber, with their full descriptions if they are needed
+      synchronized (this) {
+        boolean isConditional = fetchTime_ != 0 && (sinceDate_ == null || (sinceDate != null && !sinceDate.before(sinceDate_))) && (isFullText_ || !isFullText);
+        if (!isConditional) {
+          validators_.clear();
+        }
+      }
+      fetcher.setValidators(validators_);
+
+      return fetcher.getResultsSinceDateAsync(sinceDate, 0, executor).thenAccept(results -> {
+        // If the fetch failed, let the next subscriber fetch again
+        if (fetcher.isFailed()) {
+          abandonFetch(fetch);
+          return;
+        }
+
+        // If the feed has not changed, keep the results of the last fetch
+        List<Result> fetchResults = results;
+        Date fetchSinceDate = sinceDate;
+        boolean fetchIsFullText = isFullText;
+        if (fetcher.isNotModified()) {
+          synchronized (this) {
+            fetchResults = results_;
+            fetchSinceDate = sinceDate_;
+            fetchIsFullText = isFullText_;
+          }
+        } else {
+          fetchResults = markSeen(results);
+          if (!isFullText) {
+            fetchResults = compact(fetchResults);
+          }
+        }
+        finishFetch(fetch, fetchResults, fetchSinceDate, fetchIsFullText);
+      });
+    }
+
+    /**
+     * Record the results of a fetch, and complete the fetch future.
+     *
+     * @param fetch future to complete with the results
+     * @param results list of results, or null if none were found
+     * @param sinceDate date the results were filtered by, or null if unfiltered
+     * @param isFullText whether the results keep their full descriptions
+     */
+    private void finishFetch(CompletableFuture<List<Result>> fetch, List<Result> results, Date sinceDate, boolean isFullText) {
+      synchronized (this) {
+        if (fetch_ != fetch) {
+          return;
+        }
+        results_ = results;
+        sinceDate_ = sinceDate;
+        isFullText_ = isFullText;
+        fetchTime_ = Clock.getInstance().currentTimeMillis();
+        fetch_ = null;
+      }
+      fetch.complete(results);
+    }
+
+    /**
+     * Complete the fetch future of a failed fetch with no results, keeping the
+     * results and time of the last successful fetch, so that the failure is not
+     * reused as a fresh fetch.
+     *
+     * @param fetch future to complete
+     */
+    private void abandonFetch(CompletableFuture<List<Result>> fetch) {
+      synchronized (this) {
+        if (fetch_ == fetch) {
+          fetch_ = null;
+        }
+      }
+      fetch.complete(null);
+    }
+
+    /**
+     * Record the results of a fetch as seen, and get copies of them with the
+     * time each one was first seen.
+     *
+     * @param results list of results, or null
+     * @return results with first seen times, or null
+     */
+    private List<Result> markSeen(List<Result> results) {
+      if (seenPosts_ == null || results == null) {
+        return results;
+      }
+      long nowMillis = Clock.getInstance().currentTimeMillis();
+      List<Result> seenResults = new ArrayList<Result>(results.size());
+      for (Result result : results) {
+        long postId = result.getPostId();
+        long hash = postId != 0 ? SeenPostSet.hashPostId(postId) : SeenPostSet.hashPostId(result.getLink());
+        seenResults.add(result.withFirstSeenMillis(seenPosts_.markSeen(hash, nowMillis)));
+      }
+      return seenResults;
+    }
+
+    /**
+     * Get copies of results with only the start of their descriptions, once no
+     * subscriber needs to filter them.
+     *
+     * @param results list of results, or null
+     * @return compacted results, or null
+     */
+    private static List<Result> compact(List<Result> results) {
+      if (results == null) {
+        return null;
+      }
+      List<Result> compactResults = new ArrayList<Result>(results.size());
+      for (Result result : results) {
+        compactResults.add(result.compact());
+      }
+      return compactResults;
+    }
+
+    /**
+     * Check whether the search or any subscriber has a filter, so that the
+     * results must keep their full descriptions.
+     *
+     * @param search search requesting the fetch
+     * @return true if the results are filtered
+     */
+    private boolean hasFilter(Search search) {
+      if (search.getFilter() != null) {
+        return true;
+      }
+      for (Search subscriber : subscribers_) {
+        if (subscriber.getFilter() != null) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Get the oldest last result date among the subscribers.
+     *
+     * @param search search requesting the fetch
+     * @return oldest last result date, or null if any subscriber has none
+     */
+    private Date getOldestResultDate(Search search) {
+      Date oldest = search.getLastResultDate();
+      if (oldest == null) {
+        return null;
+      }
+      for (Search subscriber : subscribers_) {
+        Date lastResultDate = subscriber.getLastResultDate();
+        if (lastResultDate == null) {
+          return null;
+        }
+        if (lastResultDate.before(oldest)) {
+          oldest = lastResultDate;
+        }
+      }
+      return oldest;
+    }
+
+  }
+
+}
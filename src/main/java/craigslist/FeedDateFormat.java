@@ -0,0 +1,61 @@
+package craigslist;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+/**
+ * Thread-safe parser for the dates used in Craigslist feeds.
+ */
+final class FeedDateFormat {
+
+  /** Shared formatter, which accepts offsets in the form Z, -08, -0800 or -08:00 **/
+  private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss[XXX][XX][X]");
+
+  /** Shared formatter for local times, which accepts 2018-01-20 13:17 or 2018-01-20T13:17:45 **/
+  private static final DateTimeFormatter LOCAL_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd[ ]['T']HH:mm[:ss]");
+
+  /**
+   * Private constructor for a static utility class.
+   */
+  private FeedDateFormat() {
+  }
+
+  /**
+   * Parse a feed date string.
+   *
+   * @param dateString date string
+   * @return parsed date
+   * @throws java.time.format.DateTimeParseException if the string cannot be parsed
+   */
+  static Date parse(String dateString) {
+    return new Date(parseMillis(dateString));
+  }
+
+  /**
+   * Parse a feed date string into milliseconds since the epoch.
+   *
+   * @param dateString date string
+   * @return parsed time in milliseconds
+   * @throws java.time.format.DateTimeParseException if the string cannot be parsed
+   */
+  static long parseMillis(String dateString) {
+    return OffsetDateTime.parse(dateString.trim(), FORMATTER).toInstant().toEpochMilli();
+  }
+
+  /**
+   * Parse a local time string, such as the times on search results pages, into
+   * milliseconds since the epoch.
+   *
+   * @param dateString local time string
+   * @param zone time zone of the time
+   * @return parsed time in milliseconds
+   * @throws java.time.format.DateTimeParseException if the string cannot be parsed
+   */
+  static long parseLocalMillis(String dateString, ZoneId zone) {
+    return LocalDateTime.parse(dateString.trim(), LOCAL_FORMATTER).atZone(zone).toInstant().toEpochMilli();
+  }
+
+}
@@ -0,0 +1,257 @@
+package craigslist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filters of all the searches on one feed, with every term compiled into a
+ * single matcher. Each page of results is matched once for all of the
+ * searches, after which checking a result against a search's filter only looks
+ * up that search's terms among the terms found, so the cost per result does not
+ * grow with the number of searches.
+ */
+final class FeedFilter {
+
+  /** Maximum number of distinct terms compiled into one feed filter **/
+  static final int MAX_FEED_TERMS = 5000;
+
+  /** Matcher for the terms of every filter **/
+  private final TermMatcher matcher_;
+
+  /** IDs of the include and exclude terms of each filter, by search UUID **/
+  private final Map<String, int[][]> termIds_;
+
+  /** Whether any filter matches terms in descriptions **/
+  private final boolean matchesDescriptions_;
+
+  /** Terms found in the last results matched, or null **/
+  private Matches matches_;
+
+  /**
+   * Constructor for a feed filter.
+   *
+   * @param matcher matcher for the terms of every filter
+   * @param termIds IDs of the include and exclude terms of each filter, by
+   *          search UUID
+   * @param matchesDescriptions whether any filter matches terms in
+   *          descriptions
+   */
+  private FeedFilter(TermMatcher matcher, Map<String, int[][]> termIds, boolean matchesDescriptions) {
+    matcher_ = matcher;
+    termIds_ = termIds;
+    matchesDescriptions_ = matchesDescriptions;
+  }
+
+  /**
+   * Compile the filters of some searches. Filters which would take the number
+   * of distinct terms past {@link #MAX_FEED_TERMS} are left out, and are not
+   * covered by the feed filter.
+   *
+   * @param searches searches, some of which may have no filter
+   * @return feed filter, or null if none of the searches has a filter
+   */
+  static FeedFilter create(Collection<Search> searches) {
+    // Give each distinct term an ID, and look up the IDs of each filter's terms
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    List<String> terms = new ArrayList<String>();
+    Map<String, int[][]> termIds = new HashMap<String, int[][]>();
+    boolean matchesDescriptions = false;
+    for (Search search : searches) {
+      SearchFilter filter = search.getFilter();
+      if (filter == null || terms.size() + countNewTerms(filter, ids) > MAX_FEED_TERMS) {
+        continue;
+      }
+      termIds.put(search.getUUID(), new int[][] { getIds(filter.getIncludeTerms(), ids, terms), getIds(filter.getExcludeTerms(), ids, terms) });
+      matchesDescriptions |= !filter.isTitleOnly();
+    }
+    if (termIds.isEmpty()) {
+      return null;
+    }
+    return new FeedFilter(new TermMatcher(terms), termIds, matchesDescriptions);
+  }
+
+  /**
+   * Filter results for a single search, without sharing the matching with
+   * other searches.
+   *
+   * @param search search with a filter
+   * @param results results, newest first, or null
+   * @param maxResults maximum number of results to keep, or 0 for all
+   * @return results which pass the filter, or null if there are none
+   */
+  static List<Result> apply(Search search, List<Result> results, int maxResults) {
+    if (results == null) {
+      return null;
+    }
+    FeedFilter filter = create(Collections.singletonList(search));
+    Matches matches = filter.match(results);
+    List<Result> accepted = new ArrayList<Result>();
+    for (int i = 0; i < results.size() && (maxResults == 0 || accepted.size() < maxResults); i++) {
+      if (filter.accepts(search, matches, i)) {
+        accepted.add(results.get(i));
+      }
+    }
+    return accepted.isEmpty() ? null : accepted;
+  }
+
+  /**
+   * Check whether a search's filter was compiled into this feed filter.
+   *
+   * @param search search
+   * @return true if the search has no filter or its filter is included
+   */
+  boolean covers(Search search) {
+    return search.getFilter() == null || termIds_.containsKey(search.getUUID());
+  }
+
+  /**
+   * Find the terms and parse the prices in a page of results, reusing the matches of the last page
+   * if it is the same one.
+   *
+   * @param results results
+   * @return terms found in each result, and their prices
+   */
+  synchronized Matches match(List<Result> results) {
+    if (matches_ != null && matches_.results_ == results) {
+      return matches_;
+    }
+    int[][] titleTerms = new int[results.size()][];
+    int[][] descriptionTerms = new int[results.size()][];
+    long[] prices = new long[results.size()];
+    for (int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      titleTerms[i] = matcher_.match(result.getTitle());
+      descriptionTerms[i] = matchesDescriptions_ ? matcher_.match(result.getDescription()) : titleTerms[i];
+      prices[i] = SearchFilter.parsePrice(result.getPrice());
+    }
+    matches_ = new Matches(results, titleTerms, descriptionTerms, prices);
+    return matches_;
+  }
+
+  /**
+   * Check whether a result passes a search's filter.
+   *
+   * @param search search, whose filter must be covered
+   * @param matches terms found in the results
+   * @param index index of the result
+   * @return true if the result passes
+   */
+  boolean accepts(Search search, Matches matches, int index) {
+    SearchFilter filter = search.getFilter();
+    if (filter == null) {
+      return true;
+    } else if (!filter.acceptsPrice(matches.prices_[index])) {
+      return false;
+    }
+
+    // Look for the search's terms among the ones found in the result
+    int[][] ids = termIds_.get(search.getUUID());
+    int[] titleTerms = matches.titleTerms_[index];
+    int[] descriptionTerms = filter.isTitleOnly() ? titleTerms : matches.descriptionTerms_[index];
+    for (int id : ids[1]) {
+      if (contains(titleTerms, id) || contains(descriptionTerms, id)) {
+        return false;
+      }
+    }
+    if (ids[0].length == 0) {
+      return true;
+    }
+    for (int id : ids[0]) {
+      if (contains(titleTerms, id) || contains(descriptionTerms, id)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Count the terms of a filter which have no ID yet.
+   *
+   * @param filter search filter
+   * @param ids IDs of the terms seen so far
+   * @return number of new terms
+   */
+  private static int countNewTerms(SearchFilter filter, Map<String, Integer> ids) {
+    int count = 0;
+    for (String term : filter.getIncludeTerms()) {
+      count += ids.containsKey(term) ? 0 : 1;
+    }
+    for (String term : filter.getExcludeTerms()) {
+      count += ids.containsKey(term) ? 0 : 1;
+    }
+    return count;
+  }
+
+  /**
+   * Get the IDs of terms, giving new terms the next IDs.
+   *
+   * @param terms normalized terms
+   * @param ids IDs of the terms seen so far
+   * @param allTerms terms seen so far, in order of ID
+   * @return IDs of the terms
+   */
+  private static int[] getIds(List<String> terms, Map<String, Integer> ids, List<String> allTerms) {
+    int[] termIds = new int[terms.size()];
+    for (int i = 0; i < terms.size(); i++) {
+      Integer id = ids.get(terms.get(i));
+      if (id == null) {
+        id = allTerms.size();
+        ids.put(terms.get(i), id);
+        allTerms.add(terms.get(i));
+      }
+      termIds[i] = id;
+    }
+    return termIds;
+  }
+
+  /**
+   * Check whether a sorted array of term IDs contains an ID.
+   *
+   * @param ids sorted term IDs
+   * @param id term ID
+   * @return true if the ID is present
+   */
+  private static boolean contains(int[] ids, int id) {
+    return ids.length > 0 && Arrays.binarySearch(ids, id) >= 0;
+  }
+
+  /**
+   * Terms found in each result of a page, and the results' prices.
+   */
+  static final class Matches {
+
+    /** Results matched **/
+    private final List<Result> results_;
+
+    /** IDs of the terms found in each title **/
+    private final int[][] titleTerms_;
+
+    /** IDs of the terms found in each description **/
+    private final int[][] descriptionTerms_;
+
+    /** Price of each result in dollars, or -1 **/
+    private final long[] prices_;
+
+    /**
+     * Constructor for the matches of a page.
+     *
+     * @param results results matched
+     * @param titleTerms IDs of the terms found in each title
+     * @param descriptionTerms IDs of the terms found in each description
+     * @param prices price of each result in dollars, or -1
+     */
+    private Matches(List<Result> results, int[][] titleTerms, int[][] descriptionTerms, long[] prices) {
+      results_ = results;
+      titleTerms_ = titleTerms;
+      descriptionTerms_ = descriptionTerms;
+      prices_ = prices;
+    }
+
+  }
+
+}
@@ -0,0 +1,25 @@
+package craigslist;
+
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Interface for a class which will parse results from a Craigslist feed.
+ */
+public interface FeedParser {
+
+  /**
+   * Parse the most recent n results posted after a specified date. Parsing
+   * stops at the first result which is not after the date, so the input may not
+   * be read to the end.
+   *
+   * @param input feed input stream
+   * @param sinceDate last date for results, or null for all results
+   * @param maxResults maximum number of results to parse, or 0 for no limit
+   * @return list of results, which may be empty
+   * @throws Exception if the feed cannot be parsed
+   */
+  public List<Result> parse(InputStream input, Date sinceDate, int maxResults) throws Exception;
+
+}
@@ -0,0 +1,50 @@
+package craigslist;
+
+import java.util.Map;
+
+/**
+ * Class holding the cache validators from the last successful fetch of a feed,
+ * used to send conditional requests.
+ */
+public final class FeedValidators {
+
+  /** Entity tag of the last response **/
+  private String entityTag_;
+
+  /** Last modified date of the last response **/
+  private String lastModified_;
+
+  /**
+   * Add the conditional request headers for the stored validators.
+   * 
+   * @param headers map of request headers to add to
+   */
+  public synchronized void addRequestHeaders(Map<String, String> headers) {
+    if (entityTag_ != null) {
+      headers.put("If-None-Match", entityTag_);
+    }
+    if (lastModified_ != null) {
+      headers.put("If-Modified-Since", lastModified_);
+    }
+  }
+
+  /**
+   * Store the validators from a successful response.
+   * 
+   * @param entityTag value of the ETag header, or null
+   * @param lastModified value of the Last-Modified header, or null
+   */
+  public synchronized void update(String entityTag, String lastModified) {
+    entityTag_ = entityTag;
+    lastModified_ = lastModified;
+  }
+
+  /**
+   * Forget the stored validators, so the next request is unconditional.
+   */
+  public synchronized void clear() {
+    entityTag_ = null;
+    lastModified_ = null;
+  }
+
+}
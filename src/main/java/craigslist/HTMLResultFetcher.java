@@ -0,0 +1,41 @@
+package craigslist;
+
+import java.net.URI;
+
+import util.ConfigManager;
+
+/**
+ * Class for fetching Craigslist results from the HTML search results page. The
+ * page lists new posts straight away, while the RSS feed for the same search
+ * lags behind by about an hour.
+ */
+public final class HTMLResultFetcher extends HttpResultFetcher {
+
+  /**
+   * Constructor for an HTML result fetcher, reading the post times in the
+   * configured time zone and resolving links against the search URL.
+   * 
+   * @param search search object
+   */
+  public HTMLResultFetcher(Search search) {
+    this(search, new HtmlResultParser(ConfigManager.getInstance().getHtmlTimeZone(), search.getHtmlUri()));
+  }
+
+  /**
+   * Constructor for an HTML result fetcher.
+   * 
+   * @param search search object
+   * @param parser parser for the page
+   */
+  public HTMLResultFetcher(Search search, FeedParser parser) {
+    super(search, parser);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  protected URI getUri(Search search) {
+    return search.getHtmlUri();
+  }
+
+}
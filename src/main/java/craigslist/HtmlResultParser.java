@@ -0,0 +1,208 @@
+package craigslist;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class for parsing results from a Craigslist search results page as it is
+ * streamed, without building a document for the page. Each result is a
+ * &lt;li class="result-row"&gt; element holding the post ID, the time it was
+ * posted, a link with the title, and optionally a price and a neighborhood.
+ * <p>
+ * The page only gives the time to the minute, in the local time of the site.
+ */
+public final class HtmlResultParser implements FeedParser {
+
+  /** Attributes read from the page **/
+  private static final String[] ATTRIBUTE_NAMES = { "class", "data-pid", "datetime", "href" };
+
+  /** Length of the time resolution of the page in milliseconds **/
+  private static final long TIME_RESOLUTION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /** Time zone of the times on the page **/
+  private final ZoneId zone_;
+
+  /** URI of the page, for resolving relative links, or null **/
+  private final URI pageUri_;
+
+  /**
+   * Constructor for an HTML result parser.
+   *
+   * @param zone time zone of the times on the page
+   * @param pageUri URI of the page, for resolving relative links, or null
+   */
+  public HtmlResultParser(ZoneId zone, URI pageUri) {
+    zone_ = zone;
+    pageUri_ = pageUri;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Result> parse(InputStream input, Date sinceDate, int maxResults) throws IOException {
+    // Create the list of results
+    List<Result> results = new ArrayList<Result>();
+
+    // If date is null, set date to start of time
+    long sinceMillis = sinceDate == null ? Long.MIN_VALUE : sinceDate.getTime();
+
+    HtmlScanner scanner = new HtmlScanner(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)), ATTRIBUTE_NAMES);
+    Row row = null;
+    while (scanner.nextStartTag()) {
+      if (scanner.isTag("li") && scanner.hasClass("result-row")) {
+        // Finish the last row, stopping if it is the last one needed
+        if (!addRow(row, results, sinceMillis, maxResults)) {
+          return results;
+        }
+        row = new Row(scanner.getAttribute("data-pid"));
+      } else if (scanner.isTag("h4") && scanner.hasClass("nearby")) {
+        // Stop at the results from nearby areas, which do not match the search
+        break;
+      } else if (row != null) {
+        readRowElement(scanner, row);
+      }
+    }
+    addRow(row, results, sinceMillis, maxResults);
+
+    return results;
+  }
+
+  /**
+   * Read an element inside a result row, keeping the first of each value.
+   *
+   * @param scanner scanner positioned at a start tag
+   * @param row row being read
+   * @throws IOException if the page cannot be read
+   */
+  private void readRowElement(HtmlScanner scanner, Row row) throws IOException {
+    if (row.dateString_ == null && scanner.isTag("time")) {
+      row.dateString_ = scanner.getAttribute("datetime");
+    } else if (row.link_ == null && scanner.isTag("a") && scanner.hasClass("result-title")) {
+      row.link_ = resolveLink(scanner.getAttribute("href"));
+      row.title_ = scanner.readText();
+    } else if (row.price_ == null && scanner.isTag("span") && scanner.hasClass("result-price")) {
+      row.price_ = scanner.readText();
+    } else if (row.neighborhood_ == null && scanner.isTag("span") && scanner.hasClass("result-hood")) {
+      row.neighborhood_ = scanner.readText();
+    }
+  }
+
+  /**
+   * Resolve a link against the URI of the page.
+   *
+   * @param link link, which may be relative
+   * @return absolute link, or the link as is if it cannot be resolved
+   */
+  private String resolveLink(String link) {
+    if (link == null || pageUri_ == null || link.startsWith("http://") || link.startsWith("https://")) {
+      return link;
+    }
+    try {
+      return pageUri_.resolve(link).toString();
+    } catch (IllegalArgumentException e) {
+      return link;
+    }
+  }
+
+  /**
+   * Add the result from a row to the list, if it is newer than the since date.
+   *
+   * @param row row, or null if there is none
+   * @param results list of results
+   * @param sinceMillis last date for results in milliseconds
+   * @param maxResults maximum number of results, or 0 for no limit
+   * @return true if parsing should continue, false if it should stop
+   */
+  private boolean addRow(Row row, List<Result> results, long sinceMillis, int maxResults) {
+    if (row == null) {
+      return true;
+    }
+
+    // Skip rows which do not fit the expected result format
+    Result result = row.toResult(zone_);
+    if (result == null) {
+      return true;
+    }
+
+    // Stop once results are older than the since date, allowing for the time
+    // only being given to the minute
+    if (result.getDateMillis() + TIME_RESOLUTION_MILLIS <= sinceMillis) {
+      return false;
+    }
+
+    // Add the result, and stop if the maximum number of results has been reached
+    results.add(result);
+    return maxResults <= 0 || results.size() < maxResults;
+  }
+
+  /**
+   * Values read from a result row.
+   */
+  private static final class Row {
+
+    /** Post ID, or null if not given **/
+    private final String postId_;
+
+    /** Time the result was posted, as given on the page **/
+    private String dateString_;
+
+    /** Link to the result **/
+    private String link_;
+
+    /** Title of the posting **/
+    private String title_;
+
+    /** Price, or null if not given **/
+    private String price_;
+
+    /** Neighborhood, or null if not given **/
+    private String neighborhood_;
+
+    /**
+     * Constructor for a row.
+     *
+     * @param postId post ID, or null if not given
+     */
+    private Row(String postId) {
+      postId_ = postId;
+    }
+
+    /**
+     * Create the result for the row.
+     *
+     * @param zone time zone of the times on the page
+     * @return result, or null if the row does not fit the expected result format
+     */
+    private Result toResult(ZoneId zone) {
+      if (link_ == null || title_ == null || dateString_ == null) {
+        return null;
+      }
+
+      // Use the neighborhood as the description, without its parentheses
+      String description = neighborhood_ == null ? "" : neighborhood_;
+      if (description.startsWith("(") && description.endsWith(")")) {
+        description = description.substring(1, description.length() - 1).trim();
+      }
+
+      // Prefer the post ID given by the page over the one in the link
+      try {
+        long postId = postId_ == null ? Result.parsePostId(link_) : Long.parseLong(postId_.trim());
+        String price = price_ == null || price_.isEmpty() ? null : price_;
+        return new Result(title_, link_, description, FeedDateFormat.parseLocalMillis(dateString_, zone), postId, price);
+      } catch (Exception e) {
+        return null;
+      }
+    }
+
+  }
+
+}
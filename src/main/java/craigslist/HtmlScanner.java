@@ -0,0 +1,494 @@
+package craigslist;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Forward-only scanner for the tags of an HTML page, which reads the page
+ * through a fixed buffer and never holds more than the current tag. Only the
+ * attributes it is asked to keep are read into strings, and the contents of
+ * scripts, styles and comments are skipped.
+ */
+final class HtmlScanner {
+
+  /** Source of the page **/
+  private final Reader reader_;
+
+  /** Names of the attributes which are kept **/
+  private final String[] attributeNames_;
+
+  /** Read buffer **/
+  private final char[] buffer_ = new char[8192];
+
+  /** Position of the next character in the buffer **/
+  private int position_;
+
+  /** Number of characters in the buffer **/
+  private int limit_;
+
+  /** Name of the current tag, in lower case **/
+  private final StringBuilder tagName_ = new StringBuilder();
+
+  /** Scratch space for attribute names **/
+  private final StringBuilder attributeName_ = new StringBuilder();
+
+  /** Scratch space for attribute values and text **/
+  private final StringBuilder text_ = new StringBuilder();
+
+  /** Kept attributes of the current tag **/
+  private final Map<String, String> attributes_ = new HashMap<String, String>();
+
+  /**
+   * Constructor for an HTML scanner.
+   *
+   * @param reader source of the page
+   * @param attributeNames names of the attributes to keep, in lower case
+   */
+  HtmlScanner(Reader reader, String... attributeNames) {
+    reader_ = reader;
+    attributeNames_ = attributeNames;
+  }
+
+  /**
+   * Move to the next start tag.
+   *
+   * @return true if a start tag was found, false at the end of the page
+   * @throws IOException if the page cannot be read
+   */
+  boolean nextStartTag() throws IOException {
+    int c;
+    while ((c = read()) != -1) {
+      if (c == '<' && readMarkup() && !skipRawText()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check the name of the current tag.
+   *
+   * @param name tag name in lower case
+   * @return true if the current tag has the name
+   */
+  boolean isTag(String name) {
+    return name.contentEquals(tagName_);
+  }
+
+  /**
+   * Get a kept attribute of the current tag, with character references
+   * decoded.
+   *
+   * @param name attribute name
+   * @return attribute value, or null if the tag does not have it
+   */
+  String getAttribute(String name) {
+    return attributes_.get(name);
+  }
+
+  /**
+   * Check whether the current tag has a class.
+   *
+   * @param className class name
+   * @return true if the class attribute of the tag contains the class
+   */
+  boolean hasClass(String className) {
+    String classes = attributes_.get("class");
+    if (classes == null) {
+      return false;
+    }
+
+    // Look for the class as a whole word
+    int index = classes.indexOf(className);
+    while (index >= 0) {
+      int end = index + className.length();
+      if ((index == 0 || Character.isWhitespace(classes.charAt(index - 1))) && (end == classes.length() || Character.isWhitespace(classes.charAt(end)))) {
+        return true;
+      }
+      index = classes.indexOf(className, end);
+    }
+    return false;
+  }
+
+  /**
+   * Read the text inside the current tag, up to its end tag, skipping any tags
+   * inside it. Character references are decoded and runs of whitespace are
+   * collapsed. The attributes of the current tag are lost.
+   *
+   * @return text, which may be empty
+   * @throws IOException if the page cannot be read
+   */
+  String readText() throws IOException {
+    String name = tagName_.toString();
+    StringBuilder text = new StringBuilder();
+    int c;
+    while ((c = read()) != -1) {
+      if (c != '<') {
+        text.append((char) c);
+        continue;
+      }
+
+      // Stop at the end tag, and skip any other markup
+      int next = peek();
+      if (next == '/' || next == '!' || next == '?' || isLetter(next)) {
+        boolean isStartTag = readMarkup();
+        if (!isStartTag && name.contentEquals(tagName_)) {
+          break;
+        } else if (isStartTag) {
+          skipRawText();
+        }
+      } else {
+        text.append('<');
+      }
+    }
+    return collapseWhitespace(decode(text));
+  }
+
+  /**
+   * Read the markup after a '&lt;'.
+   *
+   * @return true if a start tag was read, false for anything else
+   * @throws IOException if the page cannot be read
+   */
+  private boolean readMarkup() throws IOException {
+    tagName_.setLength(0);
+    int c = read();
+    if (c == '!') {
+      skipDeclaration();
+      return false;
+    } else if (c == '/') {
+      readName(read(), tagName_);
+      skipPast('>');
+      return false;
+    } else if (c == '?') {
+      skipPast('>');
+      return false;
+    } else if (!isLetter(c)) {
+      unread(c);
+      return false;
+    }
+    readName(c, tagName_);
+    readAttributes();
+    return true;
+  }
+
+  /**
+   * Read the attributes of a start tag, up to and including the closing '&gt;'.
+   *
+   * @throws IOException if the page cannot be read
+   */
+  private void readAttributes() throws IOException {
+    attributes_.clear();
+    while (true) {
+      int c = skipWhitespace();
+      if (c == -1 || c == '>') {
+        return;
+      } else if (c == '/') {
+        continue;
+      }
+
+      // Read the name, and the value if there is one
+      readName(c, attributeName_);
+      c = skipWhitespace();
+      if (c != '=') {
+        unread(c);
+        continue;
+      }
+      String keptName = getKeptName();
+      text_.setLength(0);
+      c = skipWhitespace();
+      if (c == '"' || c == '\'') {
+        int quote = c;
+        while ((c = read()) != -1 && c != quote) {
+          text_.append((char) c);
+        }
+      } else {
+        while (c != -1 && c != '>' && !Character.isWhitespace(c)) {
+          text_.append((char) c);
+          c = read();
+        }
+        unread(c);
+      }
+      if (keptName != null) {
+        attributes_.put(keptName, decode(text_));
+      }
+    }
+  }
+
+  /**
+   * Get the kept name matching the last attribute name read.
+   *
+   * @return kept name, or null if the attribute is not kept
+   */
+  private String getKeptName() {
+    for (String name : attributeNames_) {
+      if (name.contentEquals(attributeName_)) {
+        return name;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Skip the contents of a script or style element, whose text may contain
+   * '&lt;' characters which do not start tags.
+   *
+   * @return true if the contents were skipped, false for any other element
+   * @throws IOException if the page cannot be read
+   */
+  private boolean skipRawText() throws IOException {
+    if (!isTag("script") && !isTag("style")) {
+      return false;
+    }
+
+    // Skip to the matching end tag
+    int c;
+    while ((c = read()) != -1) {
+      if (c != '<' || peek() != '/') {
+        continue;
+      }
+      read();
+      boolean matches = true;
+      for (int i = 0; i < tagName_.length() && matches; i++) {
+        c = read();
+        matches = Character.toLowerCase(c) == tagName_.charAt(i);
+      }
+      if (matches) {
+        skipPast('>');
+        return true;
+      }
+      unread(c);
+    }
+    return true;
+  }
+
+  /**
+   * Skip a comment, doctype or other declaration after a '&lt;!'.
+   *
+   * @throws IOException if the page cannot be read
+   */
+  private void skipDeclaration() throws IOException {
+    if (peek() != '-') {
+      skipPast('>');
+      return;
+    }
+
+    // Skip a comment, which ends with the first "-->"
+    int dashes = 0;
+    int c;
+    while ((c = read()) != -1) {
+      if (c == '>' && dashes >= 2) {
+        return;
+      }
+      dashes = c == '-' ? dashes + 1 : 0;
+    }
+  }
+
+  /**
+   * Read a tag or attribute name in lower case.
+   *
+   * @param c first character of the name
+   * @param name builder for the name
+   * @throws IOException if the page cannot be read
+   */
+  private void readName(int c, StringBuilder name) throws IOException {
+    name.setLength(0);
+    while (c != -1 && c != '>' && c != '/' && c != '=' && !Character.isWhitespace(c)) {
+      name.append(Character.toLowerCase((char) c));
+      c = read();
+    }
+    unread(c);
+  }
+
+  /**
+   * Skip past the next occurrence of a character.
+   *
+   * @param target character
+   * @throws IOException if the page cannot be read
+   */
+  private void skipPast(int target) throws IOException {
+    int c;
+    while ((c = read()) != -1 && c != target) {
+    }
+  }
+
+  /**
+   * Skip whitespace.
+   *
+   * @return first character which is not whitespace, or -1 at the end
+   * @throws IOException if the page cannot be read
+   */
+  private int skipWhitespace() throws IOException {
+    int c;
+    while ((c = read()) != -1 && Character.isWhitespace(c)) {
+    }
+    return c;
+  }
+
+  /**
+   * Read the next character.
+   *
+   * @return character, or -1 at the end of the page
+   * @throws IOException if the page cannot be read
+   */
+  private int read() throws IOException {
+    if (position_ == limit_) {
+      limit_ = reader_.read(buffer_, 0, buffer_.length);
+      position_ = 0;
+      if (limit_ <= 0) {
+        limit_ = 0;
+        return -1;
+      }
+    }
+    return buffer_[position_++];
+  }
+
+  /**
+   * Look at the next character without reading it.
+   *
+   * @return character, or -1 at the end of the page
+   * @throws IOException if the page cannot be read
+   */
+  private int peek() throws IOException {
+    int c = read();
+    unread(c);
+    return c;
+  }
+
+  /**
+   * Push back the character which was just read. The character is still in the
+   * buffer, since the buffer is only refilled once it has been read to the end.
+   *
+   * @param c character, or -1 at the end of the page
+   */
+  private void unread(int c) {
+    if (c != -1) {
+      position_--;
+    }
+  }
+
+  /**
+   * Check whether a character is an ASCII letter.
+   *
+   * @param c character
+   * @return true if the character is a letter
+   */
+  private static boolean isLetter(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * Decode the character references in HTML text.
+   *
+   * @param text text
+   * @return decoded text
+   */
+  static String decode(CharSequence text) {
+    StringBuilder decoded = new StringBuilder(text.length());
+    int i = 0;
+    while (i < text.length()) {
+      char c = text.charAt(i);
+      int end = c == '&' ? indexOf(text, ';', i, 10) : -1;
+      if (end < 0) {
+        decoded.append(c);
+        i++;
+        continue;
+      }
+
+      // Decode a numeric or common named reference, and keep anything else as is
+      String reference = text.subSequence(i + 1, end).toString();
+      int codePoint = -1;
+      try {
+        if (reference.startsWith("#x") || reference.startsWith("#X")) {
+          codePoint = Integer.parseInt(reference.substring(2), 16);
+        } else if (reference.startsWith("#")) {
+          codePoint = Integer.parseInt(reference.substring(1));
+        }
+      } catch (NumberFormatException e) {
+        codePoint = -1;
+      }
+      if (codePoint < 0) {
+        codePoint = getNamedReference(reference);
+      }
+      if (codePoint >= 0 && Character.isValidCodePoint(codePoint)) {
+        decoded.appendCodePoint(codePoint);
+        i = end + 1;
+      } else {
+        decoded.append(c);
+        i++;
+      }
+    }
+    return decoded.toString();
+  }
+
+  /**
+   * Get the character for a named reference.
+   *
+   * @param name reference name
+   * @return code point, or -1 if the name is not known
+   */
+  private static int getNamedReference(String name) {
+    switch (name) {
+    case "amp":
+      return '&';
+    case "lt":
+      return '<';
+    case "gt":
+      return '>';
+    case "quot":
+      return '"';
+    case "apos":
+      return '\'';
+    case "nbsp":
+      return '\u00a0';
+    default:
+      return -1;
+    }
+  }
+
+  /**
+   * Find a character within a distance of a position.
+   *
+   * @param text text
+   * @param target character
+   * @param start position to search from
+   * @param maxDistance maximum distance from the start
+   * @return index of the character, or -1 if it is not found
+   */
+  private static int indexOf(CharSequence text, char target, int start, int maxDistance) {
+    int end = Math.min(text.length(), start + maxDistance);
+    for (int i = start; i < end; i++) {
+      if (text.charAt(i) == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Collapse runs of whitespace into single spaces, and trim the ends.
+   *
+   * @param text text
+   * @return collapsed text
+   */
+  private static String collapseWhitespace(String text) {
+    StringBuilder collapsed = new StringBuilder(text.length());
+    boolean isSpace = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isWhitespace(c) || c == '\u00a0') {
+        isSpace = collapsed.length() > 0;
+      } else {
+        if (isSpace) {
+          collapsed.append(' ');
+          isSpace = false;
+        }
+        collapsed.append(c);
+      }
+    }
+    return collapsed.toString();
+  }
+
+}
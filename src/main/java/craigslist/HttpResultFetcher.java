@@ -0,0 +1,247 @@
+package craigslist;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import http.FeedHttpClient;
+import http.FeedResponse;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+
+/**
+ * Base class for fetching Craigslist results over HTTP, with conditional
+ * requests and asynchronous downloads. Subclasses choose the page which is
+ * fetched, and the parser for it.
+ */
+public abstract class HttpResultFetcher implements ResultFetcher {
+
+  /** Counter for feed fetches which returned a full response **/
+  private static final Counter FETCHES = MetricsRegistry.getInstance().counter("feed_fetches_total", "Feed fetches which returned a full response.");
+
+  /** Counter for conditional feed fetches which returned 304 Not Modified **/
+  private static final Counter NOT_MODIFIED = MetricsRegistry.getInstance().counter("feed_fetches_not_modified_total", "Conditional feed fetches which returned 304 Not Modified.");
+
+  /** Counter for feed fetches which failed **/
+  private static final Counter ERRORS = MetricsRegistry.getInstance().counter("feed_fetch_errors_total", "Feed fetches which failed or could not be parsed.");
+
+  /** Histogram of the time taken to download a feed **/
+  private static final Histogram FETCH_TIME = MetricsRegistry.getInstance().histogram("feed_fetch_seconds", "Time taken to download a feed, including failed downloads.", 1e-6);
+
+  /** Histogram of the time taken to parse a feed **/
+  private static final Histogram PARSE_TIME = MetricsRegistry.getInstance().histogram("feed_parse_seconds", "Time taken to parse a downloaded feed.", 1e-6);
+  
+  /** Search object **/
+  private final Search search_;
+
+  /** Parser for the page **/
+  private final FeedParser parser_;
+
+  /** Validators for conditional requests, or null for unconditional requests **/
+  private FeedValidators validators_;
+
+  /** Whether the last fetch returned 304 Not Modified **/
+  private boolean notModified_;
+
+  /** Whether the last fetch failed **/
+  private boolean failed_;
+
+  /**
+   * Constructor for an HTTP result fetcher.
+   * 
+   * @param search search object
+   * @param parser parser for the page
+   */
+  protected HttpResultFetcher(Search search, FeedParser parser) {
+    search_ = search;
+    parser_ = parser;
+  }
+
+  /**
+   * Create a result fetcher for a search, of the type chosen for the search.
+   * 
+   * @param search search object
+   * @return result fetcher
+   */
+  public static HttpResultFetcher create(Search search) {
+    if (search.getFetcher().equals("html")) {
+      return new HTMLResultFetcher(search);
+    }
+    return new RSSResultFetcher(search);
+  }
+
+  /**
+   * Get the URI of the page which is fetched.
+   * 
+   * @param search search object
+   * @return page URI, or null if no URI can be created
+   */
+  protected abstract URI getUri(Search search);
+
+  /**
+   * Send conditional requests using a set of validators, which are updated after
+   * each successful fetch. If the feed has not changed, no results are returned
+   * and {@link #isNotModified()} returns true.
+   * 
+   * @param validators validators for the feed
+   */
+  public void setValidators(FeedValidators validators) {
+    validators_ = validators;
+  }
+
+  /**
+   * Check whether the last fetch was skipped because the feed had not changed.
+   * 
+   * @return true if the server responded with 304 Not Modified
+   */
+  public boolean isNotModified() {
+    return notModified_;
+  }
+
+  /**
+   * Check whether the last fetch failed, as opposed to finding no results.
+   * 
+   * @return true if the request or the parsing of the response failed
+   */
+  public boolean isFailed() {
+    return failed_;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Result> getAllResults() {
+    return getResultsSinceDate(null, 0);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Result> getResults(int maxResults) {
+    return getResultsSinceDate(null, maxResults);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Result> getResultsSinceDate(Date date) {
+    return getResultsSinceDate(date, 0);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Result> getResultsSinceDate(Date sinceDate, int maxResults) {
+    // Wait for the response, and parse it on the calling thread
+    FeedResponse response;
+    try {
+      response = sendRequest().get();
+    } catch (Exception e) {
+      return handleError();
+    }
+    return handleResponse(response, sinceDate, maxResults);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public CompletableFuture<List<Result>> getResultsSinceDateAsync(Date sinceDate, int maxResults, Executor executor) {
+    // Parse the response on the executor, leaving the I/O threads free
+    CompletableFuture<FeedResponse> response;
+    try {
+      response = sendRequest();
+    } catch (Exception e) {
+      return CompletableFuture.completedFuture(handleError());
+    }
+    return response.handleAsync((result, e) -> {
+      if (e != null) {
+        return handleError();
+      }
+      return handleResponse(result, sinceDate, maxResults);
+    }, executor);
+  }
+
+  /**
+   * Send the request for the page, adding the conditional request headers.
+   * 
+   * @return future response
+   */
+  private CompletableFuture<FeedResponse> sendRequest() {
+    notModified_ = false;
+    failed_ = false;
+    Map<String, String> headers = new HashMap<String, String>();
+    if (validators_ != null) {
+      validators_.addRequestHeaders(headers);
+    }
+    long startNanos = System.nanoTime();
+    return FeedHttpClient.getInstance().get(getUri(search_), headers).whenComplete((response, e) -> {
+      FETCH_TIME.record((System.nanoTime() - startNanos) / 1000);
+    });
+  }
+
+  /**
+   * Parse the results from a response.
+   * 
+   * @param response feed response
+   * @param sinceDate last date for results
+   * @param maxResults maximum number of results to parse
+   * @return list of results, or null if no results were found
+   */
+  private List<Result> handleResponse(FeedResponse response, Date sinceDate, int maxResults) {
+    // Skip parsing entirely if the feed has not changed
+    if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      notModified_ = true;
+      NOT_MODIFIED.increment();
+      return null;
+    } else if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+      return handleError();
+    }
+
+    // Parse the feed, decompressing it only as far as the parser reads
+    List<Result> results;
+    long startNanos = System.nanoTime();
+    try (InputStream input = response.getBody()) {
+      results = parser_.parse(input, sinceDate, maxResults);
+    } catch (Exception e) {
+      return handleError();
+    } finally {
+      PARSE_TIME.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    // Remember the validators once the feed has been parsed successfully
+    if (validators_ != null) {
+      validators_.update(response.getEntityTag(), response.getLastModified());
+    }
+    FETCHES.increment();
+
+    // Return null if no results were found
+    if (results.size() == 0) {
+      return null;
+    }
+
+    return results;
+  }
+
+  /**
+   * Record a failed fetch.
+   * 
+   * @return null, since no results could be fetched
+   */
+  private List<Result> handleError() {
+    // Make the next request unconditional, since the last results were lost
+    if (validators_ != null) {
+      validators_.clear();
+    }
+    failed_ = true;
+    ERRORS.increment();
+    return null;
+  }
+
+}
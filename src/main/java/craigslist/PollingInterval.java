@@ -0,0 +1,80 @@
+package craigslist;
+
+/**
+ * Adaptive interval between runs of a search, based on how often the search
+ * finds new results. The time between new results is tracked with an
+ * exponentially weighted moving average, and the search runs a few times per
+ * expected new result, so a quiet search runs less often and a busy one runs at
+ * its own frequency. The interval never drops below the floor, which is the
+ * frequency chosen by the user, and never rises above the ceiling, which bounds
+ * how late a new result can be found.
+ */
+final class PollingInterval {
+
+  /** Weight of the newest sample in the moving average **/
+  private static final double SMOOTHING = 0.25;
+
+  /** Number of runs aimed for between expected new results **/
+  private static final double RUNS_PER_RESULT = 2;
+
+  /** Shortest interval in milliseconds **/
+  private final long floorMillis_;
+
+  /** Longest interval in milliseconds **/
+  private final long ceilingMillis_;
+
+  /** Moving average of the time between new results in milliseconds, or 0 if none were found yet **/
+  private double meanGapMillis_;
+
+  /** Time new results were last found, or the time tracking started **/
+  private long lastResultMillis_;
+
+  /**
+   * Constructor for a polling interval.
+   *
+   * @param floorMillis shortest interval in milliseconds
+   * @param ceilingMillis longest interval in milliseconds
+   * @param nowMillis current time in milliseconds
+   */
+  PollingInterval(long floorMillis, long ceilingMillis, long nowMillis) {
+    floorMillis_ = floorMillis;
+    ceilingMillis_ = Math.max(floorMillis, ceilingMillis);
+    lastResultMillis_ = nowMillis;
+  }
+
+  /**
+   * Record the outcome of a run.
+   *
+   * @param newResults number of new results found, or 0 if none
+   * @param nowMillis current time in milliseconds
+   */
+  synchronized void record(int newResults, long nowMillis) {
+    if (newResults <= 0) {
+      return;
+    }
+
+    // Spread the time since the last new results over the results found
+    double gapMillis = (double) Math.max(0, nowMillis - lastResultMillis_) / newResults;
+    meanGapMillis_ = meanGapMillis_ == 0 ? gapMillis : SMOOTHING * gapMillis + (1 - SMOOTHING) * meanGapMillis_;
+    lastResultMillis_ = nowMillis;
+  }
+
+  /**
+   * Get the interval until the next run.
+   *
+   * @param nowMillis current time in milliseconds
+   * @return interval in milliseconds, between the floor and the ceiling
+   */
+  synchronized long getIntervalMillis(long nowMillis) {
+    if (ceilingMillis_ == floorMillis_) {
+      return floorMillis_;
+    }
+
+    // A search which has been quiet for longer than usual is expected to stay
+    // quiet for at least as long again
+    double expectedGapMillis = Math.max(meanGapMillis_, nowMillis - lastResultMillis_);
+    long intervalMillis = (long) (expectedGapMillis / RUNS_PER_RESULT);
+    return Math.min(ceilingMillis_, Math.max(floorMillis_, intervalMillis));
+  }
+
+}
@@ -1,46 +1,99 @@
 package craigslist;
 
-import java.util.concurrent.Semaphore;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 import util.ConfigManager;
 
 /**
- * Singleton class for limiting the rate of searches.
+ * Singleton class for limiting the rate of searches. Permits are issued from a
+ * token bucket which is refilled by a single shared timer thread. Callers can
+ * either block, try to take a permit without waiting, or register for a permit
+ * asynchronously.
  */
 public class RateLimiter {
 
   /** Singleton instance **/
-  private static RateLimiter instance_;
-
-  /** Semaphore for issuing permits **/
-  private Semaphore semaphore_;
+  private static volatile RateLimiter instance_;
 
   /** Maximum number of searches per minute **/
   private int maxSearchesPerMinute_;
 
+  /** Maximum number of permits which can be saved up **/
+  private int burst_;
+
+  /** Number of permits currently available **/
+  private int tokens_;
+
+  /** Callers waiting for a permit, in arrival order **/
+  private Queue<Waiter> waiters_;
+
+  /** Timer which refills the bucket **/
+  private ScheduledExecutorService timer_;
+
+  /** Histogram of the time spent waiting for a permit **/
+  private Histogram waitHistogram_;
+
+  /** Listener run when a permit goes unused, or null **/
+  private volatile Runnable idleListener_;
+
   /**
    * Post-construct method for initializing the singleton.
    */
   @PostConstruct
   public void init() {
-    instance_ = this;
-    maxSearchesPerMinute_ = ConfigManager.getInstance().getMaxSearchesPerMinute();
-    semaphore_ = new Semaphore(1);
+    ConfigManager configManager = ConfigManager.getInstance();
+    maxSearchesPerMinute_ = configManager.getMaxSearchesPerMinute();
+    burst_ = configManager.getRateLimitBurst();
+    tokens_ = burst_;
+    waiters_ = new ArrayDeque<Waiter>();
+
+    // Register the metrics
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    waitHistogram_ = metrics.histogram("rate_limit_wait_seconds", "Time spent waiting for a rate limit permit.", 1e-6);
+    metrics.gauge("rate_limit_queue_depth", "Callers waiting for a rate limit permit.", this::getQueueDepth);
+    metrics.gauge("rate_limit_tokens", "Rate limit permits currently available.", this::getAvailableTokens);
+
+    // Add one token per interval on a single shared thread
+    long refillNanos = TimeUnit.MINUTES.toNanos(1) / maxSearchesPerMinute_;
+    timer_ = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "rate-limiter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer_.scheduleAtFixedRate(this::refill, refillNanos, refillNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Pre-destroy method for stopping the refill timer.
+   */
+  @PreDestroy
+  public void shutdown() {
+    timer_.shutdownNow();
   }
 
   /**
    * Get the instance of the singleton.
-   * 
+   *
    * @return singleton instance
    */
   public static RateLimiter getInstance() {
     if (instance_ == null) {
       synchronized (RateLimiter.class) {
         if (instance_ == null) {
-          instance_ = new RateLimiter();
-          instance_.init();
+          RateLimiter instance = new RateLimiter();
+          instance.init();
+          instance_ = instance;
         }
       }
     }
@@ -49,22 +102,135 @@ public class RateLimiter {
 
   /**
    * Wait until permission is granted to run.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting, in
+   *           which case no permit is taken
    */
-  public void waitToRun() {
-    // Acquire the semaphore
+  public void waitToRun() throws InterruptedException {
+    CompletableFuture<Void> permit = acquireAsync();
     try {
-      semaphore_.acquire();
+      permit.get();
     } catch (InterruptedException e) {
+      // Give up the place in the queue, unless the permit was granted meanwhile
+      if (permit.cancel(false)) {
+        throw e;
+      }
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
     }
+  }
 
-    // Start a new thread which will wait the required amount of time before
-    // releasing the semaphore
-    new Thread(() -> {
-      try {
-        Thread.sleep(60000 / maxSearchesPerMinute_);
-      } catch (InterruptedException e) {
+  /**
+   * Take a permit if one is available right now, without waiting.
+   *
+   * @return true if a permit was taken, false otherwise
+   */
+  public synchronized boolean tryAcquire() {
+    if (tokens_ > 0 && waiters_.isEmpty()) {
+      tokens_--;
+      waitHistogram_.record(0);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Register for a permit. The returned future is completed on the rate limiter
+   * thread when the permit is granted, so any dependent work should be run on
+   * another executor. Cancelling the future gives up the place in the queue.
+   *
+   * @return future which completes when a permit has been granted
+   */
+  public synchronized CompletableFuture<Void> acquireAsync() {
+    if (tryAcquire()) {
+      return CompletableFuture.completedFuture(null);
+    }
+    Waiter waiter = new Waiter();
+    waiters_.add(waiter);
+    return waiter.permit_;
+  }
+
+  /**
+   * Set a listener which is run on the rate limiter thread whenever a permit
+   * would go unused because the bucket is full and nobody is waiting. The
+   * listener can take the permit with {@link #tryAcquire()}.
+   *
+   * @param listener listener, or null to remove it
+   */
+  public void setIdleListener(Runnable listener) {
+    idleListener_ = listener;
+  }
+
+  /**
+   * Get the number of callers waiting for a permit.
+   *
+   * @return queue depth
+   */
+  public synchronized int getQueueDepth() {
+    return waiters_.size();
+  }
+
+  /**
+   * Get the number of permits currently available.
+   *
+   * @return available permits
+   */
+  public synchronized int getAvailableTokens() {
+    return tokens_;
+  }
+
+  /**
+   * Add a token, handing it straight to the oldest waiter if there is one, or
+   * offering it to the idle listener if the bucket is already full.
+   */
+  private void refill() {
+    while (true) {
+      Waiter waiter;
+      boolean isIdle = false;
+      synchronized (this) {
+        waiter = waiters_.poll();
+        if (waiter == null) {
+          if (tokens_ < burst_) {
+            tokens_++;
+          } else {
+            isIdle = true;
+          }
+        }
       }
-      semaphore_.release();
-    }).start();
+
+      // Offer a permit which would go unused to the idle listener
+      if (waiter == null) {
+        Runnable listener = idleListener_;
+        if (isIdle && listener != null) {
+          try {
+            listener.run();
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        }
+        return;
+      }
+
+      // Complete the waiter outside the lock, skipping waiters which gave up
+      long waitMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - waiter.startNanos_);
+      if (waiter.permit_.complete(null)) {
+        waitHistogram_.record(waitMicros);
+        return;
+      }
+    }
+  }
+
+  /**
+   * A caller waiting for a permit.
+   */
+  private static final class Waiter {
+
+    /** Future completed when the permit is granted **/
+    private final CompletableFuture<Void> permit_ = new CompletableFuture<Void>();
+
+    /** Time the caller started waiting **/
+    private final long startNanos_ = System.nanoTime();
+
   }
 }
@@ -1,23 +1,50 @@
 package craigslist;
 
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Class representing a Craigslist post.
+ * Class representing a Craigslist post. Results are immutable and kept small,
+ * since every fetch creates them and the last results of each feed are kept:
+ * the date is stored as milliseconds, the site part of the link is shared
+ * between results, and results which are kept once they have been filtered
+ * are compacted to the start of their description.
  */
-public class Result {
+public final class Result {
+
+	/** Maximum number of description characters kept by compacted results **/
+	public static final int MAX_DESCRIPTION_LENGTH = 200;
+
+	/** Maximum number of shared site prefixes **/
+	private static final int MAX_SITE_PREFIXES = 4096;
+
+	/** Shared site prefixes, such as https://sfbay.craigslist.org/ **/
+	private static final Map<String, String> SITE_PREFIXES = new ConcurrentHashMap<String, String>();
 
 	/** Title of the posting **/
-	private String title_;
+	private final String title_;
+
+	/** Site part of the link to the result, shared between results **/
+	private final String sitePrefix_;
+
+	/** Rest of the link to the result **/
+	private final String path_;
+
+	/** Description of the posting, or its start if compacted **/
+	private final String description_;
 
-	/** Link to the result **/
-	private String link_;
+	/** Time the result was posted in milliseconds **/
+	private final long dateMillis_;
 
-	/** Description of the posting **/
-	private String description_;
+	/** Post ID, or 0 if not known **/
+	private final long postId_;
 
-	/** Date the result was posted **/
-	private Date date_;
+	/** Price as shown on the page, or null if not given **/
+	private final String price_;
+
+	/** Time the result was first seen in its feed, or 0 if not tracked **/
+	private final long firstSeenMillis_;
 
 	/**
 	 * Constructor for a result object.
@@ -28,10 +55,61 @@ public class Result {
 	 * @param date date the result was posted
 	 */
 	public Result(String title, String link, String description, Date date) {
+		this(title, link, description, date.getTime());
+	}
+
+	/**
+	 * Constructor for a result object from a feed item, which takes the post ID
+	 * from the link and the price from the title.
+	 * 
+	 * @param title title of the posting
+	 * @param link link to the result
+	 * @param description description of the posting
+	 * @param dateMillis time the result was posted in milliseconds
+	 */
+	public Result(String title, String link, String description, long dateMillis) {
+		this(title, link, description, dateMillis, parsePostId(link), parseTitlePrice(title));
+	}
+
+	/**
+	 * Constructor for a result object.
+	 * 
+	 * @param title title of the posting
+	 * @param link link to the result
+	 * @param description description of the posting
+	 * @param dateMillis time the result was posted in milliseconds
+	 * @param postId post ID, or 0 if not known
+	 * @param price price as shown on the page, or null if not given
+	 */
+	public Result(String title, String link, String description, long dateMillis, long postId, String price) {
+		int pathStart = getPathStart(link);
 		title_ = title;
-		link_ = link;
+		sitePrefix_ = sharePrefix(link.substring(0, pathStart));
+		path_ = link.substring(pathStart);
 		description_ = description;
-		date_ = date;
+		dateMillis_ = dateMillis;
+		postId_ = postId;
+		price_ = price;
+		firstSeenMillis_ = 0;
+	}
+
+	/**
+	 * Constructor for a copy of a result with a description and a first seen
+	 * time.
+	 * 
+	 * @param result result to copy
+	 * @param description description of the posting
+	 * @param firstSeenMillis time the result was first seen in its feed
+	 */
+	private Result(Result result, String description, long firstSeenMillis) {
+		title_ = result.title_;
+		sitePrefix_ = result.sitePrefix_;
+		path_ = result.path_;
+		description_ = description;
+		dateMillis_ = result.dateMillis_;
+		postId_ = result.postId_;
+		price_ = result.price_;
+		firstSeenMillis_ = firstSeenMillis;
 	}
 
 	/**
@@ -49,13 +127,14 @@ public class Result {
 	 * @return link to the posting
 	 */
 	public String getLink() {
-		return link_;
+		return sitePrefix_ + path_;
 	}
 
 	/**
 	 * Get the description of the posting.
 	 * 
-	 * @return description of the posting
+	 * @return description of the posting, or its first MAX_DESCRIPTION_LENGTH
+	 *         characters if the result has been compacted
 	 */
 	public String getDescription() {
 		return description_;
@@ -64,10 +143,160 @@ public class Result {
 	/**
 	 * Get the date the result was posted.
 	 * 
-	 * @return date the result was posted
+	 * @return new date object for the time the result was posted
 	 */
 	public Date getDate() {
-		return date_;
+		return new Date(dateMillis_);
+	}
+
+	/**
+	 * Get the time the result was posted.
+	 * 
+	 * @return time in milliseconds
+	 */
+	public long getDateMillis() {
+		return dateMillis_;
+	}
+
+	/**
+	 * Get the post ID.
+	 * 
+	 * @return post ID, or 0 if not known
+	 */
+	public long getPostId() {
+		return postId_;
+	}
+
+	/**
+	 * Get the price of the posting.
+	 * 
+	 * @return price as shown on the page, such as $1200, or null if not given
+	 */
+	public String getPrice() {
+		return price_;
+	}
+
+	/**
+	 * Get the time the result was first seen in its feed.
+	 * 
+	 * @return time in milliseconds, or 0 if not tracked
+	 */
+	public long getFirstSeenMillis() {
+		return firstSeenMillis_;
+	}
+
+	/**
+	 * Get a copy of the result with the time it was first seen in its feed.
+	 * 
+	 * @param firstSeenMillis time in milliseconds
+	 * @return result with the first seen time
+	 */
+	Result withFirstSeenMillis(long firstSeenMillis) {
+		return new Result(this, description_, firstSeenMillis);
+	}
+
+	/**
+	 * Get a copy of the result with only the start of its description, to be
+	 * kept once the result no longer needs to be filtered.
+	 * 
+	 * @return compacted result, which is this result if the description is
+	 *         short enough already
+	 */
+	Result compact() {
+		if (description_.length() <= MAX_DESCRIPTION_LENGTH) {
+			return this;
+		}
+		return new Result(this, description_.substring(0, MAX_DESCRIPTION_LENGTH), firstSeenMillis_);
+	}
+
+	/**
+	 * Parse the post ID from a Craigslist link, which is the last run of digits,
+	 * as in https://city.craigslist.org/cat/d/title/7712345678.html.
+	 * 
+	 * @param link link to the post
+	 * @return post ID, or 0 if the link has none
+	 */
+	public static long parsePostId(String link) {
+		// Find the last run of digits
+		int end = link.length();
+		while (end > 0 && !Character.isDigit(link.charAt(end - 1))) {
+			end--;
+		}
+		int start = end;
+		while (start > 0 && Character.isDigit(link.charAt(start - 1))) {
+			start--;
+		}
+
+		// Only accept runs long enough to be an ID, and short enough to fit
+		if (end - start < 6 || end - start > 18) {
+			return 0;
+		}
+		long postId = 0;
+		for (int i = start; i < end; i++) {
+			postId = postId * 10 + (link.charAt(i) - '0');
+		}
+		return postId;
+	}
+
+	/**
+	 * Parse the price from the title of a feed item, where Craigslist writes it
+	 * after the title as &#x0024;1200, or as $1200 if the entity was decoded.
+	 * 
+	 * @param title title of the feed item
+	 * @return price, such as $1200, or null if the title has none
+	 */
+	public static String parseTitlePrice(String title) {
+		// Find the last dollar sign followed by a digit
+		int start = -1;
+		for (int i = title.length() - 2; i >= 0 && start < 0; i--) {
+			if (title.charAt(i) == '$' && Character.isDigit(title.charAt(i + 1))) {
+				start = i + 1;
+			} else if (title.startsWith("&#x0024;", i) && i + 8 < title.length() && Character.isDigit(title.charAt(i + 8))) {
+				start = i + 8;
+			}
+		}
+		if (start < 0) {
+			return null;
+		}
+
+		// Take the digits and thousands separators after it
+		int end = start;
+		while (end < title.length() && (Character.isDigit(title.charAt(end)) || title.charAt(end) == ',')) {
+			end++;
+		}
+		return "$" + title.substring(start, end);
+	}
+
+	/**
+	 * Get the index where the path of a link starts, after the scheme and host.
+	 * 
+	 * @param link link
+	 * @return index of the path, or 0 if the link has no host
+	 */
+	private static int getPathStart(String link) {
+		int hostStart = link.indexOf("://");
+		if (hostStart < 0) {
+			return 0;
+		}
+		int pathStart = link.indexOf('/', hostStart + 3);
+		return pathStart < 0 ? link.length() : pathStart + 1;
+	}
+
+	/**
+	 * Get the shared copy of a site prefix.
+	 * 
+	 * @param prefix site prefix
+	 * @return shared copy, or the prefix itself if too many are shared already
+	 */
+	private static String sharePrefix(String prefix) {
+		String shared = SITE_PREFIXES.get(prefix);
+		if (shared != null) {
+			return shared;
+		} else if (SITE_PREFIXES.size() >= MAX_SITE_PREFIXES) {
+			return prefix;
+		}
+		shared = SITE_PREFIXES.putIfAbsent(prefix, prefix);
+		return shared == null ? prefix : shared;
 	}
 
 }
@@ -2,6 +2,8 @@ package craigslist;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Interface for a class which will fetch results from Craigslist.
@@ -40,4 +42,15 @@ public interface ResultFetcher {
    */
   public List<Result> getResultsSinceDate(Date date, int maxResults);
 
+  /**
+   * Get the most recent n results posted after a specified date, without
+   * blocking the calling thread while the results are downloaded.
+   * 
+   * @param date last date for results
+   * @param maxResults maximum number of results to fetch
+   * @param executor executor for parsing the results
+   * @return future list of results
+   */
+  public CompletableFuture<List<Result>> getResultsSinceDateAsync(Date date, int maxResults, Executor executor);
+
 }
@@ -1,20 +1,23 @@
 package craigslist;
 
-import java.io.FileWriter;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Writer;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import email.Email;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import store.SearchStore;
+import util.Clock;
 import util.ConfigManager;
 
 /**
@@ -22,7 +25,13 @@ import util.ConfigManager;
  * 
  * @author Daniel King
  */
-public class Search implements Runnable{
+public class Search {
+
+  /** Shared JSON serializer **/
+  private static final Gson GSON = new Gson();
+
+  /** Histogram of the time taken to hand a search to the search store **/
+  private static final Histogram PERSIST_TIME = MetricsRegistry.getInstance().histogram("search_persist_seconds", "Time taken to save a search or its dates to the search store.", 1e-6);
 
   /** URL search string **/
   private final String searchURL_;
@@ -36,12 +45,21 @@ public class Search implements Runnable{
   /** Name for the search **/
   private final String name_;
 
+  /** Result fetcher for the search, or null to use the configured one **/
+  private final String fetcher_;
+
+  /** Filter for the results, or null to send every result **/
+  private final SearchFilter filter_;
+
   /** Date when the last search was completed **/
   private Date lastSearchDate_;
 
   /** Date when the last result was posted **/
   private Date lastResultDate_;
 
+  /** Latest time a result sent for the search was first seen in its feed **/
+  private long lastSeenMillis_;
+
   /** Unique identifier **/
   private final String uuid_;
   
@@ -51,13 +69,44 @@ public class Search implements Runnable{
    * @param searchURL url for the search
    * @param email email address for results
    * @param frequency frequency with which to conduct the search
+   * @param name name for the search
    */
   public Search(String searchURL, String email, SearchFrequency frequency, String name) {
+    this(searchURL, email, frequency, name, null);
+  }
+
+  /**
+   * Constructor for a search object with a chosen result fetcher.
+   * 
+   * @param searchURL url for the search
+   * @param email email address for results
+   * @param frequency frequency with which to conduct the search
+   * @param name name for the search
+   * @param fetcher "rss" or "html", or null to use the configured fetcher
+   */
+  public Search(String searchURL, String email, SearchFrequency frequency, String name, String fetcher) {
+    this(searchURL, email, frequency, name, fetcher, null);
+  }
+
+  /**
+   * Constructor for a search object with a chosen result fetcher and a filter
+   * for its results.
+   * 
+   * @param searchURL url for the search
+   * @param email email address for results
+   * @param frequency frequency with which to conduct the search
+   * @param name name for the search
+   * @param fetcher "rss" or "html", or null to use the configured fetcher
+   * @param filter filter for the results, or null to send every result
+   */
+  public Search(String searchURL, String email, SearchFrequency frequency, String name, String fetcher, SearchFilter filter) {
     searchURL_ = searchURL;
     email_ = email;
     frequency_ = frequency;
     name_ = name;
-    lastSearchDate_ = new Date();
+    fetcher_ = fetcher;
+    filter_ = filter == null || filter.isEmpty() ? null : filter;
+    lastSearchDate_ = Clock.getInstance().getDate();
     uuid_ = UUID.randomUUID().toString().replaceAll("-", "");
   }
 
@@ -67,18 +116,34 @@ public class Search implements Runnable{
    * @param filepath filepath for the saved search
    */
   public static Search fromFile(String filepath) {
-    try (BufferedReader reader = new BufferedReader(new FileReader(filepath))) {
-      //TODO Fix JSON parsing
-      String jsonString = reader.readLine();
-      Gson gson = new GsonBuilder().create();
-      Search search = gson.fromJson(jsonString, Search.class);
-      return search;
+    try {
+      byte[] json = Files.readAllBytes(Paths.get(filepath));
+      return fromJson(new String(json, StandardCharsets.UTF_8));
     } catch (IOException e) {
       e.printStackTrace();
       return null;
     }
   }
 
+  /**
+   * Create a search from its JSON form.
+   * 
+   * @param json JSON string
+   * @return search
+   */
+  public static Search fromJson(String json) {
+    return GSON.fromJson(json, Search.class);
+  }
+
+  /**
+   * Get the JSON form of the search.
+   * 
+   * @return JSON string
+   */
+  public String toJson() {
+    return GSON.toJson(this);
+  }
+
   /**
    * Get the URL for the search.
    * 
@@ -115,6 +180,27 @@ public class Search implements Runnable{
     return name_;
   }
 
+  /**
+   * Get the result fetcher for the search.
+   * 
+   * @return "rss" or "html"
+   */
+  public String getFetcher() {
+    if (fetcher_ == null) {
+      return ConfigManager.getInstance().getResultFetcher();
+    }
+    return fetcher_;
+  }
+
+  /**
+   * Get the filter for the search's results.
+   * 
+   * @return filter, or null if every result is sent
+   */
+  public SearchFilter getFilter() {
+    return filter_;
+  }
+
   /**
    * Get the UUID for the search.
    * 
@@ -141,6 +227,16 @@ public class Search implements Runnable{
   public Date getLastResultDate() {
     return lastResultDate_;
   }
+
+  /**
+   * Get the latest time a result sent for the search was first seen in its
+   * feed. Results first seen after this time are new to the search.
+   * 
+   * @return time in milliseconds, or 0 if not known
+   */
+  public long getLastSeenMillis() {
+    return lastSeenMillis_;
+  }
   
   /**
    * Get the number of seconds until the search should be run.
@@ -148,7 +244,7 @@ public class Search implements Runnable{
    * @return number of seconds until the search should be run
    */
   public long getSecondsUntilRun() {
-    long millisUntilRun = lastSearchDate_.getTime() + frequency_.getMillis() - new Date().getTime();
+    long millisUntilRun = lastSearchDate_.getTime() + frequency_.getMillis() - Clock.getInstance().currentTimeMillis();
     if (millisUntilRun <= 0) {
       return 0;
     } else {
@@ -156,70 +252,81 @@ public class Search implements Runnable{
     }
   }
 
-  /**
-   * {@inheritDoc}
-   */
-  public void run() {
-    sendNewResults();
-  }
-  
   /**
    * Get new results and email them to the user.
+   * 
+   * @param dueMillis time the search was due to run in milliseconds
+   * @param executor executor for fetching and processing the results
+   * @return future number of new results found, which completes once the
+   *         results have been processed
    */
-  public void sendNewResults() {
-    // Wait until the rate limiter allows a new search
-    RateLimiter.getInstance().waitToRun();
-    
-    // Get new results
-    updateSearchDate();
-    List<Result> results = getNewResults();
-    updateLastResultDate(results);
-    
-    // Email the results
-    if (results != null) {
-      Email.sendResultsEmail(this, results);
-    }
+  public CompletableFuture<Integer> sendNewResults(long dueMillis, Executor executor) {
+    // Get new results, sharing the feed fetch with other searches
+    return getNewResults(dueMillis, executor).thenApplyAsync(newResults -> {
+      updateSearchDate();
+
+      // Queue the results email, only moving past the results once it has been
+      // accepted, so that they are found again if the outbox is full. Results
+      // left out by the filter are moved past with them, so they are not
+      // considered again.
+      List<Result> results = newResults.getResults();
+      if (Email.sendResultsEmail(this, results)) {
+        updateLastResultDate(newResults.getConsideredResults());
+      }
+      return results == null ? 0 : results.size();
+    }, executor);
   }
 
   /**
    * Get initial results and email them to the user.
+   * 
+   * @param executor executor for fetching and processing the results
+   * @return future which completes once the enrollment email has been queued
    */
-  public void sendInitialResults() {
-    // Wait until the rate limiter allows a new search
-    RateLimiter.getInstance().waitToRun();
-    
-    // Get the 10 most recent results
-    updateSearchDate();
-    List<Result> results = getResults(10);
-    updateLastResultDate(results);
-
-    // Send the enrollment email
-    Email.sendEnrollmentEmail(this, results);
+  public CompletableFuture<Void> sendInitialResults(Executor executor) {
+    // Wait until the dispatch queue grants a rate limit permit, without holding
+    // a thread
+    return DispatchQueue.getInstance().acquire(this, Clock.getInstance().currentTimeMillis()).thenRunAsync(() -> {
+      // Get the 10 most recent results, from the whole page if they are
+      // filtered, and move past the whole page
+      updateSearchDate();
+      List<Result> page = getResults(filter_ == null ? 10 : 0);
+      List<Result> results = filter_ == null ? page : FeedFilter.apply(this, page, 10);
+      updateLastResultDate(page);
+
+      // Queue the enrollment email
+      Email.sendEnrollmentEmail(this, results);
+    }, executor);
   }
 
   /**
-   * Save the search to a file.
+   * Save the search to the search store.
    */
   public void save() {
-    // Save the search with the UUID as the filename
-    String outputFilepath = ConfigManager.getInstance().getSavedSearchDirectory() + "/" + uuid_ + ".json";
-    try (Writer writer = new FileWriter(outputFilepath)) {
-      Gson gson = new GsonBuilder().create();
-      gson.toJson(this, writer);
-    } catch (IOException e) {
-      e.printStackTrace();
-    } 
+    long startNanos = System.nanoTime();
+    SearchStore.getInstance().put(this);
+    PERSIST_TIME.record((System.nanoTime() - startNanos) / 1000);
   }
 
   /**
-   * Remove the saved file, and stop the search from running.
+   * Remove the search from the search store.
    */
   public void remove() {
-    // Delete the saved file for the search
-    String saveDirectory = ConfigManager.getInstance().getSavedSearchDirectory();
-    String savedFilepath = saveDirectory + "/" + uuid_ + ".json";
-    File savedFile = new File(savedFilepath);
-    savedFile.delete();
+    SearchStore.getInstance().remove(this);
+  }
+
+  /**
+   * Restore the dates of a search which is being loaded from saved state.
+   * 
+   * @param lastSearchDate date when the last search was completed
+   * @param lastResultDate date when the last result was posted
+   * @param lastSeenMillis latest time a result sent for the search was first
+   *          seen in its feed
+   */
+  public void restoreDates(Date lastSearchDate, Date lastResultDate, long lastSeenMillis) {
+    lastSearchDate_ = lastSearchDate;
+    lastResultDate_ = lastResultDate;
+    lastSeenMillis_ = lastSeenMillis;
   }
 
   /**
@@ -271,6 +378,32 @@ public class Search implements Runnable{
     }
   }
 
+  /**
+   * Get the URI for the HTML search results page associated with the search.
+   * 
+   * @return HTML URI, or null if no URI can be created
+   */
+  public URI getHtmlUri() {
+    try {
+      return new URI(searchURL_);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Get the URI of the page which is fetched for the search, depending on the
+   * result fetcher.
+   * 
+   * @return RSS or HTML URI, or null if no URI can be created
+   */
+  public URI getFeedUri() {
+    if (getFetcher().equals("html")) {
+      return getHtmlUri();
+    }
+    return getRssUri();
+  }
+
   /**
    * Get the most recent results for the search.
    * 
@@ -278,32 +411,33 @@ public class Search implements Runnable{
    * @return list of results
    */
   private List<Result> getResults(int resultCount) {
-    ResultFetcher resultFetcher = new RSSResultFetcher(this);
+    ResultFetcher resultFetcher = HttpResultFetcher.create(this);
     List<Result> results = resultFetcher.getResults(resultCount);
     return results;
   }
 
   /**
-   * Get search results since the last result was found.
+   * Get search results since the last result was found. The rate limiter is
+   * only consulted if the feed actually needs to be fetched.
    * 
-   * @return list of results
+   * @param dueMillis time the search was due to run in milliseconds
+   * @param executor executor for fetching the results
+   * @return future new results, with the ones left out by the filter
    */
-  private List<Result> getNewResults() {
-    ResultFetcher resultFetcher = new RSSResultFetcher(this);
-    List<Result> results = resultFetcher.getResultsSinceDate(lastResultDate_);
-    return results;
+  private CompletableFuture<FeedCoalescer.NewResults> getNewResults(long dueMillis, Executor executor) {
+    return FeedCoalescer.getInstance().getNewResults(this, dueMillis, executor);
   }
 
   /**
-   * Update the search date, and save the search file.
+   * Update the search date, and save it.
    */
   private void updateSearchDate() {
-    lastSearchDate_ = new Date();
-    save();
+    lastSearchDate_ = Clock.getInstance().getDate();
+    saveDates();
   }
 
   /**
-   * Update the last result date, and save the search file.
+   * Update the last result date and the last seen time, and save them.
    * 
    * @param results list of most recent results
    */
@@ -311,8 +445,25 @@ public class Search implements Runnable{
     if (results == null || results.size() == 0) {
       return;
     }
-    lastResultDate_ = results.get(0).getDate();
-    save();
+
+    // Move past the newest result, which may not be the first if posts arrived
+    // out of order
+    for (Result result : results) {
+      if (lastResultDate_ == null || result.getDateMillis() > lastResultDate_.getTime()) {
+        lastResultDate_ = result.getDate();
+      }
+      lastSeenMillis_ = Math.max(lastSeenMillis_, result.getFirstSeenMillis());
+    }
+    saveDates();
+  }
+
+  /**
+   * Save the dates of the search to the search store.
+   */
+  private void saveDates() {
+    long startNanos = System.nanoTime();
+    SearchStore.getInstance().updateDates(this);
+    PERSIST_TIME.record((System.nanoTime() - startNanos) / 1000);
   }
 
 }
@@ -0,0 +1,212 @@
+package craigslist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Local filter applied to a search's results before they are emailed, so that
+ * searches which only differ in keywords or price can share one feed. A result
+ * passes if it contains at least one of the include terms, if there are any,
+ * none of the exclude terms, and has a price within the range, if one is set.
+ * Terms match whole words regardless of case, in the title and description or
+ * in the title only.
+ */
+public final class SearchFilter {
+
+  /** Maximum number of include and exclude terms together **/
+  public static final int MAX_TERMS = 50;
+
+  /** Maximum length of a term **/
+  public static final int MAX_TERM_LENGTH = 100;
+
+  /** Normalized terms of which results must contain at least one **/
+  private final List<String> includeTerms_;
+
+  /** Normalized terms which results must not contain **/
+  private final List<String> excludeTerms_;
+
+  /** Lowest price in dollars, or null **/
+  private final Integer minPrice_;
+
+  /** Highest price in dollars, or null **/
+  private final Integer maxPrice_;
+
+  /** Whether terms are only matched in titles **/
+  private final boolean titleOnly_;
+
+  /**
+   * Constructor for a search filter.
+   *
+   * @param includeTerms terms of which results must contain at least one, or
+   *          empty for any result
+   * @param excludeTerms terms which results must not contain
+   * @param minPrice lowest price in dollars, or null
+   * @param maxPrice highest price in dollars, or null
+   * @param titleOnly whether terms are only matched in titles
+   */
+  public SearchFilter(List<String> includeTerms, List<String> excludeTerms, Integer minPrice, Integer maxPrice, boolean titleOnly) {
+    includeTerms_ = normalize(includeTerms);
+    excludeTerms_ = normalize(excludeTerms);
+    minPrice_ = minPrice;
+    maxPrice_ = maxPrice;
+    titleOnly_ = titleOnly;
+  }
+
+  /**
+   * Split a comma separated list of terms.
+   *
+   * @param terms comma separated terms, or null
+   * @return list of terms, which is empty if there are none
+   */
+  public static List<String> parseTerms(String terms) {
+    List<String> list = new ArrayList<String>();
+    if (terms != null) {
+      for (String term : terms.split(",")) {
+        if (!term.trim().isEmpty()) {
+          list.add(term.trim());
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Check whether the filter lets every result through.
+   *
+   * @return true if the filter has no terms and no price range
+   */
+  public boolean isEmpty() {
+    return includeTerms_.isEmpty() && excludeTerms_.isEmpty() && minPrice_ == null && maxPrice_ == null;
+  }
+
+  /**
+   * Check whether the filter is within the limits on terms and prices.
+   *
+   * @return true if the filter is valid, false otherwise
+   */
+  public boolean isValid() {
+    if (includeTerms_.size() + excludeTerms_.size() > MAX_TERMS) {
+      return false;
+    }
+    for (String term : includeTerms_) {
+      if (term.length() > MAX_TERM_LENGTH) {
+        return false;
+      }
+    }
+    for (String term : excludeTerms_) {
+      if (term.length() > MAX_TERM_LENGTH) {
+        return false;
+      }
+    }
+    if ((minPrice_ != null && minPrice_ < 0) || (maxPrice_ != null && maxPrice_ < 0)) {
+      return false;
+    }
+    return minPrice_ == null || maxPrice_ == null || minPrice_ <= maxPrice_;
+  }
+
+  /**
+   * Get the terms of which results must contain at least one.
+   *
+   * @return normalized terms
+   */
+  public List<String> getIncludeTerms() {
+    return includeTerms_;
+  }
+
+  /**
+   * Get the terms which results must not contain.
+   *
+   * @return normalized terms
+   */
+  public List<String> getExcludeTerms() {
+    return excludeTerms_;
+  }
+
+  /**
+   * Get the lowest price.
+   *
+   * @return price in dollars, or null
+   */
+  public Integer getMinPrice() {
+    return minPrice_;
+  }
+
+  /**
+   * Get the highest price.
+   *
+   * @return price in dollars, or null
+   */
+  public Integer getMaxPrice() {
+    return maxPrice_;
+  }
+
+  /**
+   * Check whether terms are only matched in titles.
+   *
+   * @return true if descriptions are ignored
+   */
+  public boolean isTitleOnly() {
+    return titleOnly_;
+  }
+
+  /**
+   * Check whether a result's price is within the range. A result without a
+   * price only passes if no range is set.
+   *
+   * @param price price in dollars, or -1 if the result has none
+   * @return true if the price passes
+   */
+  boolean acceptsPrice(long price) {
+    if (minPrice_ == null && maxPrice_ == null) {
+      return true;
+    }
+    return price >= 0 && (minPrice_ == null || price >= minPrice_) && (maxPrice_ == null || price <= maxPrice_);
+  }
+
+  /**
+   * Parse a price such as "$1,200" into whole dollars.
+   *
+   * @param price price string, or null
+   * @return price in dollars, or -1 if there is none
+   */
+  static long parsePrice(String price) {
+    if (price == null) {
+      return -1;
+    }
+    long value = -1;
+    for (int i = 0; i < price.length(); i++) {
+      char c = price.charAt(i);
+      if (c >= '0' && c <= '9') {
+        value = (value < 0 ? 0 : value * 10) + (c - '0');
+        if (value > Integer.MAX_VALUE) {
+          return Integer.MAX_VALUE;
+        }
+      } else if (value >= 0 && c != ',') {
+        break;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Normalize terms, dropping any without words and any repeats.
+   *
+   * @param terms terms, or null
+   * @return unmodifiable list of normalized terms
+   */
+  private static List<String> normalize(List<String> terms) {
+    if (terms == null) {
+      return Collections.emptyList();
+    }
+    List<String> normalized = new ArrayList<String>(terms.size());
+    for (String term : terms) {
+      String word = TermMatcher.normalize(term);
+      if (!word.isEmpty() && !normalized.contains(word)) {
+        normalized.add(word);
+      }
+    }
+    return Collections.unmodifiableList(normalized);
+  }
+
+}
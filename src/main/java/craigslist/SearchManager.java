@@ -1,71 +1,163 @@
 package craigslist;
 
-import java.io.File;
-import java.io.FilenameFilter;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import store.SearchStore;
+import util.Clock;
 import util.ConfigManager;
 
 /**
- * Singleton class for managing, queueing, and running searches.
+ * Singleton class for managing, queueing, and running searches. Searches are
+ * kept on a timing wheel, and due searches are handed to a bounded pool of
+ * worker threads once the dispatch queue grants them a rate limit permit. If
+ * adaptive polling is enabled, searches which rarely find new results run less
+ * often than their frequency, up to a configured multiple of it. If idle
+ * polling is enabled, rate limit permits which would otherwise go unused run
+ * the searches closest to their next run early.
  */
 public class SearchManager {
 
+  /** Duration of one tick of the scheduling wheel in milliseconds **/
+  private static final long TICK_MILLIS = 1000;
+
+  /** Number of buckets in the scheduling wheel **/
+  private static final int WHEEL_SIZE = 4096;
+
+  /** Counter for scheduled search runs **/
+  private static final Counter RUNS = MetricsRegistry.getInstance().counter("search_runs_total", "Scheduled search runs.");
+
+  /** Counter for scheduled search runs which found no new results **/
+  private static final Counter EMPTY_RUNS = MetricsRegistry.getInstance().counter("search_runs_empty_total", "Scheduled search runs which found no new results.");
+
+  /** Counter for searches run early with spare rate limit permits **/
+  private static final Counter EARLY_RUNS = MetricsRegistry.getInstance().counter("search_runs_early_total", "Searches run early with spare rate limit permits.");
+
+  /** Number of searches of each frequency checked for an early run **/
+  private static final int MAX_IDLE_CANDIDATES = 16;
+
   /** Singleton instance of the search manager **/
-  private static SearchManager instance_;
+  private static volatile SearchManager instance_;
 
   /** Map of searches, organized by UUID **/
   private Map<String, Search> searches_;
 
-  /** Map of scheduled searches and futures **/
-  private Map<Search, ScheduledFuture<?>> scheduledSearches_;
+  /** Map of scheduled searches and their tasks **/
+  private Map<Search, SearchTask> scheduledSearches_;
 
-  /** Executor for running searches periodically **/
-  private ScheduledThreadPoolExecutor scheduler_;
+  /** Timing wheel for running searches periodically **/
+  private TimingWheel scheduler_;
+
+  /** Executor for fetching feeds and processing results **/
+  private ExecutorService workers_;
+
+  /** Factor by which the interval of a quiet search can be stretched **/
+  private int adaptivePollFactor_;
+
+  /** Shortest time between runs of a search run early in milliseconds **/
+  private long idlePollMinMillis_;
+
+  /** Number of search runs which have started and not yet finished **/
+  private AtomicInteger backlog_;
+
+  /** Scheduled searches ordered by their next run, organized by frequency, or null if idle polling is disabled **/
+  private Map<SearchFrequency, NavigableSet<SearchTask>> idleCandidates_;
 
   /**
    * Post-construct method for initializing the singleton.
    */
   @PostConstruct
   public void init() {
-    instance_ = this;
     searches_ = new ConcurrentHashMap<String, Search>();
-    scheduledSearches_ = new ConcurrentHashMap<Search, ScheduledFuture<?>>();
-    scheduler_ = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(20);
-    scheduler_.setRemoveOnCancelPolicy(true);
+    scheduledSearches_ = new ConcurrentHashMap<Search, SearchTask>();
     
     // Make sure the config manager is initialized
-    ConfigManager.getInstance();
+    ConfigManager configManager = ConfigManager.getInstance();
+    adaptivePollFactor_ = configManager.getAdaptivePollFactor();
+    idlePollMinMillis_ = configManager.getIdlePollMinSeconds() * 1000L;
+
+    // Start the scheduler and the worker pool
+    AtomicInteger threadCount = new AtomicInteger();
+    workers_ = Executors.newFixedThreadPool(configManager.getWorkerThreads(), runnable -> {
+      Thread thread = new Thread(runnable, "search-worker-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler_ = new TimingWheel(TICK_MILLIS, WHEEL_SIZE);
+    scheduler_.start("search-scheduler");
+
+    // Register the metrics
+    backlog_ = new AtomicInteger();
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    metrics.gauge("searches_active", "Searches which are subscribed and scheduled.", () -> searches_.size());
+    metrics.gauge("search_scheduler_backlog", "Search runs which are due and have not finished, waiting for a permit, a fetch or their results email.", () -> backlog_.get());
+
+    // Run searches early when the rate limiter has permits to spare
+    if (idlePollMinMillis_ > 0) {
+      Comparator<SearchTask> byDeadline = Comparator.comparingLong(task -> task.deadlineMillis_);
+      idleCandidates_ = new EnumMap<SearchFrequency, NavigableSet<SearchTask>>(SearchFrequency.class);
+      for (SearchFrequency frequency : SearchFrequency.values()) {
+        idleCandidates_.put(frequency, new ConcurrentSkipListSet<SearchTask>(byDeadline.thenComparing(task -> task.search_.getUUID())));
+      }
+      RateLimiter.getInstance().setIdleListener(this::runIdleSearch);
+    }
 
     // Load all saved searches
     loadSavedSearches();
 
-    // Start the waiting process for all searches
+    // Start the waiting process for all searches, spreading the overdue ones
+    // over the time the rate limiter needs to run them all
+    int overdueCount = 0;
     for (Search search : searches_.values()) {
-      scheduleSearch(search);
+      if (search.getSecondsUntilRun() == 0) {
+        overdueCount++;
+      }
+    }
+    long spreadMillis = overdueCount * 60000L / configManager.getMaxSearchesPerMinute();
+    for (Search search : searches_.values()) {
+      scheduleSearch(search, spreadMillis);
     }
   }
   
   /**
-   * Pre-destroy method for canceling scheduled searches.
+   * Pre-destroy method for canceling scheduled searches, waiting for running
+   * searches to finish and saving their state. The search store must only be
+   * closed after this returns.
    */
   @PreDestroy
   public void shutdown() {
     // Cancel all scheduled searches
-    for (ScheduledFuture<?> scheduledSearch : scheduledSearches_.values()) {
-      scheduledSearch.cancel(false);
+    for (SearchTask task : scheduledSearches_.values()) {
+      scheduler_.cancel(task.timeout_);
     }
     
-    // Stop the scheduler
-    scheduler_.shutdownNow();
+    // Stop the scheduler and the workers, and wait for the searches which are
+    // running to finish, so that their updates are saved before the store is
+    // closed
+    scheduler_.stop();
+    workers_.shutdownNow();
+    try {
+      workers_.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    // Save any date updates which are being held back
+    SearchStore.getInstance().flush();
   }
 
   /**
@@ -77,8 +169,9 @@ public class SearchManager {
     if (instance_ == null) {
       synchronized (SearchManager.class) {
         if (instance_ == null) {
-          instance_ = new SearchManager();
-          instance_.init();
+          SearchManager instance = new SearchManager();
+          instance.init();
+          instance_ = instance;
         }
       }
     }
@@ -97,15 +190,14 @@ public class SearchManager {
     // Save the search
     search.save();
 
-    // Start a thread for running the initial search and sending the enrollment
-    // email
-    new Thread(() -> {
-      try {
-        search.sendInitialResults();
-      } finally {
-        scheduleSearch(search);
+    // Run the initial search and send the enrollment email, then schedule the
+    // search
+    search.sendInitialResults(workers_).whenComplete((ignored, e) -> {
+      if (e != null) {
+        e.printStackTrace();
       }
-    }).start();
+      scheduleSearch(search, 0);
+    });
   }
 
   /**
@@ -119,10 +211,14 @@ public class SearchManager {
 
     // Delete the file for the search
     if (search != null) {
-      ScheduledFuture<?> futureSearch = scheduledSearches_.remove(search);
-      if (futureSearch != null) {
-        futureSearch.cancel(false);
+      SearchTask task = scheduledSearches_.remove(search);
+      if (task != null) {
+        synchronized (task) {
+          scheduler_.cancel(task.timeout_);
+          task.setDeadline(-1);
+        }
       }
+      FeedCoalescer.getInstance().unsubscribe(search);
       search.remove();
     }
   }
@@ -144,35 +240,269 @@ public class SearchManager {
     // Clear the list of searches
     searches_.clear();
 
-    // Get all of the saved searches
-    String savedSearchDirectory = ConfigManager.getInstance().getSavedSearchDirectory();
-    File searchDirectory = new File(savedSearchDirectory);
-    File[] savedSearches = searchDirectory.listFiles(new FilenameFilter() {
-      public boolean accept(File dir, String name) {
-        return name.toLowerCase().endsWith(".json");
+    // Add each saved search to the collection
+    for (Search search : SearchStore.getInstance().loadAll()) {
+      searches_.put(search.getUUID(), search);
+    }
+  }
+
+  /**
+   * Get the number of scheduled searches.
+   * 
+   * @return number of scheduled searches
+   */
+  public int getScheduledCount() {
+    return scheduler_.size();
+  }
+
+  /**
+   * Schedule a search to run periodically. Each search runs at a phase within
+   * its frequency period which is fixed by its UUID, so that searches with the
+   * same frequency are spread evenly over the period and stay that way across
+   * restarts.
+   * 
+   * @param search search
+   * @param spreadMillis time over which overdue searches are spread in
+   *          milliseconds
+   */
+  private void scheduleSearch(Search search, long spreadMillis) {
+    // Skip searches which were removed while the initial search was running
+    if (!searches_.containsKey(search.getUUID())) {
+      return;
+    }
+    FeedCoalescer.getInstance().subscribe(search);
+    SearchTask task = new SearchTask(search);
+    long nowMillis = Clock.getInstance().currentTimeMillis();
+    long frequencyMillis = search.getFrequency().getMillis();
+    long deadlineMillis;
+    if (search.getSecondsUntilRun() == 0) {
+      // Run an overdue search within the spread, at the same point each time
+      double phase = (double) task.phase_.getPhaseMillis() / frequencyMillis;
+      deadlineMillis = nowMillis + (long) (phase * Math.min(frequencyMillis, spreadMillis));
+    } else {
+      // Run at the search's phase, about one period after its last run
+      deadlineMillis = task.phase_.getNextDeadline(search.getLastSearchDate().getTime(), frequencyMillis);
+      deadlineMillis = Math.max(deadlineMillis, task.phase_.alignToPhase(nowMillis));
+    }
+
+    // Publish and schedule the task under its lock, so that a remove or an
+    // early expiry never sees it without its timeout
+    synchronized (task) {
+      scheduledSearches_.put(search, task);
+      task.setDeadline(deadlineMillis);
+      task.timeout_ = scheduler_.schedule(task, deadlineMillis);
+    }
+
+    // Undo the scheduling if the search was removed meanwhile
+    if (!searches_.containsKey(search.getUUID()) && scheduledSearches_.remove(search, task)) {
+      synchronized (task) {
+        scheduler_.cancel(task.timeout_);
+        task.setDeadline(-1);
       }
-    });
+      FeedCoalescer.getInstance().unsubscribe(search);
+    }
+  }
 
-    // Parse each search file to create a search, and add it to the collection
-    for (File savedSearch : savedSearches) {
-      try {
-        Search search = Search.fromFile(savedSearch.getAbsolutePath());
-        searches_.put(search.getUUID(), search);
-      } catch (Exception e) {
-        e.printStackTrace();
+  /**
+   * Run the search which is closest to its next run relative to its frequency
+   * early, using a rate limit permit which would otherwise go unused. Searches
+   * which are running or ran too recently are passed over.
+   */
+  private void runIdleSearch() {
+    long nowMillis = Clock.getInstance().currentTimeMillis();
+    SearchTask earliest = null;
+    double earliestRemaining = Double.POSITIVE_INFINITY;
+    for (NavigableSet<SearchTask> tasks : idleCandidates_.values()) {
+      // The first eligible search of each frequency is the closest to its run
+      int checked = 0;
+      for (SearchTask task : tasks) {
+        if (checked++ == MAX_IDLE_CANDIDATES) {
+          break;
+        } else if (task.running_.get() || nowMillis - task.lastRunMillis_ < idlePollMinMillis_) {
+          continue;
+        }
+        double remaining = (double) (task.deadlineMillis_ - nowMillis) / task.search_.getFrequency().getMillis();
+        if (remaining < earliestRemaining) {
+          earliestRemaining = remaining;
+          earliest = task;
+        }
+        break;
       }
     }
+    if (earliest != null) {
+      earliest.runEarly();
+    }
   }
 
   /**
-   * Schedule a search to run periodically.
-   * 
-   * @param search search
+   * Task which runs a search each time its timeout expires.
    */
-  private void scheduleSearch(Search search) {
-    long secondsUntilRun = search.getSecondsUntilRun();
-    long frequencySeconds = search.getFrequency().getMillis() / 1000;
-    scheduledSearches_.put(search, scheduler_.scheduleAtFixedRate(search, secondsUntilRun, frequencySeconds, TimeUnit.SECONDS));
+  private final class SearchTask implements Runnable {
+
+    /** Search to run **/
+    private final Search search_;
+
+    /** Adaptive interval between runs **/
+    private final PollingInterval interval_;
+
+    /** Phase of the runs within the frequency period **/
+    private final SearchPhase phase_;
+
+    /** Whether the search is currently running **/
+    private final AtomicBoolean running_ = new AtomicBoolean();
+
+    /** Time of the next run in milliseconds, as indexed for idle polling **/
+    private volatile long deadlineMillis_;
+
+    /** Time the search last started running in milliseconds **/
+    private volatile long lastRunMillis_;
+
+    /** Timeout for the next run **/
+    private TimingWheel.Timeout timeout_;
+
+    /**
+     * Constructor for a search task.
+     * 
+     * @param search search to run
+     */
+    private SearchTask(Search search) {
+      search_ = search;
+      lastRunMillis_ = search.getLastSearchDate().getTime();
+      long frequencyMillis = search.getFrequency().getMillis();
+      interval_ = new PollingInterval(frequencyMillis, frequencyMillis * adaptivePollFactor_, Clock.getInstance().currentTimeMillis());
+      phase_ = new SearchPhase(search.getUUID(), frequencyMillis);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void run() {
+      // Schedule the next run one interval on, at the search's phase, skipping
+      // runs which were missed
+      long nowMillis = Clock.getInstance().currentTimeMillis();
+      long periodMillis = interval_.getIntervalMillis(nowMillis);
+      long dueMillis;
+      long nextDeadlineMillis;
+      synchronized (this) {
+        dueMillis = timeout_.getDeadlineMillis();
+        nextDeadlineMillis = phase_.getNextDeadline(dueMillis, periodMillis);
+        if (nextDeadlineMillis <= nowMillis) {
+          nextDeadlineMillis = phase_.getNextDeadline(nowMillis, periodMillis);
+        }
+      }
+      if (!reschedule(nextDeadlineMillis)) {
+        return;
+      }
+
+      // Skip this run if the previous one has not finished yet
+      if (!running_.compareAndSet(false, true)) {
+        return;
+      }
+      execute(dueMillis);
+    }
+
+    /**
+     * Run the search now instead of at its next run, and schedule the run after
+     * one interval from now.
+     */
+    private void runEarly() {
+      if (!running_.compareAndSet(false, true)) {
+        return;
+      }
+      long nowMillis = Clock.getInstance().currentTimeMillis();
+      if (!reschedule(phase_.getNextDeadline(nowMillis, interval_.getIntervalMillis(nowMillis)))) {
+        running_.set(false);
+        return;
+      }
+      EARLY_RUNS.increment();
+      execute(nowMillis);
+    }
+
+    /**
+     * Run the search, once it has been marked as running.
+     * 
+     * @param dueMillis time the search was due to run in milliseconds
+     */
+    private void execute(long dueMillis) {
+      lastRunMillis_ = Clock.getInstance().currentTimeMillis();
+      RUNS.increment();
+      backlog_.incrementAndGet();
+      search_.sendNewResults(dueMillis, workers_).whenComplete((newResults, e) -> {
+        backlog_.decrementAndGet();
+        running_.set(false);
+        if (e != null) {
+          e.printStackTrace();
+          return;
+        }
+        recordRun(newResults);
+      });
+    }
+
+    /**
+     * Record the outcome of a run, and bring the next run forward if new
+     * results shortened the interval.
+     * 
+     * @param newResults number of new results found
+     */
+    private void recordRun(int newResults) {
+      long nowMillis = Clock.getInstance().currentTimeMillis();
+      interval_.record(newResults, nowMillis);
+      if (newResults == 0) {
+        EMPTY_RUNS.increment();
+        return;
+      }
+      long nextDeadlineMillis = phase_.getNextDeadline(nowMillis, interval_.getIntervalMillis(nowMillis));
+      synchronized (this) {
+        if (nextDeadlineMillis >= timeout_.getDeadlineMillis()) {
+          return;
+        }
+      }
+      reschedule(nextDeadlineMillis);
+    }
+
+    /**
+     * Move the next run of the search, unless it has been removed.
+     * 
+     * @param deadlineMillis time of the next run in milliseconds
+     * @return true if the run was moved, false if the search was removed
+     */
+    private boolean reschedule(long deadlineMillis) {
+      if (scheduledSearches_.get(search_) != this) {
+        return false;
+      }
+      scheduler_.reschedule(timeout_, deadlineMillis);
+      setDeadline(deadlineMillis);
+
+      // Undo the reschedule if the search was removed meanwhile
+      if (scheduledSearches_.get(search_) != this) {
+        scheduler_.cancel(timeout_);
+        setDeadline(-1);
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Update the time of the next run in the index for idle polling.
+     * 
+     * @param deadlineMillis time of the next run in milliseconds, or -1 to
+     *          remove the search from the index
+     */
+    private void setDeadline(long deadlineMillis) {
+      if (idleCandidates_ == null) {
+        return;
+      }
+
+      // Take the search out of the index while its key changes
+      NavigableSet<SearchTask> tasks = idleCandidates_.get(search_.getFrequency());
+      synchronized (tasks) {
+        tasks.remove(this);
+        if (deadlineMillis >= 0) {
+          deadlineMillis_ = deadlineMillis;
+          tasks.add(this);
+        }
+      }
+    }
   }
 
 }
@@ -0,0 +1,66 @@
+package craigslist;
+
+/**
+ * Fixed point within its frequency period at which a search runs. The phase is
+ * a hash of the search's UUID, so searches with the same frequency are spread
+ * evenly over the period and keep their phase across restarts.
+ */
+final class SearchPhase {
+
+  /** Frequency period in milliseconds **/
+  private final long frequencyMillis_;
+
+  /** Phase within the frequency period in milliseconds **/
+  private final long phaseMillis_;
+
+  /**
+   * Constructor for a search phase.
+   *
+   * @param uuid UUID of the search
+   * @param frequencyMillis frequency period of the search in milliseconds
+   */
+  SearchPhase(String uuid, long frequencyMillis) {
+    frequencyMillis_ = frequencyMillis;
+
+    // Hash the UUID into a phase, which is the same on every start
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < uuid.length(); i++) {
+      hash = (hash ^ uuid.charAt(i)) * 0x100000001b3L;
+    }
+    phaseMillis_ = Math.floorMod(hash ^ (hash >>> 32), frequencyMillis);
+  }
+
+  /**
+   * Get the phase within the frequency period.
+   *
+   * @return phase in milliseconds
+   */
+  long getPhaseMillis() {
+    return phaseMillis_;
+  }
+
+  /**
+   * Get the deadline of the run after one at a given time, which is the first
+   * time at the phase from half a frequency period before the end of the
+   * interval.
+   *
+   * @param fromMillis time of the run in milliseconds
+   * @param intervalMillis interval between runs in milliseconds
+   * @return deadline in milliseconds, between half a period before and half a
+   *         period after the end of the interval
+   */
+  long getNextDeadline(long fromMillis, long intervalMillis) {
+    return alignToPhase(fromMillis + intervalMillis - frequencyMillis_ / 2);
+  }
+
+  /**
+   * Get the first time at the phase.
+   *
+   * @param millis earliest time in milliseconds
+   * @return first time at or after the earliest time which is at the phase
+   */
+  long alignToPhase(long millis) {
+    return millis + Math.floorMod(phaseMillis_ - millis, frequencyMillis_);
+  }
+
+}
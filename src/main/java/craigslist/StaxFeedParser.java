@@ -0,0 +1,150 @@
+package craigslist;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Class for parsing results from an RSS feed one item at a time, without
+ * building a document for the whole feed.
+ */
+public final class StaxFeedParser implements FeedParser {
+
+  /** Shared input factory, which is safe to use once configured **/
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Result> parse(InputStream input, Date sinceDate, int maxResults) throws XMLStreamException {
+    // Create the list of results
+    List<Result> results = new ArrayList<Result>();
+
+    // If date is null, set date to start of time
+    long sinceMillis = sinceDate == null ? 0 : sinceDate.getTime();
+
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+    try {
+      int itemCount = 0;
+      while (reader.hasNext()) {
+        // Skip everything up to the start of the next item
+        if (reader.next() != XMLStreamConstants.START_ELEMENT || !isElement(reader, "", "item")) {
+          continue;
+        }
+
+        // Check if the maximum number of results has been reached
+        if (maxResults > 0 && itemCount == maxResults) {
+          break;
+        }
+        itemCount++;
+
+        // Parse the item, skipping it if it does not fit the expected result format
+        Result resultItem = readItem(reader);
+        if (resultItem == null) {
+          continue;
+        }
+
+        // Stop parsing results if the result date is before the specified since date
+        if (resultItem.getDateMillis() <= sinceMillis) {
+          break;
+        }
+
+        // Add the result to the list
+        results.add(resultItem);
+      }
+    } finally {
+      reader.close();
+    }
+
+    return results;
+  }
+
+  /**
+   * Read an item, leaving the reader positioned at the end of the item.
+   *
+   * @param reader reader positioned at the start of an item
+   * @return result, or null if the item does not fit the expected result format
+   * @throws XMLStreamException if the feed is malformed
+   */
+  private Result readItem(XMLStreamReader reader) throws XMLStreamException {
+    String title = null;
+    String link = null;
+    String description = null;
+    String dateString = null;
+
+    // Read the first matching child of each type, skipping any other elements
+    int depth = 0;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if (depth == 0) {
+          if (title == null && isElement(reader, "", "title")) {
+            title = reader.getElementText();
+            continue;
+          } else if (link == null && isElement(reader, "", "link")) {
+            link = reader.getElementText();
+            continue;
+          } else if (description == null && isElement(reader, "", "description")) {
+            description = reader.getElementText();
+            continue;
+          } else if (dateString == null && isElement(reader, "dc", "date")) {
+            dateString = reader.getElementText();
+            continue;
+          }
+        }
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth == 0) {
+          break;
+        }
+        depth--;
+      }
+    }
+
+    // Create the result if all of the values were found
+    if (title == null || link == null || description == null || dateString == null) {
+      return null;
+    }
+    try {
+      return new Result(title, link, description, FeedDateFormat.parseMillis(dateString));
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Check whether the current element has the specified prefix and local name.
+   *
+   * @param reader reader positioned at the start of an element
+   * @param prefix namespace prefix, or an empty string for no prefix
+   * @param localName local name
+   * @return true if the element matches, false otherwise
+   */
+  private static boolean isElement(XMLStreamReader reader, String prefix, String localName) {
+    String elementPrefix = reader.getPrefix();
+    if (elementPrefix == null) {
+      elementPrefix = "";
+    }
+    return localName.equals(reader.getLocalName()) && prefix.equals(elementPrefix);
+  }
+
+  /**
+   * Create the input factory, with DTD and external entity processing disabled.
+   *
+   * @return input factory
+   */
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+
+}
@@ -0,0 +1,263 @@
+package craigslist;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton which finds every one of a set of terms in a text in
+ * a single pass, however many terms there are. Terms and texts are compared as
+ * lower case words, with everything other than letters and digits treated as a
+ * word break, and terms only match whole words.
+ * <p>
+ * Only the edges of the trie are stored, in an open addressing table keyed by
+ * state and character, and failure links are followed while matching, so the
+ * automaton takes memory in proportion to the total length of the terms.
+ */
+final class TermMatcher {
+
+  /** Term IDs returned when nothing matches **/
+  private static final int[] NO_TERMS = new int[0];
+
+  /** Keys of the edge table, each a state and a character, or -1 if empty **/
+  private final long[] edgeKeys_;
+
+  /** Child state of each edge **/
+  private final int[] edgeChildren_;
+
+  /** Mask for indexes into the edge table **/
+  private final int edgeMask_;
+
+  /** Failure state of each state, the longest proper suffix in the trie **/
+  private final int[] failures_;
+
+  /** ID of the term ending at each state, or -1 **/
+  private final int[] terms_;
+
+  /** Nearest state along the failure links at which a term ends, or -1 **/
+  private final int[] outputs_;
+
+  /**
+   * Constructor for a matcher, which builds the automaton.
+   *
+   * @param terms distinct normalized terms, whose IDs are their indexes
+   */
+  TermMatcher(List<String> terms) {
+    // Size the tables for a state per character of the terms, each framed by
+    // word breaks
+    int maxStates = 1;
+    for (String term : terms) {
+      maxStates += term.length() + 2;
+    }
+    int capacity = Integer.highestOneBit(Math.max(2, maxStates) * 2 - 1) * 2;
+    edgeKeys_ = new long[capacity];
+    Arrays.fill(edgeKeys_, -1);
+    edgeChildren_ = new int[capacity];
+    edgeMask_ = capacity - 1;
+
+    // Build the trie, remembering each state's parent, character and depth
+    int[] parents = new int[maxStates];
+    char[] chars = new char[maxStates];
+    int[] depths = new int[maxStates];
+    int[] ends = new int[maxStates];
+    Arrays.fill(ends, -1);
+    int states = 1;
+    for (int id = 0; id < terms.size(); id++) {
+      String key = ' ' + terms.get(id) + ' ';
+      int state = 0;
+      for (int i = 0; i < key.length(); i++) {
+        int child = getChild(state, key.charAt(i));
+        if (child < 0) {
+          child = states++;
+          putChild(state, key.charAt(i), child);
+          parents[child] = state;
+          chars[child] = key.charAt(i);
+          depths[child] = depths[state] + 1;
+        }
+        state = child;
+      }
+      ends[state] = id;
+    }
+
+    // Order the states by depth, so that each state's failure link is found
+    // after those of every shorter state
+    int maxDepth = 0;
+    for (int state = 0; state < states; state++) {
+      maxDepth = Math.max(maxDepth, depths[state]);
+    }
+    int[] depthStarts = new int[maxDepth + 2];
+    for (int state = 0; state < states; state++) {
+      depthStarts[depths[state] + 1]++;
+    }
+    for (int depth = 1; depth < depthStarts.length; depth++) {
+      depthStarts[depth] += depthStarts[depth - 1];
+    }
+    int[] order = new int[states];
+    for (int state = 0; state < states; state++) {
+      order[depthStarts[depths[state]]++] = state;
+    }
+
+    // Link each state to the longest proper suffix in the trie, and to the
+    // nearest state along the links at which a term ends
+    failures_ = new int[states];
+    terms_ = Arrays.copyOf(ends, states);
+    outputs_ = new int[states];
+    outputs_[0] = -1;
+    for (int i = 1; i < states; i++) {
+      int state = order[i];
+      int failure = 0;
+      if (parents[state] != 0) {
+        failure = step(failures_[parents[state]], chars[state]);
+      }
+      failures_[state] = failure;
+      outputs_[state] = terms_[failure] >= 0 ? failure : outputs_[failure];
+    }
+  }
+
+  /**
+   * Find the terms in a text.
+   *
+   * @param text text, or null
+   * @return sorted IDs of the terms found
+   */
+  int[] match(String text) {
+    if (text == null || failures_.length == 1) {
+      return NO_TERMS;
+    }
+
+    // Run the text through the automaton as normalized words, framed by breaks
+    int[] found = NO_TERMS;
+    int count = 0;
+    int state = step(0, ' ');
+    boolean isBreak = true;
+    for (int i = 0; i <= text.length(); i++) {
+      char c = i < text.length() ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        state = step(state, Character.toLowerCase(c));
+        isBreak = false;
+      } else if (!isBreak) {
+        state = step(state, ' ');
+        isBreak = true;
+      } else {
+        continue;
+      }
+
+      // Collect the terms ending here, following the output links
+      for (int output = terms_[state] >= 0 ? state : outputs_[state]; output >= 0; output = outputs_[output]) {
+        if (count == found.length) {
+          found = Arrays.copyOf(found, Math.max(8, 2 * count));
+        }
+        found[count++] = terms_[output];
+      }
+    }
+    if (count == 0) {
+      return NO_TERMS;
+    }
+
+    // Sort the IDs and drop repeats
+    Arrays.sort(found, 0, count);
+    int unique = 1;
+    for (int i = 1; i < count; i++) {
+      if (found[i] != found[unique - 1]) {
+        found[unique++] = found[i];
+      }
+    }
+    return Arrays.copyOf(found, unique);
+  }
+
+  /**
+   * Normalize a term into lower case words separated by single spaces.
+   *
+   * @param term term
+   * @return normalized term, which is empty if the term has no words
+   */
+  static String normalize(String term) {
+    StringBuilder builder = new StringBuilder(term.length());
+    for (int i = 0; i < term.length(); i++) {
+      char c = term.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        builder.append(Character.toLowerCase(c));
+      } else if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ' ') {
+        builder.append(' ');
+      }
+    }
+    int length = builder.length();
+    return length > 0 && builder.charAt(length - 1) == ' ' ? builder.substring(0, length - 1) : builder.toString();
+  }
+
+  /**
+   * Move the automaton on by one character, following failure links until a
+   * state has an edge for it.
+   *
+   * @param state current state
+   * @param c normalized character
+   * @return next state
+   */
+  private int step(int state, char c) {
+    while (true) {
+      int child = getChild(state, c);
+      if (child >= 0) {
+        return child;
+      } else if (state == 0) {
+        return 0;
+      }
+      state = failures_[state];
+    }
+  }
+
+  /**
+   * Look up the child of a state in the edge table.
+   *
+   * @param state state
+   * @param c character
+   * @return child state, or -1 if the state has no edge for the character
+   */
+  private int getChild(int state, char c) {
+    long key = getKey(state, c);
+    for (int index = getIndex(key);; index = (index + 1) & edgeMask_) {
+      if (edgeKeys_[index] == key) {
+        return edgeChildren_[index];
+      } else if (edgeKeys_[index] < 0) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Add an edge to the edge table.
+   *
+   * @param state parent state
+   * @param c character
+   * @param child child state
+   */
+  private void putChild(int state, char c, int child) {
+    long key = getKey(state, c);
+    int index = getIndex(key);
+    while (edgeKeys_[index] >= 0) {
+      index = (index + 1) & edgeMask_;
+    }
+    edgeKeys_[index] = key;
+    edgeChildren_[index] = child;
+  }
+
+  /**
+   * Get the key of an edge.
+   *
+   * @param state parent state
+   * @param c character
+   * @return key
+   */
+  private static long getKey(int state, char c) {
+    return (long) state << 16 | c;
+  }
+
+  /**
+   * Get the home index of an edge key in the edge table.
+   *
+   * @param key edge key
+   * @return index
+   */
+  private int getIndex(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & edgeMask_;
+  }
+
+}
@@ -0,0 +1,262 @@
+package craigslist;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import util.Clock;
+
+/**
+ * Hashed timing wheel for scheduling large numbers of timeouts. Adding,
+ * rescheduling and cancelling a timeout are constant time operations. Expired
+ * tasks are run on the wheel's own thread, so they should only hand work off to
+ * another executor.
+ */
+public final class TimingWheel {
+
+  /** Duration of one tick in milliseconds **/
+  private final long tickMillis_;
+
+  /** Mask for converting a tick number into a bucket index **/
+  private final int mask_;
+
+  /** Number of bits in the wheel size **/
+  private final int wheelBits_;
+
+  /** Head of the list of timeouts in each bucket **/
+  private final Timeout[] buckets_;
+
+  /** Time of tick zero in milliseconds **/
+  private final long startMillis_;
+
+  /** Number of the next tick to process **/
+  private long currentTick_;
+
+  /** Number of scheduled timeouts **/
+  private int size_;
+
+  /** Thread which advances the wheel **/
+  private Thread thread_;
+
+  /** Whether the wheel is running **/
+  private volatile boolean running_;
+
+  /**
+   * Constructor for a timing wheel.
+   *
+   * @param tickMillis duration of one tick in milliseconds
+   * @param wheelSize number of buckets, rounded up to a power of two
+   */
+  public TimingWheel(long tickMillis, int wheelSize) {
+    int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+    tickMillis_ = tickMillis;
+    mask_ = size - 1;
+    wheelBits_ = Integer.numberOfTrailingZeros(size);
+    buckets_ = new Timeout[size];
+    startMillis_ = Clock.getInstance().currentTimeMillis();
+  }
+
+  /**
+   * Start the thread which advances the wheel.
+   *
+   * @param threadName name for the thread
+   */
+  public synchronized void start(String threadName) {
+    running_ = true;
+    thread_ = new Thread(this::runTicks, threadName);
+    thread_.setDaemon(true);
+    thread_.start();
+  }
+
+  /**
+   * Stop the thread which advances the wheel. Scheduled timeouts are kept but
+   * never expire.
+   */
+  public synchronized void stop() {
+    running_ = false;
+    if (thread_ != null) {
+      thread_.interrupt();
+    }
+  }
+
+  /**
+   * Schedule a task to run at a specified time.
+   *
+   * @param task task to run when the timeout expires
+   * @param deadlineMillis time to run the task in milliseconds
+   * @return timeout, which can be rescheduled or cancelled
+   */
+  public synchronized Timeout schedule(Runnable task, long deadlineMillis) {
+    Timeout timeout = new Timeout(task);
+    insert(timeout, deadlineMillis);
+    return timeout;
+  }
+
+  /**
+   * Move a timeout to a new time, scheduling it again if it already expired.
+   *
+   * @param timeout timeout
+   * @param deadlineMillis new time to run the task in milliseconds
+   */
+  public synchronized void reschedule(Timeout timeout, long deadlineMillis) {
+    if (timeout.bucket_ >= 0) {
+      unlink(timeout);
+    }
+    insert(timeout, deadlineMillis);
+  }
+
+  /**
+   * Cancel a timeout.
+   *
+   * @param timeout timeout, or null
+   * @return true if the timeout was scheduled, false otherwise
+   */
+  public synchronized boolean cancel(Timeout timeout) {
+    if (timeout == null || timeout.bucket_ < 0) {
+      return false;
+    }
+    unlink(timeout);
+    return true;
+  }
+
+  /**
+   * Get the number of scheduled timeouts.
+   *
+   * @return number of timeouts
+   */
+  public synchronized int size() {
+    return size_;
+  }
+
+  /**
+   * Add a timeout to the bucket for its deadline.
+   *
+   * @param timeout unlinked timeout
+   * @param deadlineMillis time to run the task in milliseconds
+   */
+  private void insert(Timeout timeout, long deadlineMillis) {
+    // Deadlines in the past expire on the next tick
+    long tick = Math.max(currentTick_, (deadlineMillis - startMillis_ + tickMillis_ - 1) / tickMillis_);
+    int index = (int) (tick & mask_);
+    timeout.deadlineMillis_ = deadlineMillis;
+    timeout.remainingRounds_ = (tick - currentTick_) >>> wheelBits_;
+    timeout.bucket_ = index;
+    timeout.previous_ = null;
+    timeout.next_ = buckets_[index];
+    if (buckets_[index] != null) {
+      buckets_[index].previous_ = timeout;
+    }
+    buckets_[index] = timeout;
+    size_++;
+  }
+
+  /**
+   * Remove a timeout from its bucket.
+   *
+   * @param timeout linked timeout
+   */
+  private void unlink(Timeout timeout) {
+    if (timeout.previous_ != null) {
+      timeout.previous_.next_ = timeout.next_;
+    } else {
+      buckets_[timeout.bucket_] = timeout.next_;
+    }
+    if (timeout.next_ != null) {
+      timeout.next_.previous_ = timeout.previous_;
+    }
+    timeout.previous_ = null;
+    timeout.next_ = null;
+    timeout.bucket_ = -1;
+    size_--;
+  }
+
+  /**
+   * Advance the wheel one tick at a time, running expired tasks.
+   */
+  private void runTicks() {
+    List<Timeout> expired = new ArrayList<Timeout>();
+    while (running_) {
+      // Wait for the next tick
+      long waitMillis;
+      synchronized (this) {
+        waitMillis = startMillis_ + currentTick_ * tickMillis_ - Clock.getInstance().currentTimeMillis();
+      }
+      if (waitMillis > 0) {
+        try {
+          Thread.sleep(waitMillis);
+        } catch (InterruptedException e) {
+          continue;
+        }
+      }
+
+      // Collect the expired timeouts in the current bucket
+      synchronized (this) {
+        Timeout timeout = buckets_[(int) (currentTick_ & mask_)];
+        while (timeout != null) {
+          Timeout next = timeout.next_;
+          if (timeout.remainingRounds_ > 0) {
+            timeout.remainingRounds_--;
+          } else {
+            unlink(timeout);
+            expired.add(timeout);
+          }
+          timeout = next;
+        }
+        currentTick_++;
+      }
+
+      // Run the tasks outside the lock, so they can reschedule themselves
+      for (Timeout timeout : expired) {
+        try {
+          timeout.task_.run();
+        } catch (Throwable e) {
+          e.printStackTrace();
+        }
+      }
+      expired.clear();
+    }
+  }
+
+  /**
+   * Handle for a scheduled task.
+   */
+  public static final class Timeout {
+
+    /** Task to run **/
+    private final Runnable task_;
+
+    /** Time to run the task in milliseconds **/
+    private long deadlineMillis_;
+
+    /** Number of full turns of the wheel left before the timeout expires **/
+    private long remainingRounds_;
+
+    /** Index of the bucket holding the timeout, or -1 if not scheduled **/
+    private int bucket_ = -1;
+
+    /** Previous timeout in the bucket **/
+    private Timeout previous_;
+
+    /** Next timeout in the bucket **/
+    private Timeout next_;
+
+    /**
+     * Constructor for a timeout.
+     *
+     * @param task task to run
+     */
+    private Timeout(Runnable task) {
+      task_ = task;
+    }
+
+    /**
+     * Get the time the task is, or was last, scheduled to run.
+     *
+     * @return deadline in milliseconds
+     */
+    public long getDeadlineMillis() {
+      return deadlineMillis_;
+    }
+
+  }
+
+}
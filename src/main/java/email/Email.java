@@ -1,54 +1,78 @@
 package email;
 
 import java.util.List;
-import java.util.Properties;
 
+import javax.activation.DataHandler;
 import javax.mail.Message;
-import javax.mail.PasswordAuthentication;
-import javax.mail.Session;
-import javax.mail.Transport;
+import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
 
 import craigslist.Result;
 import craigslist.Search;
 import util.ConfigManager;
 
 /**
- * Class with static methods for sending email.
+ * Class with static methods for sending email. Emails are queued in the outbox
+ * as the search and results they are about, and rendered from templates
+ * straight into the MIME message when they are delivered, as a plain text part
+ * and an HTML part. With a digest window, the results emails for each recipient
+ * are collected into one digest per window.
  */
 public class Email {
-  
+
+  /** Content type of the plain text part **/
+  private static final String TEXT_TYPE = "text/plain; charset=utf-8";
+
+  /** Content type of the HTML part **/
+  private static final String HTML_TYPE = "text/html; charset=utf-8";
+
+  /** Templates of the plain text part **/
+  private static final Layout TEXT = new Layout(false,
+      "You have created a new search: ${url}\n\n",
+      "We weren't able to find any current results for that search time. We will try again in ${frequency}\n\n",
+      "Here are some recent search results:\n\n",
+      "We found some new results for the search you were following:\n\n",
+      "${title}\n${link}\n\n",
+      "To unsubscribe, visit ${base}${uuid}\n\n",
+      "We found some new results for the searches you are following:\n\n",
+      "Search: ${name}\n\n");
+
+  /** Templates of the HTML part **/
+  private static final Layout HTML = new Layout(true,
+      "<p>You have created a new search: ${url}</p>\n",
+      "<p>We weren't able to find any current results for that search time. We will try again in ${frequency}</p>\n",
+      "<p>Here are some recent search results:</p>\n",
+      "<p>We found some new results for the search you were following:</p>\n",
+      "<p><a href='${link}'>${title}</a><br>\n",
+      "<p><a href='${base}${uuid}'>Click here</a> to unsubscribe.</p>\n",
+      "<p>We found some new results for the searches you are following:</p>\n",
+      "<h3>${name}</h3>\n");
+
   /**
    * Send an enrollment email for a new search.
    * 
    * @param search search object
    * @param results list of results
+   * @return true if the email was queued, false otherwise
+   */
+  public static boolean sendEnrollmentEmail(Search search, List<Result> results) {
+    return Outbox.getInstance().enqueue(createEnrollmentMessage(search, results));
+  }
+
+  /**
+   * Create an enrollment email.
+   * 
+   * @param search search object
+   * @param results list of results, or null if none could be found
+   * @return message for the outbox
    */
-  public static void sendEnrollmentEmail(Search search, List<Result> results) {
-    String recipient = search.getEmailAddress().toString();
+  public static OutboxMessage createEnrollmentMessage(Search search, List<Result> results) {
     String subject = "You are now following a Craigslist search: " + search.getName();
-    
-    // Create the message
-    StringBuilder messageBuilder = new StringBuilder();
-    messageBuilder.append("<p>You have created a new search: " + search.getSearchURL().toString() + "</p>");
-    
-    // Add the unsubscribe link
-    String unsubscribeLink = ConfigManager.getInstance().getBaseURL() + ConfigManager.getInstance().getContextPath() + "/Unsubscribe?uuid=" + search.getUUID();
-    messageBuilder.append("<p><a href='" + unsubscribeLink + "'>Click here</a> to unsubscribe.</p>");
-    
-    // If there are existing results, add them to the message
-    if (results == null) {
-        messageBuilder.append("<p>We weren't able to find any current results for that search time. We will try again in " + search.getFrequency().getDescription() + "</p>");
-    } else {
-    messageBuilder.append("<p>Here are some recent search results:</p>");
-        for (Result result : results) {
-            messageBuilder.append("<p><a href='" + result.getLink() + "'>" + result.getTitle() + "</a><br>");
-        }
-    }
-    
-    sendEmail(recipient, subject, messageBuilder.toString());
+    return new OutboxMessage(search.getEmailAddress(), subject, search, results, true);
   }
   
   /**
@@ -56,72 +80,105 @@ public class Email {
    * 
    * @param search search object
    * @param results list of results
+   * @return true if the email was queued or there was nothing to send, false
+   *         otherwise
    */
-  public static void sendResultsEmail(Search search, List<Result> results) {
+  public static boolean sendResultsEmail(Search search, List<Result> results) {
     // Do nothing is there are no results 
     if (results == null) {
-      return;
+      return true;
     }
-    
-    // Create the message
-    String recipient = search.getEmailAddress().toString();
-    String subject = "New results for your Craigslist search: " + search.getName();
-    StringBuilder messageBuilder = new StringBuilder();
-    messageBuilder.append("<p>We found some new results for the search you were following:</p>");
 
-    // Add all the results
-    for (Result result : results) {
-      messageBuilder.append("<p><a href='" + result.getLink() + "'>" + result.getTitle() + "</a><br>");
+    // Collect the results into the recipient's digest, if digests are on
+    if (ConfigManager.getInstance().getDigestWindowSeconds() > 0) {
+      return Outbox.getInstance().addToDigest(search, results);
     }
-    
-    // Add the unsubscribe link
-    String unsubscribeLink = ConfigManager.getInstance().getBaseURL() + ConfigManager.getInstance().getContextPath() + "/Unsubscribe?uuid=" + search.getUUID();
-    messageBuilder.append("<p><a href='" + unsubscribeLink + "'>Click here</a> to unsubscribe.</p>");
-    
-    sendEmail(recipient, subject, messageBuilder.toString());
+    return Outbox.getInstance().enqueue(createResultsMessage(search, results));
   }
 
   /**
-   * Send an email. 
+   * Create an email with recent search results.
+   * 
+   * @param search search object
+   * @param results list of results
+   * @return message for the outbox
+   */
+  public static OutboxMessage createResultsMessage(Search search, List<Result> results) {
+    String subject = "New results for your Craigslist search: " + search.getName();
+    return new OutboxMessage(search.getEmailAddress(), subject, search, results, false);
+  }
+
+  /**
+   * Create an empty digest of new results for a recipient.
    * 
    * @param recipient recipient email address
-   * @param subject subject
-   * @param messageText message (can be HTML)
+   * @param sendMillis time to send the digest in milliseconds
+   * @return message for the outbox
    */
-  private static void sendEmail(String recipient, String subject, String messageText) {
-    // Create the properties for the session
-    Properties properties = new Properties();
-    properties.put("mail.smtp.auth", "true");
-    properties.put("mail.smtp.starttls.enable", "true");
-    properties.put("mail.smtp.host", "smtp.gmail.com");
-    properties.put("mail.smtp.port", "587");
-    properties.put("mail.debug", "false");
+  static OutboxMessage createDigestMessage(String recipient, long sendMillis) {
+    return new OutboxMessage(recipient, "New results for your Craigslist searches", sendMillis);
+  }
 
+  /**
+   * Deliver an email to the SMTP server. Called by the outbox sender threads.
+   * 
+   * @param message message from the outbox
+   * @throws Exception if the message could not be sent
+   */
+  static void deliver(OutboxMessage message) throws Exception {
+    // Send the message on a pooled connection
+    SmtpTransportPool.getInstance().send(createMimeMessage(message));
+  }
+
+  /**
+   * Create the MIME message for an email, from the configured sender. The
+   * plain text and HTML parts are rendered into buffers which the parts are
+   * encoded from.
+   * 
+   * @param outboxMessage message from the outbox
+   * @return MIME message
+   * @throws Exception if the message could not be created
+   */
+  public static MimeMessage createMimeMessage(OutboxMessage outboxMessage) throws Exception {
     // Get the email settings from the config manager
     ConfigManager configManager = ConfigManager.getInstance();
     String username = configManager.getEmailUsername();
-    String password = configManager.getEmailPassword();
     String name = configManager.getEmailName();
 
-    // Create the session
-    Session session = Session.getInstance(properties, new javax.mail.Authenticator() {
-      protected PasswordAuthentication getPasswordAuthentication() {
-        return new PasswordAuthentication(username, password);
-      }
-    });
-    session.setDebug(false);
+    // Create the message for the pool's session
+    MimeMessage message = new MimeMessage(SmtpTransportPool.getInstance().getSession());
+    message.setFrom(new InternetAddress(username, name));
+    message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(outboxMessage.getRecipient()));
+    message.setSubject(outboxMessage.getSubject(), "utf-8");
 
-    // Send the message
-    try {
-      MimeMessage message = new MimeMessage(session);
-      message.setFrom(new InternetAddress(username, name));
-      message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(recipient));
-      message.setSubject(subject);
-      message.setText(messageText, "utf-8", "html");
-      Transport.send(message);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    } 
+    // Send a message which was rendered when it was queued as it is
+    if (outboxMessage.getBody() != null) {
+      message.setText(outboxMessage.getBody(), "utf-8", "html");
+      return message;
+    }
+
+    // Render the plain text and HTML alternatives
+    String unsubscribeBaseURL = configManager.getUnsubscribeBaseURL();
+    MimeMultipart alternatives = new MimeMultipart("alternative");
+    alternatives.addBodyPart(createBodyPart(TEXT.render(outboxMessage, unsubscribeBaseURL, TEXT_TYPE)));
+    alternatives.addBodyPart(createBodyPart(HTML.render(outboxMessage, unsubscribeBaseURL, HTML_TYPE)));
+    message.setContent(alternatives);
+    return message;
+  }
+
+  /**
+   * Create a MIME body part for rendered content, encoded as quoted-printable
+   * so that it does not have to be scanned to choose an encoding.
+   * 
+   * @param content rendered content
+   * @return body part
+   * @throws MessagingException if the part could not be created
+   */
+  private static MimeBodyPart createBodyPart(TemplateBuffer content) throws MessagingException {
+    MimeBodyPart part = new MimeBodyPart();
+    part.setDataHandler(new DataHandler(content));
+    part.setHeader("Content-Transfer-Encoding", "quoted-printable");
+    return part;
   }
 
   /**
@@ -139,4 +196,146 @@ public class Email {
     }
   }
 
+  /**
+   * Templates of one part of the emails.
+   */
+  private static final class Layout {
+
+    /** Start of an enrollment email **/
+    private final Template enrollment_;
+
+    /** Line of an enrollment email for which no results could be found **/
+    private final Template noResults_;
+
+    /** Line of an enrollment email before its results **/
+    private final Template recentResults_;
+
+    /** Start of a results email **/
+    private final Template newResults_;
+
+    /** Line for each post **/
+    private final Template post_;
+
+    /** Unsubscribe line **/
+    private final Template unsubscribe_;
+
+    /** Start of a digest **/
+    private final Template digest_;
+
+    /** Heading of each search in a digest **/
+    private final Template section_;
+
+    /**
+     * Constructor for a layout, which compiles its templates.
+     * 
+     * @param html whether values are escaped for HTML
+     * @param enrollment start of an enrollment email, with the ${url} slot
+     * @param noResults line for no results, with the ${frequency} slot
+     * @param recentResults line before the results of an enrollment email
+     * @param newResults start of a results email
+     * @param post line for each post, with the ${title} and ${link} slots
+     * @param unsubscribe unsubscribe line, with the ${base} and ${uuid} slots
+     * @param digest start of a digest
+     * @param section heading of each search in a digest, with the ${name} slot
+     */
+    private Layout(boolean html, String enrollment, String noResults, String recentResults, String newResults, String post, String unsubscribe, String digest, String section) {
+      enrollment_ = Template.compile(enrollment, html, "url");
+      noResults_ = Template.compile(noResults, html, "frequency");
+      recentResults_ = Template.compile(recentResults, html);
+      newResults_ = Template.compile(newResults, html);
+      post_ = Template.compile(post, html, "title", "link");
+      unsubscribe_ = Template.compile(unsubscribe, html, "base", "uuid");
+      digest_ = Template.compile(digest, html);
+      section_ = Template.compile(section, html, "name");
+    }
+
+    /**
+     * Render a message into a buffer sized for it.
+     * 
+     * @param message message from the outbox
+     * @param unsubscribeBaseURL unsubscribe link without the search's UUID
+     * @param contentType MIME type of the part
+     * @return rendered part
+     */
+    private TemplateBuffer render(OutboxMessage message, String unsubscribeBaseURL, String contentType) {
+      if (message.isDigest()) {
+        return renderDigest(message, unsubscribeBaseURL, contentType);
+      }
+
+      // Size the buffer from the static text and the lengths of the values,
+      // with some room for escaping and multibyte characters
+      List<OutboxMessage.Post> posts = message.getPosts();
+      int length = unsubscribe_.getStaticLength() + unsubscribeBaseURL.length() + message.getSearchUUID().length();
+      if (message.isEnrollment()) {
+        length += enrollment_.getStaticLength() + message.getSearchURL().length();
+        length += posts == null ? noResults_.getStaticLength() + message.getFrequency().length() : recentResults_.getStaticLength();
+      } else {
+        length += newResults_.getStaticLength();
+      }
+      if (posts != null) {
+        for (OutboxMessage.Post post : posts) {
+          length += post_.getStaticLength() + post.getTitle().length() + post.getLink().length();
+        }
+      }
+      TemplateBuffer buffer = new TemplateBuffer(length + length / 8, contentType);
+
+      // Render the enrollment email with the unsubscribe line first, and the
+      // results email with it last
+      if (message.isEnrollment()) {
+        enrollment_.render(buffer, message.getSearchURL());
+        unsubscribe_.render(buffer, unsubscribeBaseURL, message.getSearchUUID());
+        if (posts == null) {
+          noResults_.render(buffer, message.getFrequency());
+        } else {
+          recentResults_.render(buffer);
+        }
+      } else {
+        newResults_.render(buffer);
+      }
+      if (posts != null) {
+        for (OutboxMessage.Post post : posts) {
+          post_.render(buffer, post.getTitle(), post.getLink());
+        }
+      }
+      if (!message.isEnrollment()) {
+        unsubscribe_.render(buffer, unsubscribeBaseURL, message.getSearchUUID());
+      }
+      return buffer;
+    }
+
+    /**
+     * Render a digest into a buffer sized for it, with the posts of each search
+     * under its name, followed by its unsubscribe line.
+     * 
+     * @param message digest from the outbox
+     * @param unsubscribeBaseURL unsubscribe link without the search's UUID
+     * @param contentType MIME type of the part
+     * @return rendered part
+     */
+    private TemplateBuffer renderDigest(OutboxMessage message, String unsubscribeBaseURL, String contentType) {
+      // Size the buffer as for a single search
+      int length = digest_.getStaticLength();
+      for (OutboxMessage.Section section : message.getSections()) {
+        length += section_.getStaticLength() + section.getName().length();
+        length += unsubscribe_.getStaticLength() + unsubscribeBaseURL.length() + section.getSearchUUID().length();
+        for (OutboxMessage.Post post : section.getPosts()) {
+          length += post_.getStaticLength() + post.getTitle().length() + post.getLink().length();
+        }
+      }
+      TemplateBuffer buffer = new TemplateBuffer(length + length / 8, contentType);
+
+      // Render each search's posts
+      digest_.render(buffer);
+      for (OutboxMessage.Section section : message.getSections()) {
+        section_.render(buffer, section.getName());
+        for (OutboxMessage.Post post : section.getPosts()) {
+          post_.render(buffer, post.getTitle(), post.getLink());
+        }
+        unsubscribe_.render(buffer, unsubscribeBaseURL, section.getSearchUUID());
+      }
+      return buffer;
+    }
+
+  }
+
 }
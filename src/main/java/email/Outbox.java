@@ -0,0 +1,374 @@
+package email;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.gson.Gson;
+
+import craigslist.Result;
+import craigslist.Search;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import util.ConfigManager;
+
+/**
+ * Singleton class for a durable outbox of emails. Messages are written to disk
+ * when they are queued, and a separate pool of sender threads delivers them,
+ * retrying failures with exponential backoff. Searches therefore never wait for
+ * the SMTP server, and queued messages survive a restart. A digest waits in the
+ * outbox for the digest window, collecting the results of every search for its
+ * recipient until a sender takes it.
+ */
+public class Outbox {
+
+  /** Singleton instance **/
+  private static volatile Outbox instance_;
+
+  /** Delay before the first retry in milliseconds **/
+  private static final long INITIAL_RETRY_MILLIS = 30000;
+
+  /** Maximum delay between retries in milliseconds **/
+  private static final long MAX_RETRY_MILLIS = 3600000;
+
+  /** Number of failed attempts after which a message is given up **/
+  private static final int MAX_ATTEMPTS = 12;
+
+  /** Shared JSON serializer **/
+  private static final Gson GSON = new Gson();
+
+  /** Counter for delivered emails **/
+  private static final Counter SENT = MetricsRegistry.getInstance().counter("emails_sent_total", "Emails delivered to the SMTP server.");
+
+  /** Counter for failed delivery attempts **/
+  private static final Counter FAILURES = MetricsRegistry.getInstance().counter("email_send_failures_total", "Failed email delivery attempts.");
+
+  /** Counter for emails which were given up **/
+  private static final Counter DROPPED = MetricsRegistry.getInstance().counter("emails_dropped_total", "Emails given up after repeated failures.");
+
+  /** Counter for emails rejected because the outbox was full **/
+  private static final Counter REJECTED = MetricsRegistry.getInstance().counter("emails_rejected_total", "Emails rejected because the outbox was full.");
+
+  /** Counter for results emails merged into a waiting digest **/
+  private static final Counter DIGEST_MERGES = MetricsRegistry.getInstance().counter("digest_merges_total", "Results emails merged into a digest which was already waiting.");
+
+  /** Counter for posts left out of digests because they were already in them **/
+  private static final Counter DIGEST_DUPLICATES = MetricsRegistry.getInstance().counter("digest_duplicate_posts_total", "Posts left out of digests because another search had already added them.");
+
+  /** Histogram of the time taken by each delivery attempt **/
+  private static final Histogram SEND_TIME = MetricsRegistry.getInstance().histogram("email_send_seconds", "Time taken to deliver an email to the SMTP server, including failed attempts.", 1e-6);
+
+  /** Directory holding the queued messages **/
+  private File directory_;
+
+  /** Directory holding messages which could not be delivered **/
+  private File failedDirectory_;
+
+  /** Messages waiting for delivery, ordered by next attempt **/
+  private DelayQueue<OutboxMessage> queue_;
+
+  /** Number of messages in the outbox, including ones being delivered **/
+  private AtomicInteger size_;
+
+  /** Maximum number of messages in the outbox **/
+  private int capacity_;
+
+  /** Time results are collected into a digest in milliseconds, or 0 **/
+  private long digestWindowMillis_;
+
+  /** Digests which are still collecting results, by recipient **/
+  private ConcurrentHashMap<String, OutboxMessage> digests_;
+
+  /** Sender threads **/
+  private List<Thread> senders_;
+
+  /**
+   * Post-construct method for initializing the singleton.
+   */
+  @PostConstruct
+  public void init() {
+    ConfigManager configManager = ConfigManager.getInstance();
+    capacity_ = configManager.getOutboxCapacity();
+    digestWindowMillis_ = configManager.getDigestWindowSeconds() * 1000L;
+    digests_ = new ConcurrentHashMap<String, OutboxMessage>();
+    queue_ = new DelayQueue<OutboxMessage>();
+    size_ = new AtomicInteger();
+    MetricsRegistry.getInstance().gauge("outbox_size", "Emails waiting in the outbox.", () -> size_.get());
+
+    // Create the directories, and load the messages left from the last run
+    directory_ = new File(configManager.getSavedSearchDirectory(), "outbox");
+    failedDirectory_ = new File(directory_, "failed");
+    failedDirectory_.mkdirs();
+    loadMessages();
+
+    // Start the sender threads
+    senders_ = new ArrayList<Thread>();
+    for (int i = 0; i < configManager.getEmailSenderThreads(); i++) {
+      Thread sender = new Thread(this::runSender, "email-sender-" + (i + 1));
+      sender.setDaemon(true);
+      sender.start();
+      senders_.add(sender);
+    }
+  }
+
+  /**
+   * Pre-destroy method for stopping the sender threads. Undelivered messages
+   * stay on disk and are sent after the next start.
+   */
+  @PreDestroy
+  public void shutdown() {
+    for (Thread sender : senders_) {
+      sender.interrupt();
+    }
+  }
+
+  /**
+   * Get the instance of the singleton.
+   *
+   * @return singleton instance
+   */
+  public static Outbox getInstance() {
+    if (instance_ == null) {
+      synchronized (Outbox.class) {
+        if (instance_ == null) {
+          Outbox instance = new Outbox();
+          instance.init();
+          instance_ = instance;
+        }
+      }
+    }
+    return instance_;
+  }
+
+  /**
+   * Queue an email for delivery. The message is on disk when this returns.
+   *
+   * @param message message
+   * @return true if the message was queued, false if the outbox is full or the
+   *         message could not be saved
+   */
+  public boolean enqueue(OutboxMessage message) {
+    // Reserve a place, rejecting the message if the outbox is full
+    if (size_.incrementAndGet() > capacity_) {
+      size_.decrementAndGet();
+      REJECTED.increment();
+      return false;
+    }
+
+    // Save the message before handing it to the senders
+    try {
+      saveMessage(message);
+    } catch (IOException e) {
+      e.printStackTrace();
+      size_.decrementAndGet();
+      return false;
+    }
+    queue_.add(message);
+    return true;
+  }
+
+  /**
+   * Add the results of a search to the digest for its recipient, opening a
+   * digest which is sent after the digest window if none is waiting. Posts
+   * already in the digest are left out. The digest is on disk when this
+   * returns.
+   *
+   * @param search search which found the results
+   * @param results results, newest first
+   * @return true if the results were added, false if the outbox is full or the
+   *         digest could not be saved
+   */
+  public boolean addToDigest(Search search, List<Result> results) {
+    // Hold the recipient's entry while the digest is changed and saved, so that
+    // a sender cannot take it in the meantime
+    AtomicBoolean added = new AtomicBoolean();
+    digests_.compute(search.getEmailAddress(), (recipient, digest) -> {
+      // Open a digest, reserving a place, if the recipient has none waiting
+      boolean isNew = digest == null;
+      if (isNew) {
+        if (size_.incrementAndGet() > capacity_) {
+          size_.decrementAndGet();
+          REJECTED.increment();
+          return null;
+        }
+        digest = Email.createDigestMessage(recipient, System.currentTimeMillis() + digestWindowMillis_);
+      }
+      int posts = digest.addResults(search, results);
+      DIGEST_DUPLICATES.add(results.size() - posts);
+
+      // Save the digest before handing a new one to the senders
+      try {
+        saveMessage(digest);
+      } catch (IOException e) {
+        e.printStackTrace();
+        if (isNew) {
+          size_.decrementAndGet();
+          return null;
+        }
+        return digest;
+      }
+      if (isNew) {
+        queue_.add(digest);
+      } else {
+        DIGEST_MERGES.increment();
+      }
+      added.set(true);
+      return digest;
+    });
+    return added.get();
+  }
+
+  /**
+   * Get the number of messages in the outbox.
+   *
+   * @return number of messages
+   */
+  public int size() {
+    return size_.get();
+  }
+
+  /**
+   * Deliver messages until the thread is interrupted.
+   */
+  private void runSender() {
+    while (!Thread.currentThread().isInterrupted()) {
+      OutboxMessage message;
+      try {
+        message = queue_.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      // Close a digest to further results before rendering it
+      if (message.isDigest()) {
+        digests_.remove(message.getRecipient(), message);
+      }
+
+      long startNanos = System.nanoTime();
+      try {
+        Email.deliver(message);
+        SEND_TIME.record((System.nanoTime() - startNanos) / 1000);
+        SENT.increment();
+        deleteMessage(message);
+      } catch (InterruptedException e) {
+        // Put the message back for the next start
+        queue_.add(message);
+        return;
+      } catch (Exception e) {
+        SEND_TIME.record((System.nanoTime() - startNanos) / 1000);
+        FAILURES.increment();
+        retryMessage(message);
+      }
+    }
+  }
+
+  /**
+   * Schedule a failed message for another attempt, or give it up after too many
+   * failures.
+   *
+   * @param message message which failed
+   */
+  private void retryMessage(OutboxMessage message) {
+    // Back off exponentially between attempts
+    long retryDelayMillis = Math.min(MAX_RETRY_MILLIS, INITIAL_RETRY_MILLIS << Math.min(message.getAttempts(), 20));
+    message.recordFailure(retryDelayMillis);
+
+    // Move the message aside once it has failed too many times
+    if (message.getAttempts() >= MAX_ATTEMPTS) {
+      File file = getMessageFile(message.getId());
+      file.renameTo(new File(failedDirectory_, file.getName()));
+      size_.decrementAndGet();
+      DROPPED.increment();
+      return;
+    }
+
+    // Save the attempt count so that the backoff survives a restart
+    try {
+      saveMessage(message);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    queue_.add(message);
+  }
+
+  /**
+   * Load all saved messages into the queue.
+   */
+  private void loadMessages() {
+    File[] files = directory_.listFiles((dir, name) -> name.endsWith(".json"));
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+        OutboxMessage message = GSON.fromJson(reader, OutboxMessage.class);
+        if (message != null) {
+          queue_.add(message);
+          size_.incrementAndGet();
+
+          // Keep collecting results into a digest which has not been tried yet
+          if (message.isDigest() && message.getAttempts() == 0) {
+            digests_.put(message.getRecipient(), message);
+          }
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Save a message, replacing any earlier copy atomically.
+   *
+   * @param message message
+   * @throws IOException if the message cannot be written
+   */
+  private void saveMessage(OutboxMessage message) throws IOException {
+    File file = getMessageFile(message.getId());
+    File temporaryFile = new File(directory_, message.getId() + ".tmp");
+    try (FileOutputStream output = new FileOutputStream(temporaryFile)) {
+      Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+      GSON.toJson(message, writer);
+      writer.flush();
+      output.getFD().sync();
+    }
+    Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Delete a delivered message.
+   *
+   * @param message message
+   */
+  private void deleteMessage(OutboxMessage message) {
+    getMessageFile(message.getId()).delete();
+    size_.decrementAndGet();
+  }
+
+  /**
+   * Get the file for a message.
+   *
+   * @param id message identifier
+   * @return message file
+   */
+  private File getMessageFile(String id) {
+    return new File(directory_, id + ".json");
+  }
+
+}
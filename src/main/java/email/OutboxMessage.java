@@ -0,0 +1,399 @@
+package email;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+import craigslist.Result;
+import craigslist.Search;
+
+/**
+ * Class representing an email waiting in the outbox. The message holds what the
+ * email says rather than its text, and is rendered when it is delivered. A
+ * digest collects the posts of several searches for the same recipient.
+ */
+public class OutboxMessage implements Delayed {
+
+  /** Unique identifier, also used as the file name **/
+  private final String id_;
+
+  /** Recipient email address **/
+  private final String recipient_;
+
+  /** Subject **/
+  private final String subject_;
+
+  /** Pre-rendered HTML message body, or null if the message is rendered **/
+  private final String body_;
+
+  /** Whether this is an enrollment email rather than a results email **/
+  private final boolean enrollment_;
+
+  /** URL of the search **/
+  private final String searchURL_;
+
+  /** UUID of the search, for the unsubscribe link **/
+  private final String searchUUID_;
+
+  /** Description of the search frequency **/
+  private final String frequency_;
+
+  /** Posts in the email, or null if no results could be found **/
+  private final List<Post> posts_;
+
+  /** Searches with posts in a digest, or null if this is not a digest **/
+  private final List<Section> sections_;
+
+  /** IDs of the posts in a digest, rebuilt from the sections after loading **/
+  private transient Set<Long> postIds_;
+
+  /** Number of failed delivery attempts **/
+  private int attempts_;
+
+  /** Time of the next delivery attempt in milliseconds **/
+  private long nextAttemptMillis_;
+
+  /**
+   * Constructor for an outbox message about a search.
+   * 
+   * @param recipient recipient email address
+   * @param subject subject
+   * @param search search the email is about
+   * @param results results in the email, or null if none could be found
+   * @param enrollment whether this is an enrollment email rather than a results
+   *          email
+   */
+  public OutboxMessage(String recipient, String subject, Search search, List<Result> results, boolean enrollment) {
+    id_ = UUID.randomUUID().toString().replaceAll("-", "");
+    recipient_ = recipient;
+    subject_ = subject;
+    body_ = null;
+    enrollment_ = enrollment;
+    searchURL_ = search.getSearchURL();
+    searchUUID_ = search.getUUID();
+    frequency_ = search.getFrequency().getDescription();
+    sections_ = null;
+
+    // Keep only what the email shows of each result
+    if (results == null) {
+      posts_ = null;
+    } else {
+      posts_ = new ArrayList<Post>(results.size());
+      for (Result result : results) {
+        posts_.add(new Post(result));
+      }
+    }
+  }
+
+  /**
+   * Constructor for an empty digest, which is sent at a given time.
+   * 
+   * @param recipient recipient email address
+   * @param subject subject
+   * @param sendMillis time to send the digest in milliseconds
+   */
+  public OutboxMessage(String recipient, String subject, long sendMillis) {
+    id_ = UUID.randomUUID().toString().replaceAll("-", "");
+    recipient_ = recipient;
+    subject_ = subject;
+    body_ = null;
+    enrollment_ = false;
+    searchURL_ = null;
+    searchUUID_ = null;
+    frequency_ = null;
+    posts_ = null;
+    sections_ = new ArrayList<Section>();
+    nextAttemptMillis_ = sendMillis;
+  }
+
+  /**
+   * Get the unique identifier.
+   * 
+   * @return identifier
+   */
+  public String getId() {
+    return id_;
+  }
+
+  /**
+   * Get the recipient email address.
+   * 
+   * @return recipient
+   */
+  public String getRecipient() {
+    return recipient_;
+  }
+
+  /**
+   * Get the subject.
+   * 
+   * @return subject
+   */
+  public String getSubject() {
+    return subject_;
+  }
+
+  /**
+   * Get the pre-rendered HTML message body, which is only set on messages
+   * queued by versions which rendered emails when they were queued.
+   * 
+   * @return message body, or null if the message is rendered on delivery
+   */
+  public String getBody() {
+    return body_;
+  }
+
+  /**
+   * Check whether this is an enrollment email.
+   * 
+   * @return true for an enrollment email, false for a results email
+   */
+  public boolean isEnrollment() {
+    return enrollment_;
+  }
+
+  /**
+   * Get the URL of the search.
+   * 
+   * @return search URL
+   */
+  public String getSearchURL() {
+    return searchURL_;
+  }
+
+  /**
+   * Get the UUID of the search.
+   * 
+   * @return search UUID
+   */
+  public String getSearchUUID() {
+    return searchUUID_;
+  }
+
+  /**
+   * Get the description of the search frequency.
+   * 
+   * @return frequency description
+   */
+  public String getFrequency() {
+    return frequency_;
+  }
+
+  /**
+   * Get the posts in the email.
+   * 
+   * @return list of posts, or null if no results could be found
+   */
+  public List<Post> getPosts() {
+    return posts_;
+  }
+
+  /**
+   * Check whether this is a digest.
+   * 
+   * @return true for a digest
+   */
+  public boolean isDigest() {
+    return sections_ != null;
+  }
+
+  /**
+   * Get the searches with posts in a digest.
+   * 
+   * @return list of sections, or null if this is not a digest
+   */
+  public List<Section> getSections() {
+    return sections_;
+  }
+
+  /**
+   * Add a search's results to a digest, leaving out posts which are already in
+   * it. The newest posts of each search come first. The caller must make sure
+   * that the digest is not being delivered.
+   * 
+   * @param search search which found the results
+   * @param results results, newest first
+   * @return number of posts added
+   */
+  public int addResults(Search search, List<Result> results) {
+    // Index the posts in the digest, once after it has been loaded
+    if (postIds_ == null) {
+      postIds_ = new HashSet<Long>();
+      for (Section section : sections_) {
+        for (Post post : section.posts_) {
+          postIds_.add(post.postId_);
+        }
+      }
+    }
+
+    // Keep the posts which are not in the digest yet, including any whose ID
+    // is not known
+    List<Post> posts = new ArrayList<Post>(results.size());
+    for (Result result : results) {
+      if (result.getPostId() == 0 || postIds_.add(result.getPostId())) {
+        posts.add(new Post(result));
+      }
+    }
+    if (posts.isEmpty()) {
+      return 0;
+    }
+
+    // Put them before the search's earlier posts, adding a section for the
+    // search if it has none
+    for (Section section : sections_) {
+      if (section.searchUUID_.equals(search.getUUID())) {
+        section.posts_.addAll(0, posts);
+        return posts.size();
+      }
+    }
+    sections_.add(new Section(search, posts));
+    return posts.size();
+  }
+
+  /**
+   * Get the number of failed delivery attempts.
+   * 
+   * @return number of attempts
+   */
+  public int getAttempts() {
+    return attempts_;
+  }
+
+  /**
+   * Record a failed delivery attempt, and schedule the next one.
+   * 
+   * @param retryDelayMillis delay before the next attempt in milliseconds
+   */
+  public void recordFailure(long retryDelayMillis) {
+    attempts_++;
+    nextAttemptMillis_ = System.currentTimeMillis() + retryDelayMillis;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public long getDelay(TimeUnit unit) {
+    return unit.convert(nextAttemptMillis_ - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public int compareTo(Delayed other) {
+    return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Post shown in an email.
+   */
+  public static final class Post {
+
+    /** Title **/
+    private final String title_;
+
+    /** Link to the post **/
+    private final String link_;
+
+    /** Craigslist post ID **/
+    private final long postId_;
+
+    /**
+     * Constructor for a post from a search result.
+     * 
+     * @param result search result
+     */
+    private Post(Result result) {
+      title_ = result.getTitle();
+      link_ = result.getLink();
+      postId_ = result.getPostId();
+    }
+
+    /**
+     * Get the title.
+     * 
+     * @return title
+     */
+    public String getTitle() {
+      return title_;
+    }
+
+    /**
+     * Get the link to the post.
+     * 
+     * @return link
+     */
+    public String getLink() {
+      return link_;
+    }
+
+    /**
+     * Get the Craigslist post ID.
+     * 
+     * @return post ID, or 0 if the link has none
+     */
+    public long getPostId() {
+      return postId_;
+    }
+
+  }
+
+  /**
+   * Posts of one search in a digest.
+   */
+  public static final class Section {
+
+    /** Name of the search **/
+    private final String name_;
+
+    /** UUID of the search, for the unsubscribe link **/
+    private final String searchUUID_;
+
+    /** Posts, newest first **/
+    private final List<Post> posts_;
+
+    /**
+     * Constructor for a section.
+     * 
+     * @param search search
+     * @param posts posts, newest first
+     */
+    private Section(Search search, List<Post> posts) {
+      name_ = search.getName();
+      searchUUID_ = search.getUUID();
+      posts_ = posts;
+    }
+
+    /**
+     * Get the name of the search.
+     * 
+     * @return name
+     */
+    public String getName() {
+      return name_;
+    }
+
+    /**
+     * Get the UUID of the search.
+     * 
+     * @return search UUID
+     */
+    public String getSearchUUID() {
+      return searchUUID_;
+    }
+
+    /**
+     * Get the posts.
+     * 
+     * @return list of posts, newest first
+     */
+    public List<Post> getPosts() {
+      return posts_;
+    }
+
+  }
+
+}
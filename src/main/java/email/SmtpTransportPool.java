@@ -0,0 +1,203 @@
+package email;
+
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import util.ConfigManager;
+
+/**
+ * Singleton class holding a pool of long-lived, authenticated SMTP connections,
+ * so that messages can be sent without a new handshake for each one.
+ */
+public class SmtpTransportPool {
+
+  /** Singleton instance **/
+  private static volatile SmtpTransportPool instance_;
+
+  /** Idle time after which a connection is checked before it is reused **/
+  private static final long HEALTH_CHECK_MILLIS = 30000;
+
+  /** Timeout for connecting to and reading from the SMTP server **/
+  private static final int TIMEOUT_MILLIS = 30000;
+
+  /** Mail session shared by all connections **/
+  private Session session_;
+
+  /** Username for the SMTP server **/
+  private String username_;
+
+  /** Password for the SMTP server **/
+  private String password_;
+
+  /** Idle connections, most recently used first **/
+  private Deque<PooledTransport> idle_;
+
+  /** Semaphore limiting the number of connections **/
+  private Semaphore permits_;
+
+  /**
+   * Post-construct method for initializing the singleton.
+   */
+  @PostConstruct
+  public void init() {
+    ConfigManager configManager = ConfigManager.getInstance();
+    username_ = configManager.getEmailUsername();
+    password_ = configManager.getEmailPassword();
+
+    // Create the properties for the session
+    Properties properties = new Properties();
+    properties.put("mail.smtp.auth", String.valueOf(configManager.isSmtpAuth()));
+    properties.put("mail.smtp.starttls.enable", String.valueOf(configManager.isSmtpStartTls()));
+    properties.put("mail.smtp.host", configManager.getSmtpHost());
+    properties.put("mail.smtp.port", String.valueOf(configManager.getSmtpPort()));
+    properties.put("mail.smtp.connectiontimeout", String.valueOf(TIMEOUT_MILLIS));
+    properties.put("mail.smtp.timeout", String.valueOf(TIMEOUT_MILLIS));
+    properties.put("mail.debug", "false");
+
+    // Create the session once, and the connections on demand
+    session_ = Session.getInstance(properties);
+    session_.setDebug(false);
+    idle_ = new ConcurrentLinkedDeque<PooledTransport>();
+    permits_ = new Semaphore(configManager.getSmtpConnections(), true);
+  }
+
+  /**
+   * Pre-destroy method for closing the idle connections.
+   */
+  @PreDestroy
+  public void shutdown() {
+    PooledTransport pooled;
+    while ((pooled = idle_.pollFirst()) != null) {
+      pooled.close();
+    }
+  }
+
+  /**
+   * Get the instance of the singleton.
+   *
+   * @return singleton instance
+   */
+  public static SmtpTransportPool getInstance() {
+    if (instance_ == null) {
+      synchronized (SmtpTransportPool.class) {
+        if (instance_ == null) {
+          SmtpTransportPool instance = new SmtpTransportPool();
+          instance.init();
+          instance_ = instance;
+        }
+      }
+    }
+    return instance_;
+  }
+
+  /**
+   * Get the mail session for creating messages.
+   *
+   * @return mail session
+   */
+  public Session getSession() {
+    return session_;
+  }
+
+  /**
+   * Send a message on a pooled connection, waiting for a connection if they are
+   * all in use. If sending fails, the connection is discarded and the message is
+   * sent once more on a new connection.
+   *
+   * @param message message
+   * @throws MessagingException if the message could not be sent
+   * @throws InterruptedException if interrupted while waiting for a connection
+   */
+  public void send(MimeMessage message) throws MessagingException, InterruptedException {
+    permits_.acquire();
+    try {
+      try {
+        sendOnPooledTransport(message, idle_.pollFirst());
+      } catch (MessagingException e) {
+        // Retry once on a new connection, in case the pooled one went stale
+        sendOnPooledTransport(message, null);
+      }
+    } finally {
+      permits_.release();
+    }
+  }
+
+  /**
+   * Send a message on a connection, returning the connection to the pool if it
+   * succeeds and closing it otherwise.
+   *
+   * @param message message
+   * @param pooled connection, or null to open a new one
+   * @throws MessagingException if the message could not be sent
+   */
+  private void sendOnPooledTransport(MimeMessage message, PooledTransport pooled) throws MessagingException {
+    if (pooled == null) {
+      pooled = new PooledTransport(session_.getTransport("smtp"));
+    }
+    try {
+      pooled.ensureConnected();
+      pooled.transport_.sendMessage(message, message.getAllRecipients());
+      pooled.lastUsedMillis_ = System.currentTimeMillis();
+      idle_.offerFirst(pooled);
+    } catch (MessagingException | RuntimeException e) {
+      pooled.close();
+      throw e;
+    }
+  }
+
+  /**
+   * A pooled SMTP connection.
+   */
+  private final class PooledTransport {
+
+    /** Transport for the connection **/
+    private final Transport transport_;
+
+    /** Time the connection was last used **/
+    private long lastUsedMillis_;
+
+    /**
+     * Constructor for a pooled connection.
+     *
+     * @param transport transport for the connection
+     */
+    private PooledTransport(Transport transport) {
+      transport_ = transport;
+    }
+
+    /**
+     * Connect and authenticate if the connection is not open, checking
+     * connections which have been idle for a while with a NOOP.
+     *
+     * @throws MessagingException if the connection cannot be opened
+     */
+    private void ensureConnected() throws MessagingException {
+      boolean isStale = System.currentTimeMillis() - lastUsedMillis_ > HEALTH_CHECK_MILLIS;
+      if (lastUsedMillis_ == 0 || (isStale && !transport_.isConnected())) {
+        close();
+        transport_.connect(username_, password_);
+      }
+    }
+
+    /**
+     * Close the connection, ignoring errors.
+     */
+    private void close() {
+      try {
+        transport_.close();
+      } catch (MessagingException e) {
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,103 @@
+package email;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Email template, compiled once into static UTF-8 segments with slots between
+ * them. Rendering copies the static segments as they are and only encodes the
+ * slot values, escaping them for HTML in HTML templates. Slots are written as
+ * ${name} in the source.
+ */
+final class Template {
+
+  /** Static text before each slot, and after the last one, as UTF-8 **/
+  private final byte[][] segments_;
+
+  /** Index of the value filling each slot **/
+  private final int[] slots_;
+
+  /** Whether slot values are escaped for HTML **/
+  private final boolean html_;
+
+  /** Total length of the static text in bytes **/
+  private final int staticLength_;
+
+  /**
+   * Constructor for a compiled template.
+   *
+   * @param segments static text around the slots as UTF-8
+   * @param slots index of the value filling each slot
+   * @param html whether slot values are escaped for HTML
+   */
+  private Template(byte[][] segments, int[] slots, boolean html) {
+    segments_ = segments;
+    slots_ = slots;
+    html_ = html;
+    int staticLength = 0;
+    for (byte[] segment : segments) {
+      staticLength += segment.length;
+    }
+    staticLength_ = staticLength;
+  }
+
+  /**
+   * Compile a template.
+   *
+   * @param source template text, with slots written as ${name}
+   * @param html whether slot values are escaped for HTML
+   * @param names names of the slots, in the order their values are given
+   * @return compiled template
+   * @throws IllegalArgumentException if the source has an unknown or unclosed
+   *           slot
+   */
+  static Template compile(String source, boolean html, String... names) {
+    List<byte[]> segments = new ArrayList<byte[]>();
+    List<Integer> slots = new ArrayList<Integer>();
+    int start = 0;
+    int slotStart;
+    while ((slotStart = source.indexOf("${", start)) >= 0) {
+      // Look up the slot's value by name
+      int slotEnd = source.indexOf('}', slotStart);
+      if (slotEnd < 0) {
+        throw new IllegalArgumentException("Unclosed slot in template: " + source);
+      }
+      int slot = Arrays.asList(names).indexOf(source.substring(slotStart + 2, slotEnd));
+      if (slot < 0) {
+        throw new IllegalArgumentException("Unknown slot " + source.substring(slotStart, slotEnd + 1) + " in template: " + source);
+      }
+      segments.add(source.substring(start, slotStart).getBytes(StandardCharsets.UTF_8));
+      slots.add(slot);
+      start = slotEnd + 1;
+    }
+    segments.add(source.substring(start).getBytes(StandardCharsets.UTF_8));
+    return new Template(segments.toArray(new byte[segments.size()][]), slots.stream().mapToInt(Integer::intValue).toArray(), html);
+  }
+
+  /**
+   * Render the template at the end of a buffer.
+   *
+   * @param buffer buffer to render into
+   * @param values slot values, in the order of the names the template was
+   *          compiled with
+   */
+  void render(TemplateBuffer buffer, String... values) {
+    for (int i = 0; i < slots_.length; i++) {
+      buffer.write(segments_[i]);
+      buffer.writeValue(values[slots_[i]], html_);
+    }
+    buffer.write(segments_[slots_.length]);
+  }
+
+  /**
+   * Get the length of the static text, for sizing buffers.
+   *
+   * @return length in bytes
+   */
+  int getStaticLength() {
+    return staticLength_;
+  }
+
+}
@@ -0,0 +1,156 @@
+package email;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.activation.DataSource;
+
+/**
+ * Buffer which templates render into, encoding values as UTF-8 as they are
+ * written. The buffer is the data source of a MIME body part, so the rendered
+ * bytes are encoded for the SMTP server without being copied into a string.
+ */
+final class TemplateBuffer implements DataSource {
+
+  /** HTML entities for the characters which are escaped, indexed by character **/
+  private static final byte[][] ENTITIES = new byte[128][];
+
+  static {
+    ENTITIES['&'] = "&amp;".getBytes(StandardCharsets.US_ASCII);
+    ENTITIES['<'] = "&lt;".getBytes(StandardCharsets.US_ASCII);
+    ENTITIES['>'] = "&gt;".getBytes(StandardCharsets.US_ASCII);
+    ENTITIES['"'] = "&quot;".getBytes(StandardCharsets.US_ASCII);
+    ENTITIES['\''] = "&#39;".getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /** Longest encoding of one character in bytes, including HTML entities **/
+  private static final int MAX_CHAR_BYTES = 6;
+
+  /** MIME type of the content **/
+  private final String contentType_;
+
+  /** Rendered bytes **/
+  private byte[] bytes_;
+
+  /** Number of rendered bytes **/
+  private int length_;
+
+  /**
+   * Constructor for a template buffer.
+   *
+   * @param capacity expected length of the content in bytes
+   * @param contentType MIME type of the content, with its charset
+   */
+  TemplateBuffer(int capacity, String contentType) {
+    bytes_ = new byte[capacity];
+    contentType_ = contentType;
+  }
+
+  /**
+   * Append static bytes.
+   *
+   * @param bytes bytes
+   */
+  void write(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, bytes_, length_, bytes.length);
+    length_ += bytes.length;
+  }
+
+  /**
+   * Append a value as UTF-8, optionally escaping it for HTML. A null value is
+   * written as "null", as string concatenation would.
+   *
+   * @param value value
+   * @param html whether to escape HTML special characters
+   */
+  void writeValue(String value, boolean html) {
+    if (value == null) {
+      value = "null";
+    }
+    for (int i = 0; i < value.length(); i++) {
+      ensureCapacity(MAX_CHAR_BYTES);
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        // Write ASCII directly, unless it has to be escaped
+        byte[] entity = html ? ENTITIES[c] : null;
+        if (entity == null) {
+          bytes_[length_++] = (byte) c;
+        } else {
+          System.arraycopy(entity, 0, bytes_, length_, entity.length);
+          length_ += entity.length;
+        }
+      } else if (c < 0x800) {
+        bytes_[length_++] = (byte) (0xc0 | c >> 6);
+        bytes_[length_++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        bytes_[length_++] = (byte) (0xf0 | codePoint >> 18);
+        bytes_[length_++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+        bytes_[length_++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+        bytes_[length_++] = (byte) (0x80 | codePoint & 0x3f);
+      } else if (Character.isSurrogate(c)) {
+        // Replace unpaired surrogates, as the UTF-8 encoder does
+        bytes_[length_++] = '?';
+      } else {
+        bytes_[length_++] = (byte) (0xe0 | c >> 12);
+        bytes_[length_++] = (byte) (0x80 | c >> 6 & 0x3f);
+        bytes_[length_++] = (byte) (0x80 | c & 0x3f);
+      }
+    }
+  }
+
+  /**
+   * Make room for more bytes, growing the buffer if the expected length was
+   * too small.
+   *
+   * @param needed number of bytes about to be written
+   */
+  private void ensureCapacity(int needed) {
+    if (length_ + needed > bytes_.length) {
+      bytes_ = Arrays.copyOf(bytes_, Math.max(bytes_.length * 2, length_ + needed));
+    }
+  }
+
+  /**
+   * Get the number of rendered bytes.
+   *
+   * @return length in bytes
+   */
+  int length() {
+    return length_;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public InputStream getInputStream() {
+    return new ByteArrayInputStream(bytes_, 0, length_);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public OutputStream getOutputStream() throws IOException {
+    throw new IOException("Template buffers are written by rendering.");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getContentType() {
+    return contentType_;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getName() {
+    return null;
+  }
+
+}
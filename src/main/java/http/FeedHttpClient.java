@@ -0,0 +1,148 @@
+package http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.reactor.IOReactorException;
+
+import util.ConfigManager;
+
+/**
+ * Singleton class for fetching feeds without blocking a thread per request. A
+ * small number of I/O threads multiplex all requests, connections are kept
+ * alive and reused per host, and every request is bounded by connect and read
+ * timeouts and a response size limit.
+ */
+public class FeedHttpClient {
+
+  /** Singleton instance **/
+  private static volatile FeedHttpClient instance_;
+
+  /** Maximum number of pooled connections to a single host **/
+  private static final int MAX_CONNECTIONS_PER_HOST = 20;
+
+  /** Asynchronous HTTP client **/
+  private CloseableHttpAsyncClient client_;
+
+  /** Maximum number of response body bytes **/
+  private int maxResponseBytes_;
+
+  /**
+   * Post-construct method for initializing the singleton.
+   */
+  @PostConstruct
+  public void init() {
+    ConfigManager configManager = ConfigManager.getInstance();
+    int connectTimeoutMillis = configManager.getHttpConnectTimeoutSeconds() * 1000;
+    int readTimeoutMillis = configManager.getHttpReadTimeoutSeconds() * 1000;
+    maxResponseBytes_ = configManager.getHttpMaxResponseKilobytes() * 1024;
+
+    // Create the I/O reactor and the connection pool
+    IOReactorConfig reactorConfig = IOReactorConfig.custom()
+        .setIoThreadCount(configManager.getHttpIoThreads())
+        .setConnectTimeout(connectTimeoutMillis)
+        .setSoTimeout(readTimeoutMillis)
+        .build();
+    PoolingNHttpClientConnectionManager connectionManager;
+    try {
+      connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+    } catch (IOReactorException e) {
+      throw new RuntimeException(e);
+    }
+    connectionManager.setMaxTotal(configManager.getHttpMaxConnections());
+    connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+
+    // Create and start the client
+    RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(connectTimeoutMillis)
+        .setSocketTimeout(readTimeoutMillis)
+        .setConnectionRequestTimeout(readTimeoutMillis)
+        .build();
+    client_ = HttpAsyncClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .build();
+    client_.start();
+  }
+
+  /**
+   * Pre-destroy method for closing the client and its connections.
+   */
+  @PreDestroy
+  public void shutdown() {
+    try {
+      client_.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Get the instance of the singleton.
+   *
+   * @return singleton instance
+   */
+  public static FeedHttpClient getInstance() {
+    if (instance_ == null) {
+      synchronized (FeedHttpClient.class) {
+        if (instance_ == null) {
+          FeedHttpClient instance = new FeedHttpClient();
+          instance.init();
+          instance_ = instance;
+        }
+      }
+    }
+    return instance_;
+  }
+
+  /**
+   * Send a GET request, asking for a gzip-compressed response. The returned
+   * future is completed on an I/O thread, so parsing should be run on another
+   * executor.
+   *
+   * @param uri request URI
+   * @param headers additional request headers
+   * @return future response, completed exceptionally if the request fails, times
+   *         out or exceeds the size limit
+   */
+  public CompletableFuture<FeedResponse> get(URI uri, Map<String, String> headers) {
+    // Create the request
+    HttpGet request = new HttpGet(uri);
+    request.setHeader("Accept-Encoding", "gzip");
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      request.setHeader(header.getKey(), header.getValue());
+    }
+
+    // Send the request, completing the future from the callback
+    CompletableFuture<FeedResponse> future = new CompletableFuture<FeedResponse>();
+    client_.execute(HttpAsyncMethods.create(request), new LimitedResponseConsumer(maxResponseBytes_), new FutureCallback<FeedResponse>() {
+      public void completed(FeedResponse response) {
+        future.complete(response);
+      }
+
+      public void failed(Exception e) {
+        future.completeExceptionally(e);
+      }
+
+      public void cancelled() {
+        future.cancel(false);
+      }
+    });
+    return future;
+  }
+
+}
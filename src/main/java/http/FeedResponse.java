@@ -0,0 +1,177 @@
+package http;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Class representing a buffered response to a feed request.
+ */
+public final class FeedResponse {
+
+  /** HTTP status code **/
+  private final int status_;
+
+  /** Value of the ETag header, or null **/
+  private final String entityTag_;
+
+  /** Value of the Last-Modified header, or null **/
+  private final String lastModified_;
+
+  /** Value of the Content-Encoding header, or null **/
+  private final String contentEncoding_;
+
+  /** Response body as received, possibly compressed **/
+  private final byte[] body_;
+
+  /** Number of bytes of the body **/
+  private final int bodyLength_;
+
+  /** Maximum number of bytes of the body once decompressed **/
+  private final int maxBytes_;
+
+  /**
+   * Constructor for a feed response.
+   * 
+   * @param status HTTP status code
+   * @param entityTag value of the ETag header, or null
+   * @param lastModified value of the Last-Modified header, or null
+   * @param contentEncoding value of the Content-Encoding header, or null
+   * @param body response body as received
+   * @param bodyLength number of bytes of the body
+   * @param maxBytes maximum number of bytes of the body once decompressed
+   */
+  public FeedResponse(int status, String entityTag, String lastModified, String contentEncoding, byte[] body, int bodyLength, int maxBytes) {
+    status_ = status;
+    entityTag_ = entityTag;
+    lastModified_ = lastModified;
+    contentEncoding_ = contentEncoding;
+    body_ = body;
+    bodyLength_ = bodyLength;
+    maxBytes_ = maxBytes;
+  }
+
+  /**
+   * Get the HTTP status code.
+   * 
+   * @return status code
+   */
+  public int getStatus() {
+    return status_;
+  }
+
+  /**
+   * Get the value of the ETag header.
+   * 
+   * @return entity tag, or null
+   */
+  public String getEntityTag() {
+    return entityTag_;
+  }
+
+  /**
+   * Get the value of the Last-Modified header.
+   * 
+   * @return last modified date string, or null
+   */
+  public String getLastModified() {
+    return lastModified_;
+  }
+
+  /**
+   * Get the number of bytes received for the body.
+   * 
+   * @return body length
+   */
+  public int getBodyLength() {
+    return bodyLength_;
+  }
+
+  /**
+   * Get a stream of the body, decompressing it while it is read if the server
+   * used gzip. The decompressed body is held to the same size limit as the
+   * body received.
+   * 
+   * @return body input stream
+   * @throws IOException if the compressed body is malformed
+   */
+  public InputStream getBody() throws IOException {
+    InputStream input = new ByteArrayInputStream(body_, 0, bodyLength_);
+    if (contentEncoding_ != null && contentEncoding_.toLowerCase().contains("gzip")) {
+      return new LimitedInputStream(new GZIPInputStream(input), maxBytes_);
+    }
+    return input;
+  }
+
+  /**
+   * Input stream which fails once more than a maximum number of bytes have
+   * been read from it.
+   */
+  private static final class LimitedInputStream extends FilterInputStream {
+
+    /** Maximum number of bytes **/
+    private final int maxBytes_;
+
+    /** Number of bytes read so far **/
+    private long bytesRead_;
+
+    /**
+     * Constructor for a limited input stream.
+     * 
+     * @param input stream to read from
+     * @param maxBytes maximum number of bytes
+     */
+    private LimitedInputStream(InputStream input, int maxBytes) {
+      super(input);
+      maxBytes_ = maxBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count(1);
+      }
+      return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int n = super.read(bytes, offset, length);
+      if (n > 0) {
+        count(n);
+      }
+      return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    /**
+     * Add to the number of bytes read, failing if it passes the limit.
+     * 
+     * @param n number of bytes just read
+     * @throws IOException if the limit has been passed
+     */
+    private void count(long n) throws IOException {
+      bytesRead_ += n;
+      if (bytesRead_ > maxBytes_) {
+        throw new IOException("Decompressed response body exceeds the limit of " + maxBytes_ + " bytes.");
+      }
+    }
+
+  }
+
+}
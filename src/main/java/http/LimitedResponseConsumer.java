@@ -0,0 +1,116 @@
+package http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Response consumer which buffers the body as it arrives, and aborts the
+ * exchange once the body grows past a size limit. The limit also applies to
+ * the body once decompressed, when it is read from the response.
+ */
+final class LimitedResponseConsumer extends AbstractAsyncResponseConsumer<FeedResponse> {
+
+  /** Initial size of the body buffer when the length is not known **/
+  private static final int INITIAL_BUFFER_SIZE = 16384;
+
+  /** Maximum number of body bytes **/
+  private final int maxBytes_;
+
+  /** Buffer for reading from the decoder **/
+  private final ByteBuffer readBuffer_ = ByteBuffer.allocate(8192);
+
+  /** Response head **/
+  private HttpResponse response_;
+
+  /** Body received so far **/
+  private byte[] body_ = new byte[0];
+
+  /** Number of body bytes received so far **/
+  private int bodyLength_;
+
+  /**
+   * Constructor for a limited response consumer.
+   * 
+   * @param maxBytes maximum number of body bytes
+   */
+  LimitedResponseConsumer(int maxBytes) {
+    maxBytes_ = maxBytes;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  protected void onResponseReceived(HttpResponse response) {
+    response_ = response;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+    // Reject oversized bodies up front when the length is known
+    long contentLength = entity.getContentLength();
+    if (contentLength > maxBytes_) {
+      throw new IOException("Response body of " + contentLength + " bytes exceeds the limit of " + maxBytes_ + " bytes.");
+    }
+    body_ = new byte[contentLength >= 0 ? (int) contentLength : Math.min(INITIAL_BUFFER_SIZE, maxBytes_)];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+    int bytesRead;
+    while ((bytesRead = decoder.read(readBuffer_)) > 0) {
+      // Grow the buffer if needed, up to the limit
+      if (bodyLength_ + bytesRead > maxBytes_) {
+        throw new IOException("Response body exceeds the limit of " + maxBytes_ + " bytes.");
+      }
+      if (bodyLength_ + bytesRead > body_.length) {
+        body_ = Arrays.copyOf(body_, Math.min(maxBytes_, Math.max(body_.length * 2, bodyLength_ + bytesRead)));
+      }
+
+      // Copy the bytes into the body
+      readBuffer_.flip();
+      readBuffer_.get(body_, bodyLength_, bytesRead);
+      readBuffer_.clear();
+      bodyLength_ += bytesRead;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  protected FeedResponse buildResult(HttpContext context) {
+    return new FeedResponse(response_.getStatusLine().getStatusCode(), getHeader("ETag"), getHeader("Last-Modified"), getHeader("Content-Encoding"), body_, bodyLength_, maxBytes_);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  protected void releaseResources() {
+    readBuffer_.clear();
+  }
+
+  /**
+   * Get the value of a response header.
+   * 
+   * @param name header name
+   * @return header value, or null if the header is missing
+   */
+  private String getHeader(String name) {
+    Header header = response_.getFirstHeader(name);
+    return header == null ? null : header.getValue();
+  }
+
+}
@@ -0,0 +1,73 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free counter which can only increase.
+ */
+public final class Counter {
+
+  /** Name of the counter **/
+  private final String name_;
+
+  /** Description of the counter **/
+  private final String help_;
+
+  /** Current count **/
+  private final LongAdder count_ = new LongAdder();
+
+  /**
+   * Constructor for a counter.
+   * 
+   * @param name name of the counter
+   * @param help description of the counter
+   */
+  Counter(String name, String help) {
+    name_ = name;
+    help_ = help;
+  }
+
+  /**
+   * Increment the counter by one.
+   */
+  public void increment() {
+    count_.increment();
+  }
+
+  /**
+   * Increment the counter by an amount.
+   * 
+   * @param amount amount to add
+   */
+  public void add(long amount) {
+    count_.add(amount);
+  }
+
+  /**
+   * Get the current count.
+   * 
+   * @return count
+   */
+  public long get() {
+    return count_.sum();
+  }
+
+  /**
+   * Get the name of the counter.
+   * 
+   * @return name
+   */
+  public String getName() {
+    return name_;
+  }
+
+  /**
+   * Get the description of the counter.
+   * 
+   * @return description
+   */
+  public String getHelp() {
+    return help_;
+  }
+
+}
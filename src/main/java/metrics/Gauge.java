@@ -0,0 +1,59 @@
+package metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Gauge which reads its current value on demand.
+ */
+public final class Gauge {
+
+  /** Name of the gauge **/
+  private final String name_;
+
+  /** Description of the gauge **/
+  private final String help_;
+
+  /** Supplier of the current value **/
+  private final LongSupplier supplier_;
+
+  /**
+   * Constructor for a gauge.
+   * 
+   * @param name name of the gauge
+   * @param help description of the gauge
+   * @param supplier supplier of the current value
+   */
+  Gauge(String name, String help, LongSupplier supplier) {
+    name_ = name;
+    help_ = help;
+    supplier_ = supplier;
+  }
+
+  /**
+   * Get the current value.
+   * 
+   * @return value
+   */
+  public long get() {
+    return supplier_.getAsLong();
+  }
+
+  /**
+   * Get the name of the gauge.
+   * 
+   * @return name
+   */
+  public String getName() {
+    return name_;
+  }
+
+  /**
+   * Get the description of the gauge.
+   * 
+   * @return description
+   */
+  public String getHelp() {
+    return help_;
+  }
+
+}
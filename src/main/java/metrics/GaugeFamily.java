@@ -0,0 +1,75 @@
+package metrics;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Family of gauges which share a name and differ by the value of one label,
+ * such as one gauge per feed. The labels and values are read on demand.
+ */
+public final class GaugeFamily {
+
+  /** Name of the gauges **/
+  private final String name_;
+
+  /** Description of the gauges **/
+  private final String help_;
+
+  /** Name of the label which tells the gauges apart **/
+  private final String labelName_;
+
+  /** Supplier of the current values, organized by label value **/
+  private final Supplier<Map<String, Double>> supplier_;
+
+  /**
+   * Constructor for a gauge family.
+   * 
+   * @param name name of the gauges
+   * @param help description of the gauges
+   * @param labelName name of the label which tells the gauges apart
+   * @param supplier supplier of the current values, organized by label value
+   */
+  GaugeFamily(String name, String help, String labelName, Supplier<Map<String, Double>> supplier) {
+    name_ = name;
+    help_ = help;
+    labelName_ = labelName;
+    supplier_ = supplier;
+  }
+
+  /**
+   * Get the current values.
+   * 
+   * @return values, organized by label value
+   */
+  public Map<String, Double> get() {
+    return supplier_.get();
+  }
+
+  /**
+   * Get the name of the gauges.
+   * 
+   * @return name
+   */
+  public String getName() {
+    return name_;
+  }
+
+  /**
+   * Get the description of the gauges.
+   * 
+   * @return description
+   */
+  public String getHelp() {
+    return help_;
+  }
+
+  /**
+   * Get the name of the label which tells the gauges apart.
+   * 
+   * @return label name
+   */
+  public String getLabelName() {
+    return labelName_;
+  }
+
+}
@@ -0,0 +1,197 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with logarithmic buckets, in the style of an HDR
+ * histogram. Each power of two is split into eight linear sub-buckets, so any
+ * recorded value is reported with a relative error of at most 12.5%.
+ */
+public final class Histogram {
+
+  /** Number of bits used for the sub-buckets within a power of two **/
+  private static final int SUB_BUCKET_BITS = 3;
+
+  /** Number of sub-buckets within a power of two **/
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /** Total number of buckets, enough for any non-negative long **/
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  /** Name of the histogram **/
+  private final String name_;
+
+  /** Description of the histogram **/
+  private final String help_;
+
+  /** Size of one recorded unit in seconds, used when exporting **/
+  private final double unitSeconds_;
+
+  /** Count of values in each bucket **/
+  private final AtomicLongArray buckets_ = new AtomicLongArray(BUCKET_COUNT);
+
+  /** Number of recorded values **/
+  private final LongAdder count_ = new LongAdder();
+
+  /** Sum of recorded values **/
+  private final LongAdder sum_ = new LongAdder();
+
+  /**
+   * Constructor for a histogram.
+   * 
+   * @param name name of the histogram
+   * @param help description of the histogram
+   * @param unitSeconds size of one recorded unit in seconds
+   */
+  Histogram(String name, String help, double unitSeconds) {
+    name_ = name;
+    help_ = help;
+    unitSeconds_ = unitSeconds;
+  }
+
+  /**
+   * Record a value. Negative values are recorded as zero.
+   * 
+   * @param value value in recorded units
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets_.incrementAndGet(getBucketIndex(value));
+    count_.increment();
+    sum_.add(value);
+  }
+
+  /**
+   * Get the number of recorded values.
+   * 
+   * @return count
+   */
+  public long getCount() {
+    return count_.sum();
+  }
+
+  /**
+   * Get the sum of recorded values.
+   * 
+   * @return sum in recorded units
+   */
+  public long getSum() {
+    return sum_.sum();
+  }
+
+  /**
+   * Get the mean of the recorded values.
+   * 
+   * @return mean in recorded units, or 0 if nothing was recorded
+   */
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) getSum() / count;
+  }
+
+  /**
+   * Get an approximate percentile of the recorded values.
+   * 
+   * @param percentile percentile between 0 and 100
+   * @return upper bound of the bucket containing the percentile, or 0 if
+   *         nothing was recorded
+   */
+  public long getPercentile(double percentile) {
+    long count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+
+    // Walk the buckets until the requested rank is reached
+    long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets_.get(i);
+      if (seen >= rank) {
+        return getBucketUpperBound(i);
+      }
+    }
+    return getBucketUpperBound(BUCKET_COUNT - 1);
+  }
+
+  /**
+   * Get the number of buckets.
+   * 
+   * @return number of buckets
+   */
+  public int getBucketCount() {
+    return BUCKET_COUNT;
+  }
+
+  /**
+   * Get the number of values recorded in a bucket.
+   * 
+   * @param index bucket index
+   * @return count
+   */
+  public long getBucketValue(int index) {
+    return buckets_.get(index);
+  }
+
+  /**
+   * Get the largest value which is recorded in a bucket.
+   * 
+   * @param index bucket index
+   * @return upper bound in recorded units
+   */
+  public static long getBucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+    long subBucket = index % SUB_BUCKET_COUNT;
+    long lowerBound = (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * Get the bucket index for a value.
+   * 
+   * @param value non-negative value
+   * @return bucket index
+   */
+  static int getBucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * Get the name of the histogram.
+   * 
+   * @return name
+   */
+  public String getName() {
+    return name_;
+  }
+
+  /**
+   * Get the description of the histogram.
+   * 
+   * @return description
+   */
+  public String getHelp() {
+    return help_;
+  }
+
+  /**
+   * Get the size of one recorded unit in seconds.
+   * 
+   * @return unit size in seconds
+   */
+  public double getUnitSeconds() {
+    return unitSeconds_;
+  }
+
+}
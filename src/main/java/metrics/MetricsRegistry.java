@@ -0,0 +1,150 @@
+package metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Singleton class for registering and looking up metrics by name.
+ */
+public class MetricsRegistry {
+
+  /** Singleton instance **/
+  private static volatile MetricsRegistry instance_;
+
+  /** Map of counters, organized by name **/
+  private Map<String, Counter> counters_;
+
+  /** Map of histograms, organized by name **/
+  private Map<String, Histogram> histograms_;
+
+  /** Map of gauges, organized by name **/
+  private Map<String, Gauge> gauges_;
+
+  /** Map of gauge families, organized by name **/
+  private Map<String, GaugeFamily> gaugeFamilies_;
+
+  /**
+   * Post-construct method for initializing the singleton.
+   */
+  @PostConstruct
+  public void init() {
+    counters_ = new ConcurrentSkipListMap<String, Counter>();
+    histograms_ = new ConcurrentSkipListMap<String, Histogram>();
+    gauges_ = new ConcurrentSkipListMap<String, Gauge>();
+    gaugeFamilies_ = new ConcurrentSkipListMap<String, GaugeFamily>();
+  }
+
+  /**
+   * Get the instance of the singleton.
+   * 
+   * @return singleton instance
+   */
+  public static MetricsRegistry getInstance() {
+    if (instance_ == null) {
+      synchronized (MetricsRegistry.class) {
+        if (instance_ == null) {
+          MetricsRegistry instance = new MetricsRegistry();
+          instance.init();
+          instance_ = instance;
+        }
+      }
+    }
+    return instance_;
+  }
+
+  /**
+   * Get a counter, creating it if it does not exist yet. Callers should keep the
+   * returned counter rather than looking it up on every update.
+   * 
+   * @param name name of the counter
+   * @param help description of the counter
+   * @return counter
+   */
+  public Counter counter(String name, String help) {
+    return counters_.computeIfAbsent(name, key -> new Counter(name, help));
+  }
+
+  /**
+   * Get a histogram, creating it if it does not exist yet.
+   * 
+   * @param name name of the histogram
+   * @param help description of the histogram
+   * @param unitSeconds size of one recorded unit in seconds, e.g. 1e-6 for
+   *          values recorded in microseconds
+   * @return histogram
+   */
+  public Histogram histogram(String name, String help, double unitSeconds) {
+    return histograms_.computeIfAbsent(name, key -> new Histogram(name, help, unitSeconds));
+  }
+
+  /**
+   * Register a gauge, replacing any existing gauge with the same name.
+   * 
+   * @param name name of the gauge
+   * @param help description of the gauge
+   * @param supplier supplier of the current value
+   * @return gauge
+   */
+  public Gauge gauge(String name, String help, LongSupplier supplier) {
+    Gauge gauge = new Gauge(name, help, supplier);
+    gauges_.put(name, gauge);
+    return gauge;
+  }
+
+  /**
+   * Register a gauge family, replacing any existing family with the same name.
+   * 
+   * @param name name of the gauges
+   * @param help description of the gauges
+   * @param labelName name of the label which tells the gauges apart
+   * @param supplier supplier of the current values, organized by label value
+   * @return gauge family
+   */
+  public GaugeFamily gaugeFamily(String name, String help, String labelName, Supplier<Map<String, Double>> supplier) {
+    GaugeFamily family = new GaugeFamily(name, help, labelName, supplier);
+    gaugeFamilies_.put(name, family);
+    return family;
+  }
+
+  /**
+   * Get all registered counters, ordered by name.
+   * 
+   * @return counters
+   */
+  public Collection<Counter> getCounters() {
+    return counters_.values();
+  }
+
+  /**
+   * Get all registered histograms, ordered by name.
+   * 
+   * @return histograms
+   */
+  public Collection<Histogram> getHistograms() {
+    return histograms_.values();
+  }
+
+  /**
+   * Get all registered gauges, ordered by name.
+   * 
+   * @return gauges
+   */
+  public Collection<Gauge> getGauges() {
+    return gauges_.values();
+  }
+
+  /**
+   * Get all registered gauge families, ordered by name.
+   * 
+   * @return gauge families
+   */
+  public Collection<GaugeFamily> getGaugeFamilies() {
+    return gaugeFamilies_.values();
+  }
+
+}
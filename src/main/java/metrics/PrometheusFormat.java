@@ -0,0 +1,142 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Class for writing the metrics of a registry in the Prometheus text
+ * exposition format. Histograms are written with one cumulative bucket per
+ * bucket which has recorded values, since most of their buckets are empty.
+ */
+public final class PrometheusFormat {
+
+  /** Content type of the format **/
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /**
+   * Private constructor, since the class only has static methods.
+   */
+  private PrometheusFormat() {
+  }
+
+  /**
+   * Write all metrics of a registry.
+   * 
+   * @param registry metrics registry
+   * @param writer destination of the text
+   * @throws IOException if the text cannot be written
+   */
+  public static void write(MetricsRegistry registry, Writer writer) throws IOException {
+    // Write the counters
+    for (Counter counter : registry.getCounters()) {
+      writeHeader(writer, counter.getName(), counter.getHelp(), "counter");
+      writer.write(counter.getName() + " " + counter.get() + "\n");
+    }
+
+    // Write the gauges
+    for (Gauge gauge : registry.getGauges()) {
+      writeHeader(writer, gauge.getName(), gauge.getHelp(), "gauge");
+      writer.write(gauge.getName() + " " + gauge.get() + "\n");
+    }
+    for (GaugeFamily family : registry.getGaugeFamilies()) {
+      writeHeader(writer, family.getName(), family.getHelp(), "gauge");
+      for (Map.Entry<String, Double> entry : family.get().entrySet()) {
+        writer.write(family.getName() + "{" + family.getLabelName() + "=\"" + escapeLabelValue(entry.getKey()) + "\"} " + formatDouble(entry.getValue()) + "\n");
+      }
+    }
+
+    // Write the histograms
+    for (Histogram histogram : registry.getHistograms()) {
+      writeHistogram(writer, histogram);
+    }
+  }
+
+  /**
+   * Write a histogram, converting its values to seconds.
+   * 
+   * @param writer destination of the text
+   * @param histogram histogram
+   * @throws IOException if the text cannot be written
+   */
+  private static void writeHistogram(Writer writer, Histogram histogram) throws IOException {
+    String name = histogram.getName();
+    double unitSeconds = histogram.getUnitSeconds();
+    writeHeader(writer, name, histogram.getHelp(), "histogram");
+
+    // Write the cumulative counts, skipping empty buckets. Values are whole
+    // units, so a bucket holds exactly the values up to its upper bound.
+    long cumulative = 0;
+    for (int i = 0; i < histogram.getBucketCount(); i++) {
+      long value = histogram.getBucketValue(i);
+      if (value == 0) {
+        continue;
+      }
+      cumulative += value;
+      double upperBound = toSeconds(Histogram.getBucketUpperBound(i), unitSeconds);
+      writer.write(name + "_bucket{le=\"" + formatDouble(upperBound) + "\"} " + cumulative + "\n");
+    }
+
+    // The count is read last, so that it is never below the bucket total
+    long count = Math.max(cumulative, histogram.getCount());
+    writer.write(name + "_bucket{le=\"+Inf\"} " + count + "\n");
+    writer.write(name + "_sum " + formatDouble(toSeconds(histogram.getSum(), unitSeconds)) + "\n");
+    writer.write(name + "_count " + count + "\n");
+  }
+
+  /**
+   * Convert a value in recorded units to seconds. Units smaller than a second
+   * are divided out, so that e.g. 5 microseconds is written as 5.0E-6 rather
+   * than with rounding noise.
+   * 
+   * @param value value in recorded units
+   * @param unitSeconds size of one recorded unit in seconds
+   * @return value in seconds
+   */
+  private static double toSeconds(long value, double unitSeconds) {
+    if (unitSeconds < 1) {
+      return value / Math.rint(1 / unitSeconds);
+    }
+    return value * unitSeconds;
+  }
+
+  /**
+   * Write the help and type lines of a metric.
+   * 
+   * @param writer destination of the text
+   * @param name name of the metric
+   * @param help description of the metric
+   * @param type type of the metric
+   * @throws IOException if the text cannot be written
+   */
+  private static void writeHeader(Writer writer, String name, String help, String type) throws IOException {
+    writer.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+    writer.write("# TYPE " + name + " " + type + "\n");
+  }
+
+  /**
+   * Escape a label value.
+   * 
+   * @param value label value
+   * @return escaped value
+   */
+  private static String escapeLabelValue(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Format a floating point value.
+   * 
+   * @param value value
+   * @return formatted value
+   */
+  private static String formatDouble(double value) {
+    if (Double.isNaN(value)) {
+      return "NaN";
+    } else if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    return Double.toString(value);
+  }
+
+}
@@ -4,8 +4,13 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
+import craigslist.FeedCoalescer;
 import craigslist.RateLimiter;
 import craigslist.SearchManager;
+import email.Outbox;
+import email.SmtpTransportPool;
+import http.FeedHttpClient;
+import store.SearchStore;
 import util.ConfigManager;
 
 /**
@@ -19,7 +24,9 @@ public class LifecycleListener implements ServletContextListener {
    * {@inheritDoc}
    */
   public void contextInitialized(ServletContextEvent servletContextEvent) {
-    // Initialize all the singleton classes
+    // Initialize all the singleton classes, starting the outbox before any
+    // searches queue emails
+    Outbox.getInstance();
     SearchManager.getInstance();
     RateLimiter.getInstance();
     ConfigManager configManager = ConfigManager.getInstance();
@@ -30,8 +37,15 @@ public class LifecycleListener implements ServletContextListener {
    * {@inheritDoc}
    */
   public void contextDestroyed(ServletContextEvent servletContextEvent) {
-    // Shut down the search manager
+    // Shut down the search manager, the search store, the seen posts, the rate
+    // limiter, the outbox and the connections
     SearchManager.getInstance().shutdown();
+    SearchStore.getInstance().close();
+    FeedCoalescer.getInstance().shutdown();
+    RateLimiter.getInstance().shutdown();
+    Outbox.getInstance().shutdown();
+    FeedHttpClient.getInstance().shutdown();
+    SmtpTransportPool.getInstance().shutdown();
   }
 
 }
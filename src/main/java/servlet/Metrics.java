@@ -0,0 +1,76 @@
+package servlet;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import metrics.MetricsRegistry;
+import metrics.PrometheusFormat;
+import util.ConfigManager;
+
+/**
+ * Servlet for exposing the metrics in the Prometheus text format. If a metrics
+ * token is configured, scrapers must send it as a bearer token; otherwise only
+ * requests from the server itself are answered.
+ */
+@WebServlet("/metrics")
+public class Metrics extends HttpServlet {
+  private static final long serialVersionUID = 1L;
+
+  /** Prefix of the authorization header value which carries the token **/
+  private static final String BEARER_PREFIX = "Bearer ";
+
+  /**
+   * {@inheritDoc}
+   */
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    // Refuse scrapers which are not allowed to read the metrics
+    if (!isAllowed(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    // Never let the metrics be cached, since they change on every scrape
+    response.setContentType(PrometheusFormat.CONTENT_TYPE);
+    response.setHeader("Cache-Control", "no-store");
+
+    // Write all registered metrics
+    PrometheusFormat.write(MetricsRegistry.getInstance(), response.getWriter());
+  }
+
+  /**
+   * Check whether a request may read the metrics.
+   *
+   * @param request request
+   * @return true if the request carries the configured token, or if no token is
+   *         configured and the request comes from a loopback address
+   */
+  private static boolean isAllowed(HttpServletRequest request) {
+    // Without a token, only answer requests from the server itself
+    String token = ConfigManager.getInstance().getMetricsToken();
+    if (token == null) {
+      try {
+        return InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    // Compare the token in constant time, so that timing does not reveal it
+    String authorization = request.getHeader("Authorization");
+    if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+      return false;
+    }
+    byte[] expected = token.getBytes(StandardCharsets.UTF_8);
+    byte[] actual = authorization.substring(BEARER_PREFIX.length()).trim().getBytes(StandardCharsets.UTF_8);
+    return MessageDigest.isEqual(expected, actual);
+  }
+
+}
@@ -9,6 +9,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import craigslist.Search;
+import craigslist.SearchFilter;
 import craigslist.SearchFrequency;
 import craigslist.SearchManager;
 import email.Email;
@@ -48,14 +49,19 @@ public class NewSearch extends HttpServlet {
     String email = request.getParameter("email");
     String frequencyString = request.getParameter("frequency");
     String name = request.getParameter("name");
+    String fetcherString = request.getParameter("fetcher");
 
-    // Validate the attributes and get the frequency
+    // Validate the attributes and get the frequency, fetcher and filter
     SearchFrequency frequency;
+    String fetcher;
+    SearchFilter filter;
     try {
       validateSearch(searchURL);
       validateEmail(email);
       frequency = getFrequency(frequencyString);
       validateName(name);
+      fetcher = getFetcher(fetcherString);
+      filter = getFilter(request);
     } catch (CraigslistException e) {
       request.setAttribute("error", e.getError());
       request.getRequestDispatcher("error.jsp").forward(request, response);
@@ -63,7 +69,7 @@ public class NewSearch extends HttpServlet {
     }
 
     // Create the search
-    Search search = new Search(searchURL, email, frequency, name);
+    Search search = new Search(searchURL, email, frequency, name, fetcher, filter);
 
     // Add the search
     SearchManager searchManager = SearchManager.getInstance();
@@ -143,4 +149,56 @@ public class NewSearch extends HttpServlet {
     return frequency;
   }
 
+  /**
+   * Get the result fetcher chosen for the search.
+   * 
+   * @param fetcherString result fetcher string
+   * @return "rss" or "html", or null to use the configured fetcher
+   * @throws CraigslistException
+   */
+  private String getFetcher(String fetcherString) throws CraigslistException {
+    if (fetcherString == null || fetcherString.isEmpty()) {
+      return null;
+    } else if (fetcherString.equals("rss") || fetcherString.equals("html")) {
+      return fetcherString;
+    }
+    throw new CraigslistException(Errors.INVALID_FETCHER);
+  }
+
+  /**
+   * Get the filter for the search's results from the keyword and price fields.
+   * 
+   * @param request request with the filter fields
+   * @return search filter
+   * @throws CraigslistException
+   */
+  private SearchFilter getFilter(HttpServletRequest request) throws CraigslistException {
+    Integer minPrice = getPrice(request.getParameter("minPrice"));
+    Integer maxPrice = getPrice(request.getParameter("maxPrice"));
+    boolean titleOnly = request.getParameter("titleOnly") != null;
+    SearchFilter filter = new SearchFilter(SearchFilter.parseTerms(request.getParameter("include")), SearchFilter.parseTerms(request.getParameter("exclude")), minPrice, maxPrice, titleOnly);
+    if (!filter.isValid()) {
+      throw new CraigslistException(Errors.INVALID_FILTER);
+    }
+    return filter;
+  }
+
+  /**
+   * Get a price from a price field.
+   * 
+   * @param priceString price string in whole dollars
+   * @return price, or null if the field is empty
+   * @throws CraigslistException
+   */
+  private Integer getPrice(String priceString) throws CraigslistException {
+    if (priceString == null || priceString.trim().isEmpty()) {
+      return null;
+    }
+    try {
+      return Integer.valueOf(priceString.trim());
+    } catch (NumberFormatException e) {
+      throw new CraigslistException(Errors.INVALID_FILTER);
+    }
+  }
+
 }
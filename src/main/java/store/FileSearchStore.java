@@ -0,0 +1,233 @@
+package store;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import craigslist.Search;
+
+/**
+ * Search store which keeps each search in its own JSON file, named with the
+ * UUID of the search, and rewrites the file on every change.
+ * <p>
+ * If the index is enabled, a clean shutdown also writes every search to a
+ * single index file with one search per line. The next start loads the index
+ * instead of opening every file, and the index is deleted before the first
+ * change after that, so it is only ever used when it matches the files.
+ */
+public class FileSearchStore extends SearchStore {
+
+  /** Name of the index file **/
+  private static final String INDEX_NAME = "searches.index";
+
+  /** Directory holding the search files **/
+  private final File directory_;
+
+  /** Whether the index is written on close **/
+  private final boolean indexEnabled_;
+
+  /** Whether the index has been deleted since the store was opened **/
+  private final AtomicBoolean indexDeleted_ = new AtomicBoolean();
+
+  /** Lock letting changes run together, but not while the index is written **/
+  private final ReadWriteLock indexLock_ = new ReentrantReadWriteLock();
+
+  /** Saved searches, organized by UUID, for writing the index **/
+  private final Map<String, Search> searches_ = new ConcurrentHashMap<String, Search>();
+
+  /**
+   * Constructor for a file search store.
+   *
+   * @param directory directory holding the search files
+   * @param indexEnabled whether to write an index on close
+   */
+  public FileSearchStore(String directory, boolean indexEnabled) {
+    directory_ = new File(directory);
+    indexEnabled_ = indexEnabled;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Collection<Search> loadAll() {
+    // Load the index if it is there, and the files otherwise
+    List<Search> searches = null;
+    File indexFile = new File(directory_, INDEX_NAME);
+    if (indexEnabled_ && indexFile.exists()) {
+      searches = loadIndex(indexFile);
+    }
+    if (searches == null) {
+      searches = loadFiles();
+    }
+    for (Search search : searches) {
+      searches_.put(search.getUUID(), search);
+    }
+    return searches;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void put(Search search) {
+    indexLock_.readLock().lock();
+    try {
+      deleteIndex();
+      searches_.put(search.getUUID(), search);
+
+      // Save the search with the UUID as the filename
+      try (Writer writer = new FileWriter(getSearchFile(search))) {
+        writer.write(search.toJson());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    } finally {
+      indexLock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void updateDates(Search search) {
+    put(search);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void remove(Search search) {
+    indexLock_.readLock().lock();
+    try {
+      deleteIndex();
+      searches_.remove(search.getUUID());
+      getSearchFile(search).delete();
+    } finally {
+      indexLock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void close() {
+    if (!indexEnabled_) {
+      return;
+    }
+
+    // Write the index while no changes are being made
+    indexLock_.writeLock().lock();
+    try {
+      writeIndex();
+
+      // Let the next change delete the index again
+      indexDeleted_.set(false);
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      indexLock_.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Write every search to the index, through a temporary file which is moved
+   * into place.
+   *
+   * @throws IOException if the index cannot be written
+   */
+  private void writeIndex() throws IOException {
+    File indexFile = new File(directory_, INDEX_NAME);
+    File temporaryFile = new File(directory_, INDEX_NAME + ".tmp");
+    try (FileOutputStream output = new FileOutputStream(temporaryFile)) {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 65536);
+      for (Search search : searches_.values()) {
+        writer.write(search.toJson());
+        writer.write('\n');
+      }
+      writer.flush();
+      output.getFD().sync();
+    }
+    Files.move(temporaryFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Load the searches from the index, parsing the lines in parallel.
+   *
+   * @param indexFile index file
+   * @return searches, or null if the index cannot be read
+   */
+  private List<Search> loadIndex(File indexFile) {
+    try {
+      List<String> lines = Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8);
+      return lines.parallelStream()
+          .filter(line -> !line.isEmpty())
+          .map(Search::fromJson)
+          .collect(Collectors.toList());
+    } catch (Exception e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Load the searches from their files, reading and parsing the files in
+   * parallel.
+   *
+   * @return searches
+   */
+  private List<Search> loadFiles() {
+    File[] savedSearches = directory_.listFiles((dir, name) -> name.toLowerCase().endsWith(".json"));
+    if (savedSearches == null) {
+      return new ArrayList<Search>();
+    }
+    return Arrays.stream(savedSearches).parallel()
+        .map(savedSearch -> {
+          try {
+            return Search.fromFile(savedSearch.getAbsolutePath());
+          } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+          }
+        })
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Delete the index before the first change, since it no longer matches the
+   * files afterwards.
+   */
+  private void deleteIndex() {
+    if (indexEnabled_ && indexDeleted_.compareAndSet(false, true)) {
+      new File(directory_, INDEX_NAME).delete();
+    }
+  }
+
+  /**
+   * Get the file for a search.
+   *
+   * @param search search
+   * @return search file
+   */
+  private File getSearchFile(Search search) {
+    return new File(directory_, search.getUUID() + ".json");
+  }
+
+}
@@ -0,0 +1,813 @@
+package store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import craigslist.Search;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+
+/**
+ * Log-structured search store. Every change is appended as a small checksummed
+ * record to the current journal segment, and a writer thread commits all
+ * records waiting at the same time with a single fsync. Once the journal has
+ * grown larger than the last snapshot, a new segment is started and the live
+ * searches are written to a snapshot in the background, after which the older
+ * segments are deleted. Recovery loads the latest snapshot and replays the
+ * segments written after it.
+ * <p>
+ * Each record is laid out as a 4 byte payload length, a 4 byte CRC-32 of the
+ * type and payload, a 1 byte type and the payload.
+ */
+public class JournalSearchStore extends SearchStore {
+
+  /** Record holding a whole search, with its dates in milliseconds **/
+  static final byte PUT = 1;
+
+  /** Record holding the dates of a search, only read from older journals **/
+  static final byte DATES = 2;
+
+  /** Record marking a search as removed **/
+  static final byte REMOVE = 3;
+
+  /** Record holding the dates and last seen time of a search **/
+  static final byte STATE = 4;
+
+  /** Number of bytes before the payload of a record **/
+  private static final int HEADER_BYTES = 9;
+
+  /** Largest payload accepted when reading a record **/
+  private static final int MAX_PAYLOAD_BYTES = 1 << 20;
+
+  /** Size at which a new journal segment is started **/
+  private static final long SEGMENT_BYTES = 8L << 20;
+
+  /** Smallest journal size which triggers a snapshot **/
+  private static final long MIN_SNAPSHOT_JOURNAL_BYTES = 4L << 20;
+
+  /** Maximum number of records committed with one fsync **/
+  private static final int MAX_BATCH = 4096;
+
+  /** Value stored in place of a missing date **/
+  private static final long NO_DATE = Long.MIN_VALUE;
+
+  /** Number of whole search records decoded together during recovery **/
+  private static final int REPLAY_CHUNK = 8192;
+
+  /** Counter for committed records **/
+  private static final Counter RECORDS = MetricsRegistry.getInstance().counter("journal_records_total", "Records appended to the search journal.");
+
+  /** Counter for journal fsyncs **/
+  private static final Counter SYNCS = MetricsRegistry.getInstance().counter("journal_syncs_total", "Group commits of the search journal.");
+
+  /** Counter for snapshots written **/
+  private static final Counter SNAPSHOTS = MetricsRegistry.getInstance().counter("journal_snapshots_total", "Snapshots written by the search journal.");
+
+  /** Histogram of the time taken by each group commit **/
+  private static final Histogram COMMIT_TIME = MetricsRegistry.getInstance().histogram("journal_commit_seconds", "Time taken to write and sync a group of journal records.", 1e-6);
+
+  /** Directory holding the snapshots and journal segments **/
+  private final File directory_;
+
+  /** Directory holding the per-search files which were migrated **/
+  private final File legacyDirectory_;
+
+  /** Live searches, organized by UUID **/
+  private final Map<String, Search> searches_ = new ConcurrentHashMap<String, Search>();
+
+  /** Records waiting to be committed **/
+  private final BlockingQueue<PendingRecord> pending_ = new LinkedBlockingQueue<PendingRecord>();
+
+  /** Lock guarding the running flag against concurrent appends **/
+  private final Object appendLock_ = new Object();
+
+  /** Thread which writes the snapshots **/
+  private final ExecutorService snapshotter_;
+
+  /** Whether a snapshot is being written **/
+  private final AtomicBoolean snapshotting_ = new AtomicBoolean();
+
+  /** Thread which commits records **/
+  private final Thread writer_;
+
+  /** Whether records are accepted **/
+  private boolean running_;
+
+  /** Current journal segment, only used by the writer thread **/
+  private FileChannel segment_;
+
+  /** Sequence number of the current segment **/
+  private long segmentSequence_;
+
+  /** Number of bytes in the current segment **/
+  private long segmentBytes_;
+
+  /** Number of journal bytes written since the last snapshot was started **/
+  private long journalBytes_;
+
+  /** Size of the latest snapshot **/
+  private volatile long snapshotBytes_;
+
+  /**
+   * Constructor for a journal search store. Recovers the saved searches, or
+   * migrates the per-search files if there is no journal yet.
+   *
+   * @param directory saved search directory
+   */
+  public JournalSearchStore(String directory) {
+    directory_ = new File(directory, "journal");
+    legacyDirectory_ = new File(directory, "legacy");
+    directory_.mkdirs();
+    try {
+      recover(new File(directory));
+      openNextSegment();
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to open the search journal.", e);
+    }
+
+    // Start the writer and snapshot threads
+    snapshotter_ = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "journal-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    });
+    running_ = true;
+    writer_ = new Thread(this::runWriter, "journal-writer");
+    writer_.setDaemon(true);
+    writer_.start();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Collection<Search> loadAll() {
+    return new ArrayList<Search>(searches_.values());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void put(Search search) {
+    searches_.put(search.getUUID(), search);
+    append(PUT, encodePut(search));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void updateDates(Search search) {
+    if (searches_.containsKey(search.getUUID())) {
+      append(STATE, encodeState(search));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void updateDates(Collection<Search> searches) {
+    // Queue all the records before waiting, so that they share one commit
+    List<PendingRecord> records = new ArrayList<PendingRecord>(searches.size());
+    for (Search search : searches) {
+      if (searches_.containsKey(search.getUUID())) {
+        records.add(enqueue(STATE, encodeState(search)));
+      }
+    }
+    for (PendingRecord record : records) {
+      await(record);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void remove(Search search) {
+    if (searches_.remove(search.getUUID()) != null) {
+      append(REMOVE, encodeRemove(search.getUUID()));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void close() {
+    synchronized (appendLock_) {
+      if (!running_) {
+        return;
+      }
+      running_ = false;
+    }
+
+    // Let the writer commit the remaining records, and finish any snapshot
+    try {
+      writer_.join();
+      snapshotter_.shutdown();
+      snapshotter_.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Append a record to the journal, and wait until it has been committed.
+   *
+   * @param type record type
+   * @param payload record payload
+   */
+  private void append(byte type, byte[] payload) {
+    await(enqueue(type, payload));
+  }
+
+  /**
+   * Queue a record for the writer thread.
+   *
+   * @param type record type
+   * @param payload record payload
+   * @return pending record
+   */
+  private PendingRecord enqueue(byte type, byte[] payload) {
+    PendingRecord record = new PendingRecord(encodeRecord(type, payload));
+    synchronized (appendLock_) {
+      if (!running_) {
+        throw new IllegalStateException("The search journal is closed.");
+      }
+      pending_.add(record);
+    }
+    return record;
+  }
+
+  /**
+   * Wait until a record has been committed.
+   *
+   * @param record pending record
+   */
+  private void await(PendingRecord record) {
+    try {
+      record.committed_.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+    }
+  }
+
+  /**
+   * Commit records in groups until the store is closed and every record has
+   * been committed.
+   */
+  private void runWriter() {
+    List<PendingRecord> batch = new ArrayList<PendingRecord>();
+    while (true) {
+      // Wait for a record, then take everything else which is waiting
+      PendingRecord first;
+      try {
+        first = pending_.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        continue;
+      }
+      if (first == null) {
+        synchronized (appendLock_) {
+          if (!running_ && pending_.isEmpty()) {
+            break;
+          }
+        }
+        continue;
+      }
+      batch.add(first);
+      pending_.drainTo(batch, MAX_BATCH - 1);
+      commit(batch);
+      batch.clear();
+    }
+
+    // Close the last segment
+    try {
+      segment_.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Write a group of records to the current segment and sync it once.
+   *
+   * @param batch records to commit
+   */
+  private void commit(List<PendingRecord> batch) {
+    long startNanos = System.nanoTime();
+    try {
+      // Write the records and sync the segment
+      ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+      long batchBytes = 0;
+      for (int i = 0; i < buffers.length; i++) {
+        buffers[i] = ByteBuffer.wrap(batch.get(i).bytes_);
+        batchBytes += buffers[i].remaining();
+      }
+      long written = 0;
+      while (written < batchBytes) {
+        written += segment_.write(buffers);
+      }
+      segment_.force(false);
+      segmentBytes_ += batchBytes;
+      journalBytes_ += batchBytes;
+    } catch (IOException e) {
+      // Fail the records, and move past a segment which may have a torn tail
+      for (PendingRecord record : batch) {
+        record.committed_.completeExceptionally(e);
+      }
+      try {
+        openNextSegment();
+      } catch (IOException openException) {
+        openException.printStackTrace();
+      }
+      return;
+    }
+    for (PendingRecord record : batch) {
+      record.committed_.complete(null);
+    }
+    RECORDS.add(batch.size());
+    SYNCS.increment();
+    COMMIT_TIME.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+
+    // Start a snapshot once the journal outgrows the last one, or else start a
+    // new segment once the current one is full
+    try {
+      long snapshotThreshold = Math.max(MIN_SNAPSHOT_JOURNAL_BYTES, snapshotBytes_);
+      if (journalBytes_ >= snapshotThreshold && snapshotting_.compareAndSet(false, true)) {
+        openNextSegment();
+        journalBytes_ = 0;
+        long snapshotSequence = segmentSequence_;
+        snapshotter_.execute(() -> {
+          try {
+            writeSnapshot(snapshotSequence);
+          } catch (IOException e) {
+            e.printStackTrace();
+          } finally {
+            snapshotting_.set(false);
+          }
+        });
+      } else if (segmentBytes_ >= SEGMENT_BYTES) {
+        openNextSegment();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Close the current segment, if any, and start a new one.
+   *
+   * @throws IOException if the segment cannot be created
+   */
+  private void openNextSegment() throws IOException {
+    if (segment_ != null) {
+      segment_.close();
+    }
+    segmentSequence_++;
+    segment_ = FileChannel.open(getSegmentFile(segmentSequence_).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    segmentBytes_ = 0;
+    syncDirectory();
+  }
+
+  /**
+   * Write all live searches to a snapshot, which replaces every segment before
+   * the specified one.
+   *
+   * @param sequence sequence number of the first segment not covered by the
+   *          snapshot
+   * @throws IOException if the snapshot cannot be written
+   */
+  private void writeSnapshot(long sequence) throws IOException {
+    // Write the snapshot to a temporary file and sync it
+    File temporaryFile = new File(directory_, "snapshot.tmp");
+    try (FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+      for (Search search : searches_.values()) {
+        output.write(encodeRecord(PUT, encodePut(search)));
+      }
+      output.flush();
+      channel.force(true);
+    }
+
+    // Replace the older snapshot and segments
+    File snapshotFile = getSnapshotFile(sequence);
+    Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory();
+    snapshotBytes_ = snapshotFile.length();
+    deleteFilesBefore(sequence);
+    SNAPSHOTS.increment();
+  }
+
+  /**
+   * Load the latest snapshot and replay the segments written after it. If there
+   * is no snapshot or journal, the per-search files are migrated instead.
+   *
+   * @param savedSearchDirectory saved search directory
+   * @throws IOException if the files cannot be read
+   */
+  private void recover(File savedSearchDirectory) throws IOException {
+    // Load the latest snapshot
+    List<Long> snapshots = listSequences("snapshot-", ".dat");
+    List<Long> segments = listSequences("journal-", ".log");
+    long snapshotSequence = 0;
+    if (!snapshots.isEmpty()) {
+      snapshotSequence = snapshots.get(snapshots.size() - 1);
+      File snapshotFile = getSnapshotFile(snapshotSequence);
+      replay(snapshotFile);
+      snapshotBytes_ = snapshotFile.length();
+    }
+
+    // Replay the segments written after the snapshot, in order
+    segmentSequence_ = snapshotSequence;
+    for (long sequence : segments) {
+      File segmentFile = getSegmentFile(sequence);
+      if (sequence < snapshotSequence) {
+        continue;
+      }
+
+      // Delete the empty segments left by restarts without any changes
+      if (segmentFile.length() == 0) {
+        segmentFile.delete();
+        continue;
+      }
+      replay(segmentFile);
+      journalBytes_ += segmentFile.length();
+      segmentSequence_ = sequence;
+    }
+
+    // Clean up after a snapshot which was interrupted before its cleanup
+    deleteFilesBefore(snapshotSequence);
+    new File(directory_, "snapshot.tmp").delete();
+
+    // Migrate the per-search files into the first snapshot
+    if (snapshots.isEmpty() && segments.isEmpty()) {
+      migrate(savedSearchDirectory);
+    }
+  }
+
+  /**
+   * Import the searches saved as one file each, write them to a snapshot, and
+   * move the files out of the way.
+   *
+   * @param savedSearchDirectory saved search directory
+   * @throws IOException if the snapshot cannot be written
+   */
+  private void migrate(File savedSearchDirectory) throws IOException {
+    File[] files = savedSearchDirectory.listFiles((dir, name) -> name.toLowerCase().endsWith(".json"));
+    if (files == null || files.length == 0) {
+      return;
+    }
+    for (Search search : new FileSearchStore(savedSearchDirectory.getPath(), false).loadAll()) {
+      searches_.put(search.getUUID(), search);
+    }
+    segmentSequence_ = 1;
+    writeSnapshot(segmentSequence_);
+
+    // Keep the old files, but stop them from being loaded again
+    legacyDirectory_.mkdirs();
+    for (File file : files) {
+      Files.move(file.toPath(), new File(legacyDirectory_, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Apply every record in a file to the live searches. Runs of whole searches,
+   * which make up all of a snapshot, are decoded in parallel and applied in
+   * order. Reading stops at the first incomplete or damaged record, which can
+   * only be the tail of a segment that was being written when the application
+   * stopped.
+   *
+   * @param file snapshot or segment file
+   * @throws IOException if the file cannot be read
+   */
+  private void replay(File file) throws IOException {
+    List<byte[]> puts = new ArrayList<byte[]>(REPLAY_CHUNK);
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+      while (true) {
+        // Read the header, stopping cleanly at the end of the file
+        int length;
+        try {
+          length = input.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        int checksum = input.readInt();
+        byte type = input.readByte();
+        if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+          throw new IOException("Damaged record length in " + file);
+        }
+
+        // Read and check the payload
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        if (checksum(type, payload) != checksum) {
+          throw new IOException("Damaged record in " + file);
+        }
+
+        // Collect whole searches, applying them before any other record
+        if (type == PUT) {
+          puts.add(payload);
+          if (puts.size() == REPLAY_CHUNK) {
+            applyPuts(puts);
+          }
+        } else {
+          applyPuts(puts);
+          apply(type, payload);
+        }
+      }
+    } catch (IOException e) {
+      // Keep the records which were read before the damaged one
+      e.printStackTrace();
+    }
+    applyPuts(puts);
+  }
+
+  /**
+   * Decode whole searches in parallel, then apply them in order.
+   *
+   * @param puts payloads of whole search records, cleared once applied
+   */
+  private void applyPuts(List<byte[]> puts) {
+    List<Search> searches = puts.parallelStream().map(JournalSearchStore::decodePut).collect(Collectors.toList());
+    for (Search search : searches) {
+      searches_.put(search.getUUID(), search);
+    }
+    puts.clear();
+  }
+
+  /**
+   * Apply a record to the live searches.
+   *
+   * @param type record type
+   * @param payload record payload
+   * @throws IOException if the record cannot be decoded
+   */
+  private void apply(byte type, byte[] payload) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+    switch (type) {
+    case PUT:
+      Search search = decodePut(payload);
+      searches_.put(search.getUUID(), search);
+      break;
+    case DATES:
+    case STATE:
+      Search updatedSearch = searches_.get(input.readUTF());
+      Date lastSearchDate = toDate(input.readLong());
+      Date lastResultDate = toDate(input.readLong());
+      if (updatedSearch != null) {
+        long lastSeenMillis = type == STATE ? input.readLong() : updatedSearch.getLastSeenMillis();
+        updatedSearch.restoreDates(lastSearchDate, lastResultDate, lastSeenMillis);
+      }
+      break;
+    case REMOVE:
+      searches_.remove(input.readUTF());
+      break;
+    default:
+      throw new IOException("Unknown record type " + type);
+    }
+  }
+
+  /**
+   * Decode a whole search.
+   *
+   * @param payload record payload
+   * @return search
+   */
+  private static Search decodePut(byte[] payload) {
+    ByteBuffer buffer = ByteBuffer.wrap(payload);
+    Date lastSearchDate = toDate(buffer.getLong());
+    Date lastResultDate = toDate(buffer.getLong());
+    Search search = Search.fromJson(new String(payload, 16, payload.length - 16, StandardCharsets.UTF_8));
+    search.restoreDates(lastSearchDate, lastResultDate, search.getLastSeenMillis());
+    return search;
+  }
+
+  /**
+   * Encode a whole search.
+   *
+   * @param search search
+   * @return record payload
+   */
+  private static byte[] encodePut(Search search) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      output.writeLong(toMillis(search.getLastSearchDate()));
+      output.writeLong(toMillis(search.getLastResultDate()));
+      output.write(search.toJson().getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Encode the dates and last seen time of a search.
+   *
+   * @param search search
+   * @return record payload
+   */
+  private static byte[] encodeState(Search search) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      output.writeUTF(search.getUUID());
+      output.writeLong(toMillis(search.getLastSearchDate()));
+      output.writeLong(toMillis(search.getLastResultDate()));
+      output.writeLong(search.getLastSeenMillis());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Encode the removal of a search.
+   *
+   * @param uuid search UUID
+   * @return record payload
+   */
+  private static byte[] encodeRemove(String uuid) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      output.writeUTF(uuid);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Frame a payload as a record.
+   *
+   * @param type record type
+   * @param payload record payload
+   * @return record bytes
+   */
+  private static byte[] encodeRecord(byte type, byte[] payload) {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+    buffer.putInt(payload.length);
+    buffer.putInt(checksum(type, payload));
+    buffer.put(type);
+    buffer.put(payload);
+    return buffer.array();
+  }
+
+  /**
+   * Calculate the checksum of a record.
+   *
+   * @param type record type
+   * @param payload record payload
+   * @return CRC-32 of the type and payload
+   */
+  private static int checksum(byte type, byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(payload);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Convert a date to milliseconds.
+   *
+   * @param date date, or null
+   * @return milliseconds, or NO_DATE if the date is null
+   */
+  private static long toMillis(Date date) {
+    return date == null ? NO_DATE : date.getTime();
+  }
+
+  /**
+   * Convert milliseconds to a date.
+   *
+   * @param millis milliseconds, or NO_DATE
+   * @return date, or null
+   */
+  private static Date toDate(long millis) {
+    return millis == NO_DATE ? null : new Date(millis);
+  }
+
+  /**
+   * Delete the snapshots and segments before a sequence number.
+   *
+   * @param sequence first sequence number to keep
+   */
+  private void deleteFilesBefore(long sequence) {
+    for (long snapshot : listSequences("snapshot-", ".dat")) {
+      if (snapshot < sequence) {
+        getSnapshotFile(snapshot).delete();
+      }
+    }
+    for (long segment : listSequences("journal-", ".log")) {
+      if (segment < sequence) {
+        getSegmentFile(segment).delete();
+      }
+    }
+  }
+
+  /**
+   * List the sequence numbers of the files with a prefix and suffix.
+   *
+   * @param prefix file name prefix
+   * @param suffix file name suffix
+   * @return sorted sequence numbers
+   */
+  private List<Long> listSequences(String prefix, String suffix) {
+    List<Long> sequences = new ArrayList<Long>();
+    String[] names = directory_.list((dir, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+    if (names != null) {
+      for (String name : names) {
+        try {
+          sequences.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+        } catch (NumberFormatException e) {
+        }
+      }
+    }
+    Collections.sort(sequences);
+    return sequences;
+  }
+
+  /**
+   * Get the file for a journal segment.
+   *
+   * @param sequence segment sequence number
+   * @return segment file
+   */
+  private File getSegmentFile(long sequence) {
+    return new File(directory_, String.format("journal-%020d.log", sequence));
+  }
+
+  /**
+   * Get the file for a snapshot.
+   *
+   * @param sequence sequence number of the first segment after the snapshot
+   * @return snapshot file
+   */
+  private File getSnapshotFile(long sequence) {
+    return new File(directory_, String.format("snapshot-%020d.dat", sequence));
+  }
+
+  /**
+   * Sync the journal directory, so that created and renamed files are durable.
+   */
+  private void syncDirectory() {
+    try (FileChannel channel = FileChannel.open(directory_.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // Directories cannot be synced on every platform
+    }
+  }
+
+  /**
+   * A record waiting to be committed.
+   */
+  private static final class PendingRecord {
+
+    /** Encoded record **/
+    private final byte[] bytes_;
+
+    /** Future completed once the record is durable **/
+    private final CompletableFuture<Void> committed_ = new CompletableFuture<Void>();
+
+    /**
+     * Constructor for a pending record.
+     *
+     * @param bytes encoded record
+     */
+    private PendingRecord(byte[] bytes) {
+      bytes_ = bytes;
+    }
+
+  }
+
+}
@@ -0,0 +1,108 @@
+package store;
+
+import java.util.Collection;
+
+import craigslist.Search;
+import util.ConfigManager;
+
+/**
+ * Singleton base class for persisting searches. The implementation is chosen by
+ * the search_store config property.
+ */
+public abstract class SearchStore {
+
+  /** Singleton instance **/
+  private static volatile SearchStore instance_;
+
+  /**
+   * Get the instance of the singleton, opening the configured store.
+   *
+   * @return singleton instance
+   */
+  public static SearchStore getInstance() {
+    if (instance_ == null) {
+      synchronized (SearchStore.class) {
+        if (instance_ == null) {
+          SearchStore instance = create(ConfigManager.getInstance().getSearchStore());
+          instance_ = instance;
+        }
+      }
+    }
+    return instance_;
+  }
+
+  /**
+   * Create a search store.
+   *
+   * @param type "journal" or "file"
+   * @return search store
+   */
+  public static SearchStore create(String type) {
+    ConfigManager configManager = ConfigManager.getInstance();
+    String directory = configManager.getSavedSearchDirectory();
+    SearchStore store;
+    if (type.equals("file")) {
+      store = new FileSearchStore(directory, configManager.isSearchIndex());
+    } else {
+      store = new JournalSearchStore(directory);
+    }
+
+    // Batch the date updates if write-behind is enabled
+    int flushSeconds = configManager.getPersistFlushSeconds();
+    if (flushSeconds > 0) {
+      store = new WriteBehindSearchStore(store, flushSeconds);
+    }
+    return store;
+  }
+
+  /**
+   * Load all saved searches.
+   *
+   * @return saved searches
+   */
+  public abstract Collection<Search> loadAll();
+
+  /**
+   * Save a new or changed search.
+   *
+   * @param search search
+   */
+  public abstract void put(Search search);
+
+  /**
+   * Save the last search and last result dates of a saved search.
+   *
+   * @param search search
+   */
+  public abstract void updateDates(Search search);
+
+  /**
+   * Save the last search and last result dates of several saved searches.
+   *
+   * @param searches searches
+   */
+  public void updateDates(Collection<Search> searches) {
+    for (Search search : searches) {
+      updateDates(search);
+    }
+  }
+
+  /**
+   * Delete a saved search.
+   *
+   * @param search search
+   */
+  public abstract void remove(Search search);
+
+  /**
+   * Write any changes which have been held back.
+   */
+  public void flush() {
+  }
+
+  /**
+   * Close the store, writing any pending changes.
+   */
+  public abstract void close();
+
+}
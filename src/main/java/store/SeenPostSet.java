@@ -0,0 +1,232 @@
+package store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import craigslist.Result;
+
+/**
+ * Persistent set of the posts seen in a feed, recording when each post was
+ * first seen. The set is an open-addressing hash table with linear probing in a
+ * memory-mapped file, so it survives restarts without being read onto the heap,
+ * and lookups do not allocate. Each slot holds a 64-bit hash of the post ID and
+ * the time the post was first seen. The table has a fixed number of slots and a
+ * bounded probe length: entries older than the maximum age are reused first,
+ * and otherwise the oldest entry in the probe window is overwritten.
+ */
+public final class SeenPostSet {
+
+  /** Marker at the start of the file **/
+  private static final int MAGIC = 0x53454e31;
+
+  /** Number of bytes in the header **/
+  private static final int HEADER_BYTES = 32;
+
+  /** Number of bytes in each slot **/
+  private static final int SLOT_BYTES = 16;
+
+  /** Maximum number of slots probed for a post **/
+  private static final int MAX_PROBES = 16;
+
+  /** Offset of the slot count in the header **/
+  private static final int CAPACITY_OFFSET = 4;
+
+  /** Offset of the baseline time in the header **/
+  private static final int BASELINE_OFFSET = 8;
+
+  /** File holding the table **/
+  private final File file_;
+
+  /** Mapped table **/
+  private final MappedByteBuffer buffer_;
+
+  /** Mask for converting a hash into a slot index **/
+  private final int mask_;
+
+  /** Age after which entries can be reused in milliseconds **/
+  private final long maxAgeMillis_;
+
+  /**
+   * Constructor for a seen post set, opening the file if it matches the
+   * capacity and creating a new table otherwise.
+   *
+   * @param file file holding the table
+   * @param capacity number of slots, rounded up to a power of two
+   * @param maxAgeMillis age after which entries can be reused in milliseconds
+   * @throws IOException if the file cannot be opened or mapped
+   */
+  public SeenPostSet(File file, int capacity, long maxAgeMillis) throws IOException {
+    int slots = Integer.highestOneBit(Math.max(MAX_PROBES, capacity) - 1) << 1;
+    long length = HEADER_BYTES + (long) slots * SLOT_BYTES;
+    file_ = file;
+    mask_ = slots - 1;
+    maxAgeMillis_ = maxAgeMillis;
+
+    // Map the file, starting a new table if it is missing or has another size
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      boolean isValid = randomAccessFile.length() == length && randomAccessFile.readInt() == MAGIC && randomAccessFile.readInt() == slots;
+      if (!isValid) {
+        randomAccessFile.setLength(0);
+        randomAccessFile.setLength(length);
+      }
+      buffer_ = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+      if (!isValid) {
+        buffer_.putInt(0, MAGIC);
+        buffer_.putInt(CAPACITY_OFFSET, slots);
+      }
+    }
+  }
+
+  /**
+   * Record a post as seen, unless it has been seen already.
+   *
+   * @param hash hash of the post ID, from {@link #hashPostId(String)}
+   * @param nowMillis current time in milliseconds
+   * @return time the post was first seen in milliseconds
+   */
+  public synchronized long markSeen(long hash, long nowMillis) {
+    // The first post recorded in a new table sets the baseline
+    if (buffer_.getLong(BASELINE_OFFSET) == 0) {
+      buffer_.putLong(BASELINE_OFFSET, nowMillis);
+    }
+
+    // Probe for the post, remembering where it could be inserted
+    int reusable = -1;
+    int oldest = -1;
+    long oldestMillis = Long.MAX_VALUE;
+    int index = (int) hash & mask_;
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      int offset = getOffset(index);
+      long slotHash = buffer_.getLong(offset);
+      if (slotHash == hash) {
+        return buffer_.getLong(offset + 8);
+      } else if (slotHash == 0) {
+        // The post is not in the table past an empty slot
+        if (reusable < 0) {
+          reusable = offset;
+        }
+        break;
+      }
+      long slotMillis = buffer_.getLong(offset + 8);
+      if (reusable < 0 && nowMillis - slotMillis > maxAgeMillis_) {
+        reusable = offset;
+      }
+      if (slotMillis < oldestMillis) {
+        oldestMillis = slotMillis;
+        oldest = offset;
+      }
+      index = (index + 1) & mask_;
+    }
+
+    // Insert the post, evicting the oldest entry in the window if it is full
+    int offset = reusable >= 0 ? reusable : oldest;
+    buffer_.putLong(offset, hash);
+    buffer_.putLong(offset + 8, nowMillis);
+    return nowMillis;
+  }
+
+  /**
+   * Get the time a post was first seen.
+   *
+   * @param hash hash of the post ID, from {@link #hashPostId(String)}
+   * @return time the post was first seen in milliseconds, or 0 if not seen
+   */
+  public synchronized long getFirstSeen(long hash) {
+    int index = (int) hash & mask_;
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      int offset = getOffset(index);
+      long slotHash = buffer_.getLong(offset);
+      if (slotHash == hash) {
+        return buffer_.getLong(offset + 8);
+      } else if (slotHash == 0) {
+        return 0;
+      }
+      index = (index + 1) & mask_;
+    }
+    return 0;
+  }
+
+  /**
+   * Get the time the first post was recorded in the table. Posts first seen at
+   * that time were already in the feed when the table was created, so their
+   * first seen times say nothing about when they were posted.
+   *
+   * @return baseline time in milliseconds, or 0 if the table is empty
+   */
+  public synchronized long getBaselineMillis() {
+    return buffer_.getLong(BASELINE_OFFSET);
+  }
+
+  /**
+   * Write the table to disk.
+   */
+  public synchronized void force() {
+    buffer_.force();
+  }
+
+  /**
+   * Delete the file holding the table. The table must not be used afterwards.
+   */
+  public void delete() {
+    file_.delete();
+  }
+
+  /**
+   * Hash the post ID in a Craigslist link, which is the last run of digits, as
+   * in https://city.craigslist.org/cat/d/title/7712345678.html. Links without a
+   * numeric ID are hashed whole. Does not allocate.
+   *
+   * @param link link to the post
+   * @return non-zero hash
+   */
+  public static long hashPostId(String link) {
+    long postId = Result.parsePostId(link);
+    if (postId != 0) {
+      return hashPostId(postId);
+    }
+
+    // Hash the whole link with FNV-1a
+    long value = 0xcbf29ce484222325L;
+    for (int i = 0; i < link.length(); i++) {
+      value = (value ^ link.charAt(i)) * 0x100000001b3L;
+    }
+    return mix(value);
+  }
+
+  /**
+   * Hash a post ID. Does not allocate.
+   *
+   * @param postId post ID
+   * @return non-zero hash
+   */
+  public static long hashPostId(long postId) {
+    return mix(postId);
+  }
+
+  /**
+   * Spread the bits of a value, keeping zero free to mark empty slots.
+   *
+   * @param value value
+   * @return non-zero hash
+   */
+  private static long mix(long value) {
+    value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+    value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    value = value ^ (value >>> 33);
+    return value == 0 ? 1 : value;
+  }
+
+  /**
+   * Get the byte offset of a slot.
+   *
+   * @param index slot index
+   * @return byte offset
+   */
+  private static int getOffset(int index) {
+    return HEADER_BYTES + index * SLOT_BYTES;
+  }
+
+}
@@ -0,0 +1,138 @@
+package store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import craigslist.Search;
+import metrics.MetricsRegistry;
+
+/**
+ * Search store which holds back date updates and writes them to another store
+ * in batches. Searches whose dates changed are only marked as dirty, and the
+ * dirty searches are written together on a fixed interval, so the cost of
+ * syncing is shared by every search which ran in that interval. New and removed
+ * searches are written straight away.
+ * <p>
+ * If the application stops without being shut down, the date updates from the
+ * last interval are lost. The searches then run again as soon as they are
+ * loaded, and results found in that interval may be sent a second time.
+ */
+public class WriteBehindSearchStore extends SearchStore {
+
+  /** Store the changes are written to **/
+  private final SearchStore delegate_;
+
+  /** Searches with unsaved date updates, organized by UUID **/
+  private final Map<String, Search> dirty_ = new ConcurrentHashMap<String, Search>();
+
+  /** Lock ordering flushes against removals **/
+  private final Object flushLock_ = new Object();
+
+  /** Timer which flushes the dirty searches **/
+  private final ScheduledExecutorService timer_;
+
+  /**
+   * Constructor for a write-behind search store.
+   *
+   * @param delegate store the changes are written to
+   * @param flushSeconds interval between flushes in seconds
+   */
+  public WriteBehindSearchStore(SearchStore delegate, int flushSeconds) {
+    delegate_ = delegate;
+    MetricsRegistry.getInstance().gauge("persist_dirty_searches", "Searches with date updates waiting to be saved.", () -> dirty_.size());
+
+    // Flush the dirty searches periodically on a single thread
+    timer_ = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "search-store-flush");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer_.scheduleWithFixedDelay(this::flushQuietly, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Collection<Search> loadAll() {
+    return delegate_.loadAll();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void put(Search search) {
+    dirty_.remove(search.getUUID());
+    delegate_.put(search);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void updateDates(Search search) {
+    dirty_.put(search.getUUID(), search);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void remove(Search search) {
+    synchronized (flushLock_) {
+      dirty_.remove(search.getUUID());
+      delegate_.remove(search);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void flush() {
+    synchronized (flushLock_) {
+      // Take the dirty searches, letting searches which run meanwhile be marked
+      // again for the next flush
+      List<Search> searches = new ArrayList<Search>(dirty_.size());
+      for (String uuid : dirty_.keySet()) {
+        Search search = dirty_.remove(uuid);
+        if (search != null) {
+          searches.add(search);
+        }
+      }
+      if (!searches.isEmpty()) {
+        delegate_.updateDates(searches);
+      }
+    }
+    delegate_.flush();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void close() {
+    timer_.shutdown();
+    try {
+      timer_.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+    delegate_.close();
+  }
+
+  /**
+   * Flush the dirty searches from the timer, so that an error does not stop
+   * later flushes.
+   */
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+}
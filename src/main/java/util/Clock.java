@@ -0,0 +1,66 @@
+package util;
+
+import java.util.Date;
+
+/**
+ * Source of the current time for scheduling decisions. The application reads
+ * the time through the installed clock rather than from the system, so that a
+ * simulation can run the scheduling code in virtual time.
+ * <p>
+ * Threads which wait for a time, such as the timing wheel, still sleep in real
+ * time for the difference, so the clock should only be replaced before any of
+ * them start. Durations which are only measured for metrics are read from the
+ * system directly.
+ */
+public abstract class Clock {
+
+  /** Clock reading the system time **/
+  public static final Clock SYSTEM = new Clock() {
+
+    /**
+     * {@inheritDoc}
+     */
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+
+  };
+
+  /** Installed clock **/
+  private static volatile Clock instance_ = SYSTEM;
+
+  /**
+   * Get the installed clock.
+   *
+   * @return clock
+   */
+  public static Clock getInstance() {
+    return instance_;
+  }
+
+  /**
+   * Install a clock, replacing the system clock.
+   *
+   * @param clock clock, or null to go back to the system clock
+   */
+  public static void setInstance(Clock clock) {
+    instance_ = clock == null ? SYSTEM : clock;
+  }
+
+  /**
+   * Get the current time.
+   *
+   * @return time in milliseconds since the epoch
+   */
+  public abstract long currentTimeMillis();
+
+  /**
+   * Get the current time as a date.
+   *
+   * @return current date
+   */
+  public Date getDate() {
+    return new Date(currentTimeMillis());
+  }
+
+}
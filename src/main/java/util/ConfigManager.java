@@ -4,6 +4,10 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.ZoneId;
 
 import javax.annotation.PostConstruct;
 
@@ -14,8 +18,11 @@ import com.google.gson.Gson;
  */
 public class ConfigManager {
 
+  /** System property naming a config file to use instead of the one on the class path **/
+  public static final String CONFIG_FILE_PROPERTY = "craigslist.config";
+
   /** Instance of the config manager **/
-  private static ConfigManager instance_;
+  private static volatile ConfigManager instance_;
 
   /** Config object **/
   private Config config_;
@@ -23,20 +30,25 @@ public class ConfigManager {
   /** Context path **/
   private String contextPath_;
 
+  /** Unsubscribe link without the search's UUID, built on first use **/
+  private volatile String unsubscribeBaseURL_;
+
   /**
    * Initialize the config manager on start.
    */
   @PostConstruct
   public void init() {
-    // Set the instance
-    instance_ = this;
-
-    // Read the config file
+    // Read the config file, from the path in the system property if it is set
     Reader reader;
+    String configFile = System.getProperty(CONFIG_FILE_PROPERTY);
     try {
-      ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
-      InputStream configStream = classLoader.getResourceAsStream("config.json");
-      reader = new InputStreamReader(configStream);
+      if (configFile != null) {
+        reader = Files.newBufferedReader(Paths.get(configFile), StandardCharsets.UTF_8);
+      } else {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        InputStream configStream = classLoader.getResourceAsStream("config.json");
+        reader = new InputStreamReader(configStream);
+      }
     } catch (Exception e) {
       throw new RuntimeException("Unable to load config file.");
     }
@@ -62,8 +74,9 @@ public class ConfigManager {
     if (instance_ == null) {
       synchronized (ConfigManager.class) {
         if (instance_ == null) {
-          instance_ = new ConfigManager();
-          instance_.init();
+          ConfigManager instance = new ConfigManager();
+          instance.init();
+          instance_ = instance;
         }
       }
     }
@@ -124,6 +137,320 @@ public class ConfigManager {
     return config_.max_searches_per_minute;
   }
 
+  /**
+   * Get the number of searches which can run back to back before the rate limit
+   * applies.
+   * 
+   * @return rate limit burst size
+   */
+  public int getRateLimitBurst() {
+    if (config_.rate_limit_burst == null) {
+      return 1;
+    }
+    return config_.rate_limit_burst;
+  }
+
+  /**
+   * Get the number of worker threads for fetching feeds and processing results.
+   * 
+   * @return number of worker threads
+   */
+  public int getWorkerThreads() {
+    if (config_.worker_threads == null) {
+      return 8;
+    }
+    return config_.worker_threads;
+  }
+
+  /**
+   * Get the number of I/O threads for fetching feeds.
+   * 
+   * @return number of I/O threads
+   */
+  public int getHttpIoThreads() {
+    if (config_.http_io_threads == null) {
+      return 2;
+    }
+    return config_.http_io_threads;
+  }
+
+  /**
+   * Get the maximum number of pooled connections for fetching feeds.
+   * 
+   * @return maximum number of connections
+   */
+  public int getHttpMaxConnections() {
+    if (config_.http_max_connections == null) {
+      return 200;
+    }
+    return config_.http_max_connections;
+  }
+
+  /**
+   * Get the timeout for connecting to a feed server.
+   * 
+   * @return connect timeout in seconds
+   */
+  public int getHttpConnectTimeoutSeconds() {
+    if (config_.http_connect_timeout_seconds == null) {
+      return 10;
+    }
+    return config_.http_connect_timeout_seconds;
+  }
+
+  /**
+   * Get the timeout for reading from a feed server.
+   * 
+   * @return read timeout in seconds
+   */
+  public int getHttpReadTimeoutSeconds() {
+    if (config_.http_read_timeout_seconds == null) {
+      return 30;
+    }
+    return config_.http_read_timeout_seconds;
+  }
+
+  /**
+   * Get the maximum size of a feed response.
+   * 
+   * @return maximum response size in kilobytes
+   */
+  public int getHttpMaxResponseKilobytes() {
+    if (config_.http_max_response_kilobytes == null) {
+      return 2048;
+    }
+    return config_.http_max_response_kilobytes;
+  }
+
+  /**
+   * Get the host name of the SMTP server.
+   * 
+   * @return SMTP host
+   */
+  public String getSmtpHost() {
+    if (config_.smtp_host == null) {
+      return "smtp.gmail.com";
+    }
+    return config_.smtp_host;
+  }
+
+  /**
+   * Get the port of the SMTP server.
+   * 
+   * @return SMTP port
+   */
+  public int getSmtpPort() {
+    if (config_.smtp_port == null) {
+      return 587;
+    }
+    return config_.smtp_port;
+  }
+
+  /**
+   * Check whether to authenticate with the SMTP server.
+   * 
+   * @return true to authenticate, false otherwise
+   */
+  public boolean isSmtpAuth() {
+    if (config_.smtp_auth == null) {
+      return true;
+    }
+    return config_.smtp_auth;
+  }
+
+  /**
+   * Check whether to use STARTTLS with the SMTP server.
+   * 
+   * @return true to use STARTTLS, false otherwise
+   */
+  public boolean isSmtpStartTls() {
+    if (config_.smtp_starttls == null) {
+      return true;
+    }
+    return config_.smtp_starttls;
+  }
+
+  /**
+   * Get the maximum number of open SMTP connections.
+   * 
+   * @return number of connections
+   */
+  public int getSmtpConnections() {
+    if (config_.smtp_connections == null) {
+      return 2;
+    }
+    return config_.smtp_connections;
+  }
+
+  /**
+   * Get the maximum number of emails waiting in the outbox.
+   * 
+   * @return outbox capacity
+   */
+  public int getOutboxCapacity() {
+    if (config_.outbox_capacity == null) {
+      return 10000;
+    }
+    return config_.outbox_capacity;
+  }
+
+  /**
+   * Get the number of threads sending emails from the outbox.
+   * 
+   * @return number of threads
+   */
+  public int getEmailSenderThreads() {
+    if (config_.email_sender_threads == null) {
+      return 2;
+    }
+    return config_.email_sender_threads;
+  }
+
+  /**
+   * Get the window over which the results emails for each recipient are
+   * collected into one digest.
+   * 
+   * @return window in seconds, or 0 to send each results email on its own
+   */
+  public int getDigestWindowSeconds() {
+    if (config_.digest_window_seconds == null) {
+      return 0;
+    }
+    return config_.digest_window_seconds;
+  }
+
+  /**
+   * Get the type of store for saved searches.
+   * 
+   * @return "journal" or "file"
+   */
+  public String getSearchStore() {
+    if (config_.search_store == null) {
+      return "journal";
+    }
+    return config_.search_store;
+  }
+
+  /**
+   * Check whether the file search store writes an index on shutdown.
+   * 
+   * @return true if the index is enabled, false otherwise
+   */
+  public boolean isSearchIndex() {
+    if (config_.search_index == null) {
+      return true;
+    }
+    return config_.search_index;
+  }
+
+  /**
+   * Get the interval between writes of held back search date updates.
+   * 
+   * @return interval in seconds, or 0 to write every update straight away
+   */
+  public int getPersistFlushSeconds() {
+    if (config_.persist_flush_seconds == null) {
+      return 0;
+    }
+    return config_.persist_flush_seconds;
+  }
+
+  /**
+   * Get the token which scrapers must present to read the metrics.
+   * 
+   * @return token, or null if only local scrapers may read the metrics
+   */
+  public String getMetricsToken() {
+    return config_.metrics_token;
+  }
+
+  /**
+   * Get the number of slots in the seen post set of each feed.
+   * 
+   * @return number of slots
+   */
+  public int getSeenPostCapacity() {
+    if (config_.seen_post_capacity == null) {
+      return 4096;
+    }
+    return config_.seen_post_capacity;
+  }
+
+  /**
+   * Get the number of days after which seen posts can be forgotten.
+   * 
+   * @return number of days
+   */
+  public int getSeenPostDays() {
+    if (config_.seen_post_days == null) {
+      return 30;
+    }
+    return config_.seen_post_days;
+  }
+
+  /**
+   * Get the name of the parser for RSS feeds.
+   * 
+   * @return "streaming" or "dom"
+   */
+  public String getRssParser() {
+    if (config_.rss_parser == null) {
+      return "streaming";
+    }
+    return config_.rss_parser;
+  }
+
+  /**
+   * Get the factor by which the interval of a search which finds few new
+   * results can be stretched beyond its frequency.
+   * 
+   * @return factor, where 1 keeps every search at its frequency
+   */
+  public int getAdaptivePollFactor() {
+    if (config_.adaptive_poll_factor == null) {
+      return 1;
+    }
+    return config_.adaptive_poll_factor;
+  }
+
+  /**
+   * Get the shortest time between runs of a search which is run early with
+   * spare rate limit permits.
+   * 
+   * @return number of seconds, or 0 if searches are never run early
+   */
+  public int getIdlePollMinSeconds() {
+    if (config_.idle_poll_min_seconds == null) {
+      return 0;
+    }
+    return config_.idle_poll_min_seconds;
+  }
+
+  /**
+   * Get the name of the result fetcher used by searches which do not choose
+   * one.
+   * 
+   * @return "rss" or "html"
+   */
+  public String getResultFetcher() {
+    if (config_.result_fetcher == null) {
+      return "rss";
+    }
+    return config_.result_fetcher;
+  }
+
+  /**
+   * Get the time zone of the times on search results pages.
+   * 
+   * @return time zone
+   */
+  public ZoneId getHtmlTimeZone() {
+    if (config_.html_time_zone == null) {
+      return ZoneId.systemDefault();
+    }
+    return ZoneId.of(config_.html_time_zone);
+  }
+
   /**
    * Set the context path.
    * 
@@ -131,6 +458,7 @@ public class ConfigManager {
    */
   public void setContextPath(String contextPath) {
     contextPath_ = contextPath;
+    unsubscribeBaseURL_ = null;
   }
 
   /**
@@ -142,6 +470,21 @@ public class ConfigManager {
     return contextPath_;
   }
 
+  /**
+   * Get the unsubscribe link without the search's UUID, which is built from the
+   * base URL and the context path once rather than for every email.
+   * 
+   * @return unsubscribe link ending with the UUID parameter name
+   */
+  public String getUnsubscribeBaseURL() {
+    String unsubscribeBaseURL = unsubscribeBaseURL_;
+    if (unsubscribeBaseURL == null) {
+      unsubscribeBaseURL = getBaseURL() + getContextPath() + "/Unsubscribe?uuid=";
+      unsubscribeBaseURL_ = unsubscribeBaseURL;
+    }
+    return unsubscribeBaseURL;
+  }
+
   /**
    * Simple serializable class for config data.
    */
@@ -165,6 +508,84 @@ public class ConfigManager {
     /** Max searches per minute **/
     public Integer max_searches_per_minute;
 
+    /** Rate limit burst (optional) **/
+    public Integer rate_limit_burst;
+
+    /** Worker threads (optional) **/
+    public Integer worker_threads;
+
+    /** HTTP I/O threads (optional) **/
+    public Integer http_io_threads;
+
+    /** HTTP max connections (optional) **/
+    public Integer http_max_connections;
+
+    /** HTTP connect timeout in seconds (optional) **/
+    public Integer http_connect_timeout_seconds;
+
+    /** HTTP read timeout in seconds (optional) **/
+    public Integer http_read_timeout_seconds;
+
+    /** HTTP max response size in kilobytes (optional) **/
+    public Integer http_max_response_kilobytes;
+
+    /** SMTP host (optional) **/
+    public String smtp_host;
+
+    /** SMTP port (optional) **/
+    public Integer smtp_port;
+
+    /** SMTP authentication (optional) **/
+    public Boolean smtp_auth;
+
+    /** SMTP STARTTLS (optional) **/
+    public Boolean smtp_starttls;
+
+    /** SMTP connections (optional) **/
+    public Integer smtp_connections;
+
+    /** Outbox capacity (optional) **/
+    public Integer outbox_capacity;
+
+    /** Email sender threads (optional) **/
+    public Integer email_sender_threads;
+
+    /** Digest window in seconds (optional) **/
+    public Integer digest_window_seconds;
+
+    /** RSS parser (optional) **/
+    public String rss_parser;
+
+    /** Adaptive poll factor (optional) **/
+    public Integer adaptive_poll_factor;
+
+    /** Idle poll minimum spacing in seconds (optional) **/
+    public Integer idle_poll_min_seconds;
+
+    /** Result fetcher (optional) **/
+    public String result_fetcher;
+
+    /** HTML time zone (optional) **/
+    public String html_time_zone;
+
+    /** Seen post capacity (optional) **/
+    public Integer seen_post_capacity;
+
+    /** Seen post days (optional) **/
+    public Integer seen_post_days;
+
+    /** Search store (optional) **/
+    public String search_store;
+
+    /** Search index (optional) **/
+    public Boolean search_index;
+
+    /** Persist flush interval in seconds (optional) **/
+    public Integer persist_flush_seconds;
+
+    /** Metrics token (optional) **/
+    public String metrics_token;
+
     /**
      * Check that the values have been initialized properly, and throw an exception
      * if not.
@@ -203,6 +624,86 @@ public class ConfigManager {
       // Check the max searches per second
       if (max_searches_per_minute == null) {
         throw new Exception("max_searches_per_minute cannot be null.");
+      } else if (max_searches_per_minute <= 0) {
+        throw new Exception("max_searches_per_minute must be positive.");
+      }
+
+      // Check the rate limit burst
+      if (rate_limit_burst != null && rate_limit_burst <= 0) {
+        throw new Exception("rate_limit_burst must be positive.");
+      }
+
+      // Check the number of worker threads
+      if (worker_threads != null && worker_threads <= 0) {
+        throw new Exception("worker_threads must be positive.");
+      }
+
+      // Check the HTTP settings
+      if (http_io_threads != null && http_io_threads <= 0) {
+        throw new Exception("http_io_threads must be positive.");
+      } else if (http_max_connections != null && http_max_connections <= 0) {
+        throw new Exception("http_max_connections must be positive.");
+      } else if (http_connect_timeout_seconds != null && http_connect_timeout_seconds <= 0) {
+        throw new Exception("http_connect_timeout_seconds must be positive.");
+      } else if (http_read_timeout_seconds != null && http_read_timeout_seconds <= 0) {
+        throw new Exception("http_read_timeout_seconds must be positive.");
+      } else if (http_max_response_kilobytes != null && http_max_response_kilobytes <= 0) {
+        throw new Exception("http_max_response_kilobytes must be positive.");
+      }
+
+      // Check the SMTP settings
+      if (smtp_port != null && (smtp_port <= 0 || smtp_port > 65535)) {
+        throw new Exception("smtp_port must be a valid port number.");
+      } else if (smtp_connections != null && smtp_connections <= 0) {
+        throw new Exception("smtp_connections must be positive.");
+      } else if (outbox_capacity != null && outbox_capacity <= 0) {
+        throw new Exception("outbox_capacity must be positive.");
+      } else if (email_sender_threads != null && email_sender_threads <= 0) {
+        throw new Exception("email_sender_threads must be positive.");
+      } else if (digest_window_seconds != null && digest_window_seconds < 0) {
+        throw new Exception("digest_window_seconds must not be negative.");
+      }
+
+      // Check the RSS parser
+      if (rss_parser != null && !rss_parser.equals("streaming") && !rss_parser.equals("dom")) {
+        throw new Exception("rss_parser must be either streaming or dom.");
+      }
+
+      // Check the adaptive poll factor
+      if (adaptive_poll_factor != null && adaptive_poll_factor <= 0) {
+        throw new Exception("adaptive_poll_factor must be positive.");
+      } else if (idle_poll_min_seconds != null && idle_poll_min_seconds < 0) {
+        throw new Exception("idle_poll_min_seconds must not be negative.");
+      }
+
+      // Check the result fetcher
+      if (result_fetcher != null && !result_fetcher.equals("rss") && !result_fetcher.equals("html")) {
+        throw new Exception("result_fetcher must be either rss or html.");
+      } else if (html_time_zone != null) {
+        try {
+          ZoneId.of(html_time_zone);
+        } catch (Exception e) {
+          throw new Exception("html_time_zone must be a valid time zone ID.");
+        }
+      }
+
+      // Check the seen post settings
+      if (seen_post_capacity != null && (seen_post_capacity <= 0 || seen_post_capacity > (1 << 24))) {
+        throw new Exception("seen_post_capacity must be between 1 and 16777216.");
+      } else if (seen_post_days != null && seen_post_days <= 0) {
+        throw new Exception("seen_post_days must be positive.");
+      }
+
+      // Check the search store
+      if (search_store != null && !search_store.equals("journal") && !search_store.equals("file")) {
+        throw new Exception("search_store must be either journal or file.");
+      } else if (persist_flush_seconds != null && persist_flush_seconds < 0) {
+        throw new Exception("persist_flush_seconds must not be negative.");
+      }
+
+      // Check the metrics token
+      if (metrics_token != null && metrics_token.isEmpty()) {
+        throw new Exception("metrics_token cannot be empty.");
       }
 
     }
@@ -13,9 +13,15 @@ public enum Errors {
   /** Invalid search **/
   INVALID_SEARCH("The search URL you entered is not valid."),
 
+  /** Invalid fetcher **/
+  INVALID_FETCHER("The specified result source is not valid."),
+
   /** Invalid name **/
   INVALID_NAME("The name you entered is not valid."),
 
+  /** Invalid filter **/
+  INVALID_FILTER("The keywords or price range you entered are not valid."),
+
   /** Unknown error **/
   UNKNOWN_ERROR("An unknown error occurred."),
 
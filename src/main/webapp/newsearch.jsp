@@ -16,13 +16,17 @@
 	bottom: 0;
 	left: 0;
 	width: 600px;
-	height: 300px;
+	height: 620px;
 }
 
 #email-input {
 	width: 600px;
 }
 
+#price-inputs input {
+	width: 295px;
+}
+
 #submit-button {
 	margin-top: 10px;
 	width: 100px;
@@ -68,6 +72,28 @@ input, div, p {
 				<label><input type="radio" name="frequency" value="week">Once
 					a week</label>
 			</div>
+			<p>Where should we look for new results?</p>
+			<select name="fetcher" class="form-control">
+				<option value="">Default</option>
+				<option value="rss">RSS feed (may lag by about an hour)</option>
+				<option value="html">Search results page</option>
+			</select>
+			<p>Only email results with these keywords and prices (optional,
+				separate keywords with commas)</p>
+			<input type="text" class="form-control" name="include"
+				placeholder="Any of these keywords"> <input type="text"
+				class="form-control" name="exclude"
+				placeholder="None of these keywords">
+			<div id="price-inputs" class="form-inline">
+				<input type="number" class="form-control" name="minPrice" min="0"
+					placeholder="Lowest price"> <input type="number"
+					class="form-control" name="maxPrice" min="0"
+					placeholder="Highest price">
+			</div>
+			<div class="checkbox">
+				<label><input type="checkbox" name="titleOnly" value="true">Only
+					match keywords in titles</label>
+			</div>
 			<input type="submit" id="submit-button"
 				class="btn btn-info form-control" value="Submit">
 		</form>